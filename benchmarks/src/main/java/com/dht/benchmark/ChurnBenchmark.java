@@ -0,0 +1,76 @@
+package com.dht.benchmark;
+
+import com.dht.NodeLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * registerInstance/deregisterInstance latency of one instance against a ring of instanceCount instances.
+ * Each invocation is timed individually, the untimed invocation setup/teardown restores the ring.
+ */
+public class ChurnBenchmark {
+
+    private static final String CHURN_INSTANCE_ID = "churnInstance";
+    private static final String CHURN_HOST = "churnHost";
+
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public abstract static class Churn {
+        @Param({"V1", "V2", "V3", "MAGLEV", "MULTI_PROBE"})
+        private String impl;
+
+        @Param({"4", "64", "1000", "10000"})
+        private int instanceCount;
+
+        @Param({"100", "420"})
+        private int vNodeCount;
+
+        NodeLocator nodeLocator;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            nodeLocator = Locators.createWithInstances(impl, instanceCount, vNodeCount);
+        }
+    }
+
+    public static class Register extends Churn {
+        @TearDown(Level.Invocation)
+        public void deregister() {
+            nodeLocator.deregisterInstance(CHURN_INSTANCE_ID);
+        }
+
+        @Benchmark
+        public void registerInstance() {
+            nodeLocator.registerInstance(CHURN_INSTANCE_ID, CHURN_HOST, 8080);
+        }
+    }
+
+    public static class Deregister extends Churn {
+        @Setup(Level.Invocation)
+        public void register() {
+            nodeLocator.registerInstance(CHURN_INSTANCE_ID, CHURN_HOST, 8080);
+        }
+
+        @Benchmark
+        public void deregisterInstance() {
+            nodeLocator.deregisterInstance(CHURN_INSTANCE_ID);
+        }
+    }
+}
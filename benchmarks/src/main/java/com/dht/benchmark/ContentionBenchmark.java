@@ -0,0 +1,78 @@
+package com.dht.benchmark;
+
+import com.dht.NodeLocator;
+import com.dht.model.InstanceInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readers routing while a writer continuously deregisters and reregisters instances, the benchmark
+ * equivalent of ConsistentHasherV1Test.testRouteAndRegisterInstanceWithDifferentThreads.
+ * The default mix is 7 readers to 1 writer, change it with {@code -tg readers,writers}.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentionBenchmark {
+
+    private static final int KEY_MASK = (1 << 16) - 1;
+
+    @Param({"V1", "V2", "V3", "MAGLEV"})
+    private String impl;
+
+    @Param({"4", "64", "1000"})
+    private int instanceCount;
+
+    @Param({"420"})
+    private int vNodeCount;
+
+    private NodeLocator nodeLocator;
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        nodeLocator = Locators.createWithInstances(impl, instanceCount, vNodeCount);
+        keys = Locators.keys(KEY_MASK + 1);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++;
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public InstanceInfo route(final Cursor cursor) {
+        return nodeLocator.route(keys[cursor.next() & KEY_MASK]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void churn(final Cursor cursor) {
+        int instanceIdx = cursor.next() % instanceCount;
+        nodeLocator.deregisterInstance("instance" + instanceIdx);
+        nodeLocator.registerInstance("instance" + instanceIdx, "host" + instanceIdx, 8080);
+    }
+}
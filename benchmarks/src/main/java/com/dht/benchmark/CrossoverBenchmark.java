@@ -0,0 +1,74 @@
+package com.dht.benchmark;
+
+import com.dht.NodeLocator;
+import com.dht.hash.Murmur3Hasher;
+import com.dht.model.InstanceInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * route() of rendezvous hashing, linear in the instance count, against the logarithmic TreeMap lookup
+ * of V1 at the default 420 vnodes, to find the pool size where rendezvous stops being cheaper. Keys are
+ * hashed once up front with murmur3_128 and routed by hash, so both sides pay for the lookup only and
+ * not for their different key hashing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrossoverBenchmark {
+
+    private static final int KEY_MASK = (1 << 16) - 1;
+
+    @Param({"V1", "RENDEZVOUS"})
+    private String impl;
+
+    @Param({"2", "4", "8", "16", "32", "64", "128", "256"})
+    private int instanceCount;
+
+    private NodeLocator nodeLocator;
+    private long[] keyHighs;
+    private long[] keyLows;
+
+    @Setup
+    public void setUp() {
+        nodeLocator = Locators.createWithInstances(impl, instanceCount, 420);
+        String[] keys = Locators.keys(KEY_MASK + 1);
+        keyHighs = new long[keys.length];
+        keyLows = new long[keys.length];
+        Murmur3Hasher hasher = new Murmur3Hasher();
+        for (int i = 0; i < keys.length; i++) {
+            hasher.hash(keys[i]);
+            keyHighs[i] = hasher.high();
+            keyLows[i] = hasher.low();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class KeyCursor {
+        private int next;
+
+        int next() {
+            return next++ & KEY_MASK;
+        }
+    }
+
+    @Benchmark
+    public InstanceInfo route(final KeyCursor cursor) {
+        int keyIdx = cursor.next();
+        return nodeLocator.route(keyHighs[keyIdx], keyLows[keyIdx]);
+    }
+}
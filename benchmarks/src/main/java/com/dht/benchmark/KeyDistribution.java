@@ -0,0 +1,56 @@
+package com.dht.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Picks the index of the next key to route out of keyCount keys, the load generator's request mix.
+ */
+public interface KeyDistribution {
+
+    int nextIndex(SplittableRandom random);
+
+    static KeyDistribution uniform(final int keyCount) {
+        if (keyCount < 1) {
+            throw new IllegalArgumentException("keyCount must be positive: " + keyCount);
+        }
+        return random -> random.nextInt(keyCount);
+    }
+
+    /**
+     * Zipf distribution, key i is picked with probability proportional to 1 / (i + 1)^exponent, so a few
+     * hot keys dominate. Sampling is a binary search over the precomputed cumulative distribution.
+     */
+    static KeyDistribution zipfian(final int keyCount, final double exponent) {
+        if (keyCount < 1) {
+            throw new IllegalArgumentException("keyCount must be positive: " + keyCount);
+        }
+        if (exponent <= 0) {
+            throw new IllegalArgumentException("exponent must be positive: " + exponent);
+        }
+        double[] cdf = new double[keyCount];
+        double sum = 0;
+        for (int i = 0; i < keyCount; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        double total = sum;
+        return random -> {
+            int idx = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            return Math.min(idx < 0 ? -idx - 1 : idx, keyCount - 1);
+        };
+    }
+
+    /**
+     * Parses {@code uniform} or {@code zipf:<exponent>}, as given to {@code --keys}.
+     */
+    static KeyDistribution parse(final String spec, final int keyCount) {
+        if ("uniform".equals(spec)) {
+            return uniform(keyCount);
+        }
+        if (spec.startsWith("zipf:")) {
+            return zipfian(keyCount, Double.parseDouble(spec.substring("zipf:".length())));
+        }
+        throw new IllegalArgumentException("unknown key distribution: " + spec);
+    }
+}
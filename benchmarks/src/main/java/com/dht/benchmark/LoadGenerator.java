@@ -0,0 +1,258 @@
+package com.dht.benchmark;
+
+import com.dht.LatencyHistogram;
+import com.dht.NodeLocator;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load harness for any NodeLocator: worker threads route keys at a fixed aggregate rate while a
+ * churn thread changes membership on a schedule. Latency is measured from the time a request was due, not
+ * from when a stalled worker got round to it, so writer stalls show up in the tail instead of silently
+ * lowering the request rate. Routes that overlap a membership change are also recorded separately.
+ * <p>
+ * Unlike the JMH suites this measures percentiles over a whole run under a mixed workload, e.g.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.dht.benchmark.LoadGenerator --impl=V1 --rate=2000000 \
+ *     --keys=zipf:1.1 --churn-ms=5
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    private final NodeLocator nodeLocator;
+    private final Options options;
+    //odd while a membership change is in progress
+    private final AtomicLong churnEpoch = new AtomicLong();
+    private final LatencyHistogram routeLatency = new LatencyHistogram();
+    private final LatencyHistogram churnRouteLatency = new LatencyHistogram();
+    private final LatencyHistogram churnLatency = new LatencyHistogram();
+    //keeps the routes from being optimised away
+    private volatile int ownerHashes;
+
+    /**
+     * @param threads       worker threads routing keys
+     * @param ratePerSecond aggregate route rate spread evenly over the workers, 0 routes as fast as possible
+     * @param warmupMillis  leading part of the run that is not recorded
+     * @param keyCount      routed keys are "key0" to "key(keyCount - 1)"
+     * @param churn         membership changes during the run, null for none
+     */
+    public record Options(int threads, long ratePerSecond, long durationMillis, long warmupMillis, int keyCount,
+                          KeyDistribution keyDistribution, ChurnSchedule churn) {
+
+        public Options {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be positive: " + threads);
+            }
+            if (ratePerSecond < 0) {
+                throw new IllegalArgumentException("ratePerSecond must not be negative: " + ratePerSecond);
+            }
+            if (warmupMillis < 0 || durationMillis <= warmupMillis) {
+                throw new IllegalArgumentException("warmup must be shorter than the run: " + warmupMillis);
+            }
+            Objects.requireNonNull(keyDistribution, "keyDistribution");
+        }
+    }
+
+    /**
+     * Every intervalMillis the instances taken down on the previous tick come back and the next batchSize
+     * registered instances, round-robin, go down, as one applyChanges() batch. The ring size stays constant.
+     */
+    public record ChurnSchedule(long intervalMillis, int batchSize) {
+
+        public ChurnSchedule {
+            if (intervalMillis < 1 || batchSize < 1) {
+                throw new IllegalArgumentException("interval and batch size must be positive");
+            }
+        }
+    }
+
+    /**
+     * Recorded part of a run. Route latencies are in nanoseconds from the time each route was due,
+     * churnRouteLatency holds the routes that overlapped a membership change, churnLatency the changes.
+     */
+    public record Report(long routeCount, double routesPerSecond, LatencyHistogram routeLatency,
+                         LatencyHistogram churnRouteLatency, long churnCount, LatencyHistogram churnLatency) {
+
+        public String format() {
+            return String.format("routes: %d (%.0f/s)%n", routeCount, routesPerSecond)
+                    + formatLatency("route latency", routeLatency)
+                    + formatLatency("route latency during churn", churnRouteLatency)
+                    + String.format("membership changes: %d%n", churnCount)
+                    + formatLatency("membership change latency", churnLatency);
+        }
+
+        private static String formatLatency(final String name, final LatencyHistogram histogram) {
+            return String.format("%s (us): p50=%.1f p99=%.1f p99.9=%.1f max=%.1f%n", name,
+                                 histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                                 histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMax() / 1e3);
+        }
+    }
+
+    private LoadGenerator(final NodeLocator nodeLocator, final Options options) {
+        this.nodeLocator = nodeLocator;
+        this.options = options;
+    }
+
+    /**
+     * Drives the locator for the configured duration and returns what was recorded after the warmup.
+     * The locator's instances must be registered beforehand, churn takes them down and back up.
+     */
+    public static Report run(final NodeLocator nodeLocator, final Options options) throws InterruptedException {
+        return new LoadGenerator(nodeLocator, options).run();
+    }
+
+    private Report run() throws InterruptedException {
+        String[] keys = Locators.keys(options.keyCount());
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        long recordFromNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(options.warmupMillis());
+        long endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(options.durationMillis());
+        long periodNanos = options.ratePerSecond() == 0
+                ? 0
+                : Math.max(1, TimeUnit.SECONDS.toNanos(options.threads()) / options.ratePerSecond());
+
+        List<Thread> threads = new ArrayList<>();
+        long[] routeCounts = new long[options.threads()];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < options.threads(); i++) {
+            int worker = i;
+            SplittableRandom workerRandom = random.split();
+            //workers are staggered so that the aggregate schedule is evenly spaced
+            long firstDueNanos = startNanos + periodNanos * worker / options.threads();
+            threads.add(new Thread(() -> routeCounts[worker] = route(keys, workerRandom, firstDueNanos, periodNanos,
+                                                                     recordFromNanos, endNanos),
+                                   "load-worker-" + worker));
+        }
+        long[] churnCount = new long[1];
+        if (Objects.nonNull(options.churn())) {
+            threads.add(new Thread(() -> churnCount[0] = churn(startNanos, recordFromNanos, endNanos), "load-churn"));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long routeCount = 0;
+        for (long count : routeCounts) {
+            routeCount += count;
+        }
+        double recordedSeconds = (endNanos - recordFromNanos) / 1e9;
+        return new Report(routeCount, routeCount / recordedSeconds, routeLatency, churnRouteLatency, churnCount[0],
+                          churnLatency);
+    }
+
+    /**
+     * Open-loop worker: route i is due at firstDueNanos + i * periodNanos whether or not the previous one
+     * finished in time, a worker that falls behind routes back to back until it catches up.
+     */
+    private long route(final String[] keys, final SplittableRandom random, final long firstDueNanos,
+                       final long periodNanos, final long recordFromNanos, final long endNanos) {
+        KeyDistribution keyDistribution = options.keyDistribution();
+        long routeCount = 0;
+        long dueNanos = firstDueNanos;
+        int ownerHash = 0;
+        while (dueNanos < endNanos) {
+            long now = System.nanoTime();
+            if (periodNanos == 0) {
+                dueNanos = now;
+            } else if (now < dueNanos) {
+                LockSupport.parkNanos(dueNanos - now);
+                continue;
+            }
+            long epochBefore = churnEpoch.get();
+            InstanceInfo owner = nodeLocator.route(keys[keyDistribution.nextIndex(random)]);
+            long doneNanos = System.nanoTime();
+            ownerHash += System.identityHashCode(owner);
+            if (dueNanos >= recordFromNanos) {
+                routeLatency.record(doneNanos - dueNanos);
+                if ((epochBefore & 1) == 1 || churnEpoch.get() != epochBefore) {
+                    churnRouteLatency.record(doneNanos - dueNanos);
+                }
+                routeCount++;
+            }
+            dueNanos += periodNanos;
+        }
+        ownerHashes += ownerHash;
+        return routeCount;
+    }
+
+    private long churn(final long startNanos, final long recordFromNanos, final long endNanos) {
+        ChurnSchedule schedule = options.churn();
+        List<InstanceInfo> instances = nodeLocator.getInstanceList();
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(schedule.intervalMillis());
+        int batchSize = Math.min(schedule.batchSize(), instances.size() - 1);
+        List<InstanceInfo> down = List.of();
+        long churnCount = 0;
+        int next = 0;
+        for (long dueNanos = startNanos + intervalNanos; dueNanos < endNanos; dueNanos += intervalNanos) {
+            long now = System.nanoTime();
+            if (now < dueNanos) {
+                LockSupport.parkNanos(dueNanos - now);
+            }
+            List<InstanceRegistration> registrations = new ArrayList<>();
+            down.forEach(instance -> registrations.add(new InstanceRegistration(instance.getInstanceId(),
+                                                                                instance.getHost(),
+                                                                                instance.getPort())));
+            List<InstanceInfo> goingDown = new ArrayList<>();
+            for (int i = 0; i < batchSize; i++, next = (next + 1) % instances.size()) {
+                goingDown.add(instances.get(next));
+            }
+            goingDown.removeAll(down);
+            long changeStartNanos = System.nanoTime();
+            churnEpoch.incrementAndGet();
+            nodeLocator.applyChanges(registrations, goingDown.stream().map(InstanceInfo::getInstanceId).toList());
+            churnEpoch.incrementAndGet();
+            if (changeStartNanos >= recordFromNanos) {
+                churnLatency.record(System.nanoTime() - changeStartNanos);
+                churnCount++;
+            }
+            down = goingDown;
+        }
+        return churnCount;
+    }
+
+    /**
+     * Options as {@code --name=value}: impl (a {@link Locators} name), instances, vnodes, threads, rate
+     * (routes per second, 0 for closed loop), seconds, warmup-seconds, key-count, keys (uniform or
+     * zipf:exponent), churn-ms (0 for no churn) and churn-batch.
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("expected --name=value: " + arg);
+            }
+            arguments.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        String impl = arguments.getOrDefault("impl", "V1");
+        int instanceCount = Integer.parseInt(arguments.getOrDefault("instances", "64"));
+        int vNodeCount = Integer.parseInt(arguments.getOrDefault("vnodes", "420"));
+        int keyCount = Integer.parseInt(arguments.getOrDefault("key-count", "1000000"));
+        long churnMillis = Long.parseLong(arguments.getOrDefault("churn-ms", "5"));
+        Options options = new Options(
+                Integer.parseInt(arguments.getOrDefault("threads",
+                                                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Long.parseLong(arguments.getOrDefault("rate", "1000000")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(arguments.getOrDefault("seconds", "10"))),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(arguments.getOrDefault("warmup-seconds", "2"))),
+                keyCount,
+                KeyDistribution.parse(arguments.getOrDefault("keys", "uniform"), keyCount),
+                churnMillis == 0 ? null
+                                 : new ChurnSchedule(churnMillis,
+                                                     Integer.parseInt(arguments.getOrDefault("churn-batch", "1"))));
+        NodeLocator nodeLocator = Locators.createWithInstances(impl, instanceCount, vNodeCount);
+        System.out.printf("%s, %d instances, %d threads, rate %d/s, keys %s, churn every %d ms%n", impl, instanceCount,
+                          options.threads(), options.ratePerSecond(), arguments.getOrDefault("keys", "uniform"),
+                          churnMillis);
+        System.out.print(run(nodeLocator, options).format());
+    }
+}
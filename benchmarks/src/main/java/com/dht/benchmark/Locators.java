@@ -0,0 +1,50 @@
+package com.dht.benchmark;
+
+import com.dht.ConsistentHasherV1;
+import com.dht.ConsistentHasherV2;
+import com.dht.ConsistentHasherV3;
+import com.dht.MaglevHasher;
+import com.dht.MultiProbeHasher;
+import com.dht.NodeLocator;
+import com.dht.RendezvousHasher;
+
+import java.util.function.IntFunction;
+
+/**
+ * NodeLocator implementations under benchmark, selected by name through the {@code impl} parameter.
+ * Implementations without virtual nodes ignore the vnode count.
+ */
+public enum Locators {
+    V1(vNodeCnt -> new ConsistentHasherV1(null, vNodeCnt)),
+    V2(vNodeCnt -> new ConsistentHasherV2(null, vNodeCnt)),
+    V3(vNodeCnt -> new ConsistentHasherV3(null, vNodeCnt)),
+    MAGLEV(vNodeCnt -> new MaglevHasher()),
+    RENDEZVOUS(vNodeCnt -> new RendezvousHasher()),
+    MULTI_PROBE(vNodeCnt -> new MultiProbeHasher());
+
+    private final IntFunction<NodeLocator> factory;
+
+    Locators(final IntFunction<NodeLocator> factory) {
+        this.factory = factory;
+    }
+
+    public NodeLocator create(final int vNodeCnt) {
+        return factory.apply(vNodeCnt);
+    }
+
+    static NodeLocator createWithInstances(final String impl, final int instanceCount, final int vNodeCnt) {
+        NodeLocator nodeLocator = valueOf(impl).create(vNodeCnt);
+        for (int i = 0; i < instanceCount; i++) {
+            nodeLocator.registerInstance("instance" + i, "host" + i, 8080);
+        }
+        return nodeLocator;
+    }
+
+    static String[] keys(final int keyCount) {
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,69 @@
+package com.dht.benchmark;
+
+import com.dht.NodeLocator;
+import com.dht.model.InstanceInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * route() cost with metrics off against on, off must match {@link RouteBenchmark} within noise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private static final int KEY_MASK = (1 << 16) - 1;
+
+    @Param({"V1", "V2", "V3", "MAGLEV"})
+    private String impl;
+
+    @Param({"false", "true"})
+    private boolean metrics;
+
+    private NodeLocator nodeLocator;
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        nodeLocator = Locators.createWithInstances(impl, 64, 420);
+        keys = Locators.keys(KEY_MASK + 1);
+        if (metrics) {
+            nodeLocator.enableMetrics("MetricsBenchmark-" + impl);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        nodeLocator.disableMetrics();
+    }
+
+    @State(Scope.Thread)
+    public static class KeyCursor {
+        private int next;
+
+        int next() {
+            return next++ & KEY_MASK;
+        }
+    }
+
+    @Benchmark
+    public InstanceInfo route(final KeyCursor cursor) {
+        return nodeLocator.route(keys[cursor.next()]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.dht.benchmark;
+
+import com.dht.NodeLocator;
+import com.dht.model.InstanceInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * route() throughput and latency against a static ring. Run with {@code -t N} for N reader threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteBenchmark {
+
+    private static final int KEY_MASK = (1 << 16) - 1;
+
+    @Param({"V1", "V2", "V3", "MAGLEV", "MULTI_PROBE"})
+    private String impl;
+
+    @Param({"4", "64", "1000", "10000"})
+    private int instanceCount;
+
+    @Param({"100", "420"})
+    private int vNodeCount;
+
+    private NodeLocator nodeLocator;
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        nodeLocator = Locators.createWithInstances(impl, instanceCount, vNodeCount);
+        keys = Locators.keys(KEY_MASK + 1);
+    }
+
+    @State(Scope.Thread)
+    public static class KeyCursor {
+        private int next;
+
+        int next() {
+            return next++ & KEY_MASK;
+        }
+    }
+
+    @Benchmark
+    public InstanceInfo route(final KeyCursor cursor) {
+        return nodeLocator.route(keys[cursor.next()]);
+    }
+
+    @Benchmark
+    public int routeToIndex(final KeyCursor cursor) {
+        return nodeLocator.routeToIndex(keys[cursor.next()]);
+    }
+}
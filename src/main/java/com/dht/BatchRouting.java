@@ -0,0 +1,176 @@
+package com.dht;
+
+import com.dht.hash.Murmur3Hasher;
+import com.dht.hash.XxHash64;
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.VirtualNode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Shared plumbing for routeAll(): keys are hashed outside any lock in chunks, optionally on a
+ * ForkJoinPool, and each chunk is sorted by hash so the ring lookup becomes a single sweep.
+ */
+final class BatchRouting {
+
+    /** Below this many keys per chunk sorting costs more than independent ring lookups. */
+    static final int SORT_THRESHOLD = 64;
+    /** Keys per chunk, and the smallest batch that is split across a ForkJoinPool. */
+    static final int CHUNK_SIZE = 8192;
+
+    private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+    private static final HashFunction XXHASH_64 = XxHash64.hashFunction();
+
+    private BatchRouting() {
+    }
+
+    /**
+     * Hashes of a chunk of keys, {@code order[i]} is the position in the batch of the key hashed
+     * into {@code high[i], low[i]}.
+     */
+    record HashedKeys(long[] high, long[] low, int[] order, boolean sorted) {
+    }
+
+    /**
+     * Hashes the keys chunk by chunk, in parallel when a pool is given and the batch is large.
+     */
+    static HashedKeys[] hashChunks(final String[] keys, final HashFunction hashFunction, final ForkJoinPool pool) {
+        HashedKeys[] chunks = new HashedKeys[chunkCount(keys.length)];
+        forEachChunk(chunks.length, pool, chunk -> chunks[chunk] = hashChunk(keys, chunk, hashFunction));
+        return chunks;
+    }
+
+    /**
+     * Runs the task for every chunk index in [0, chunkCnt), on the pool when there is more than one chunk.
+     */
+    static void forEachChunk(final int chunkCnt, final ForkJoinPool pool, final IntConsumer chunkTask) {
+        if (Objects.isNull(pool) || chunkCnt <= 1) {
+            for (int chunk = 0; chunk < chunkCnt; chunk++) {
+                chunkTask.accept(chunk);
+            }
+            return;
+        }
+        pool.invoke(new ChunkAction(0, chunkCnt, chunkTask));
+    }
+
+    static int chunkCount(final int keyCnt) {
+        return (keyCnt + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    static HashedKeys hashChunk(final String[] keys, final int chunk, final HashFunction hashFunction) {
+        int from = chunk * CHUNK_SIZE;
+        int len = Math.min(keys.length - from, CHUNK_SIZE);
+        long[] high = new long[len];
+        long[] low = new long[len];
+        int[] order = new int[len];
+        if (MURMUR3_128.equals(hashFunction)) {
+            Murmur3Hasher hasher = new Murmur3Hasher();
+            for (int i = 0; i < len; i++) {
+                hasher.hash(keys[from + i]);
+                high[i] = hasher.high();
+                low[i] = hasher.low();
+                order[i] = from + i;
+            }
+        } else if (XXHASH_64.equals(hashFunction)) {
+            XxHash64 hasher = new XxHash64();
+            for (int i = 0; i < len; i++) {
+                high[i] = hasher.hash(keys[from + i]).value();
+                order[i] = from + i;
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                byte[] bytes = hashFunction.hashString(keys[from + i], StandardCharsets.UTF_8).asBytes();
+                ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+                high[i] = buffer.getLong();
+                low[i] = buffer.getLong();
+                order[i] = from + i;
+            }
+        }
+        boolean sorted = len >= SORT_THRESHOLD;
+        if (sorted) {
+            HashArrays.sort(high, low, order, 0, len);
+        }
+        return new HashedKeys(high, low, order, sorted);
+    }
+
+    /**
+     * Resolves the owners of a chunk against a TreeMap ring, the caller must hold the read lock.
+     * A sorted chunk that is dense relative to the ring is resolved by iterating the ring once,
+     * sparse chunks fall back to one ceilingEntry() per key.
+     */
+    static void ownersOf(final NavigableMap<Hash128Bit, VirtualNode> hashRing, final HashedKeys hashedKeys,
+                         final InstanceInfo[] out) {
+        long[] keyHigh = hashedKeys.high();
+        long[] keyLow = hashedKeys.low();
+        int[] order = hashedKeys.order();
+        if (hashRing.isEmpty()) {
+            return;
+        }
+        InstanceInfo first = hashRing.firstEntry().getValue().instanceInfo();
+        if (!hashedKeys.sorted() || (long) order.length * 32 < hashRing.size()) {
+            for (int i = 0; i < order.length; i++) {
+                Entry<Hash128Bit, VirtualNode> entry = hashRing.ceilingEntry(new Hash128Bit(keyHigh[i], keyLow[i]));
+                out[order[i]] = Objects.nonNull(entry) ? entry.getValue().instanceInfo() : first;
+            }
+            return;
+        }
+        Iterator<Entry<Hash128Bit, VirtualNode>> ringIterator =
+                hashRing.tailMap(new Hash128Bit(keyHigh[0], keyLow[0]), true).entrySet().iterator();
+        Entry<Hash128Bit, VirtualNode> entry = ringIterator.hasNext() ? ringIterator.next() : null;
+        for (int i = 0; i < order.length; i++) {
+            while (Objects.nonNull(entry)
+                    && HashArrays.compare(entry.getKey().getHigh(), entry.getKey().getLow(), keyHigh[i], keyLow[i]) < 0) {
+                entry = ringIterator.hasNext() ? ringIterator.next() : null;
+            }
+            out[order[i]] = Objects.nonNull(entry) ? entry.getValue().instanceInfo() : first;
+        }
+    }
+
+    static Map<InstanceInfo, List<String>> groupByOwner(final String[] keys, final InstanceInfo[] owners) {
+        Map<InstanceInfo, List<String>> keysByOwner = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (Objects.nonNull(owners[i])) {
+                keysByOwner.computeIfAbsent(owners[i], instanceInfo -> new ArrayList<>()).add(keys[i]);
+            }
+        }
+        return keysByOwner;
+    }
+
+    private static final class ChunkAction extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer chunkTask;
+
+        private ChunkAction(final int from, final int to, final IntConsumer chunkTask) {
+            this.from = from;
+            this.to = to;
+            this.chunkTask = chunkTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                chunkTask.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ChunkAction(from, mid, chunkTask), new ChunkAction(mid, to, chunkTask));
+        }
+    }
+}
@@ -1,25 +1,37 @@
 package com.dht;
 
 import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RouteCacheStats;
+import com.dht.model.RoutingKey;
 import com.dht.model.VirtualNode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import com.dht.model.Hash128Bit;
+import com.dht.model.HotKeyStats;
 import com.dht.model.InstanceInfo;
 import com.dht.model.InstanceInfoHashRange;
+import com.dht.model.InstanceRegistration;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
 
 
 /**
@@ -30,29 +42,180 @@ public class ConsistentHasherV1 implements NodeLocator {
 
     private static final int OPTIMISTIC_RETRY_CNT = 3;
     private final StampedLock stampedLock = new StampedLock();
-    private static final int VIRTUAL_NODE_CNT = 420;
+    private static final int DEFAULT_VIRTUAL_NODE_CNT = 420;
     private static final HashFunction DEFAULT_HASH_FN = Hashing.murmur3_128();
     private final HashFunction hashFunction;
+    private final int vNodeCnt;
     private final NavigableMap<Hash128Bit, VirtualNode> hashRing = new TreeMap<>();
     private final Map<String, InstanceInfoHashRange<Hash128Bit[]>> instanceIdToVNodeHashes = new HashMap<>();
+    private final Map<String, Integer> instanceIdToIdx = new HashMap<>();
+    private final List<InstanceInfo> instanceSlots = new ArrayList<>();
+    private volatile LoadTracker loadTracker;
+    //bumped under the write lock on every membership change, tags route cache entries
+    private volatile long ringVersion;
+    private volatile RouteCache routeCache;
+    private volatile HotKeySketch hotKeySketch;
+    private volatile LocatorMetrics metrics;
+    private volatile RingChangePublisher<RingSnapshot> ringChangePublisher;
+    //changes of the write in progress while ringChangePublisher is set, guarded by the write lock
+    private final List<RingChangePublisher.VNodeChange> vNodeChanges = new ArrayList<>();
+    //null until the first getRingDigest(), then updated by writers with every vnode
+    private volatile RingDigest ringDigest;
 
     public ConsistentHasherV1() {
         this(null);
     }
 
     public ConsistentHasherV1(final HashFunction hashFunction) {
+        this(hashFunction, DEFAULT_VIRTUAL_NODE_CNT);
+    }
+
+    /**
+     * @param vNodeCnt virtual nodes of an instance with weight 1
+     */
+    public ConsistentHasherV1(final HashFunction hashFunction, final int vNodeCnt) {
+        if (vNodeCnt < 1) {
+            throw new IllegalArgumentException("vNodeCnt must be positive: " + vNodeCnt);
+        }
         this.hashFunction = Objects.isNull(hashFunction) ? DEFAULT_HASH_FN : hashFunction;
+        this.vNodeCnt = vNodeCnt;
     }
 
     @Override
     public InstanceInfo route(final String key) {
+        RouteCache cache = this.routeCache;
+        InstanceInfo instanceInfo;
+        if (Objects.nonNull(cache) && Objects.isNull(this.loadTracker)) {
+            instanceInfo = cachedRoute(cache, key).instanceInfo();
+        } else {
+            byte[] bytes = hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes();
+            instanceInfo = route(getHash128Bit(bytes));
+        }
+        HotKeySketch sketch = this.hotKeySketch;
+        if (Objects.nonNull(sketch)) {
+            sketch.offer(key, instanceInfo);
+        }
+        return instanceInfo;
+    }
+
+    @Override
+    public InstanceInfo route(final byte[] key, final int offset, final int length) {
+        byte[] bytes = hashFunction.hashBytes(key, offset, length).asBytes();
+        return route(getHash128Bit(bytes));
+    }
+
+    @Override
+    public InstanceInfo route(final long hashHigh, final long hashLow) {
+        return route(new Hash128Bit(hashHigh, hashLow));
+    }
+
+    @Override
+    public InstanceInfo route(final RoutingKey key) {
+        InstanceInfo instanceInfo = route(key.hash(hashFunction));
+        HotKeySketch sketch = this.hotKeySketch;
+        if (Objects.nonNull(sketch)) {
+            sketch.offer(key.getKey(), instanceInfo);
+        }
+        return instanceInfo;
+    }
+
+    @Override
+    public int routeToIndex(final CharSequence key) {
+        RouteCache cache = this.routeCache;
+        if (key instanceof String stringKey && Objects.nonNull(cache) && Objects.isNull(this.loadTracker)) {
+            return cachedRoute(cache, stringKey).instanceIdx();
+        }
         byte[] bytes = hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes();
-        Hash128Bit hash128Bit = getHash128Bit(bytes);
+        return routeToIndex(getHash128Bit(bytes));
+    }
+
+    @Override
+    public int routeToIndex(final byte[] key, final int offset, final int length) {
+        byte[] bytes = hashFunction.hashBytes(key, offset, length).asBytes();
+        return routeToIndex(getHash128Bit(bytes));
+    }
+
+    @Override
+    public int routeToIndex(final long hashHigh, final long hashLow) {
+        return routeToIndex(new Hash128Bit(hashHigh, hashLow));
+    }
+
+    @Override
+    public int routeToIndex(final RoutingKey key) {
+        return routeToIndex(key.hash(hashFunction));
+    }
+
+    @Override
+    public InstanceInfo getInstance(final int instanceIdx) {
+        long stamp = stampedLock.readLock();
+        try {
+            return instanceIdx >= 0 && instanceIdx < instanceSlots.size() ? instanceSlots.get(instanceIdx) : null;
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    private int routeToIndex(final Hash128Bit hash128Bit) {
+        LocatorMetrics metrics = this.metrics;
+        long startNanos = Objects.isNull(metrics) ? 0L : metrics.startRoute();
+        LoadTracker tracker = this.loadTracker;
+        if (Objects.nonNull(tracker)) {
+            long stamp = stampedLock.readLock();
+            try {
+                InstanceInfo instanceInfo = getBoundedInstanceInfo(hash128Bit, tracker);
+                routed(metrics, instanceInfo, startNanos);
+                return getInstanceIdx(instanceInfo);
+            } finally {
+                stampedLock.unlockRead(stamp);
+            }
+        }
+        for (int ctr = 0; ctr < OPTIMISTIC_RETRY_CNT; ctr++) {
+            long stamp = stampedLock.tryOptimisticRead();
+            InstanceInfo instanceInfo = getInstanceInfo(hash128Bit);
+            int instanceIdx = getInstanceIdx(instanceInfo);
+            if (stampedLock.validate(stamp)) {
+                if (Objects.nonNull(metrics)) {
+                    metrics.optimisticReadSucceeded();
+                    metrics.routed(instanceInfo, startNanos);
+                }
+                return instanceIdx;
+            }
+        }
+
+        long stamp = stampedLock.readLock();
+        try {
+            InstanceInfo instanceInfo = getInstanceInfo(hash128Bit);
+            if (Objects.nonNull(metrics)) {
+                metrics.optimisticReadFellBack();
+                metrics.routed(instanceInfo, startNanos);
+            }
+            return getInstanceIdx(instanceInfo);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    private InstanceInfo route(final Hash128Bit hash128Bit) {
+        LocatorMetrics metrics = this.metrics;
+        long startNanos = Objects.isNull(metrics) ? 0L : metrics.startRoute();
+        LoadTracker tracker = this.loadTracker;
+        if (Objects.nonNull(tracker)) {
+            long stamp = stampedLock.readLock();
+            try {
+                return routed(metrics, getBoundedInstanceInfo(hash128Bit, tracker), startNanos);
+            } finally {
+                stampedLock.unlockRead(stamp);
+            }
+        }
         //first trying with Optimistic locking
         for (int ctr = 0; ctr < OPTIMISTIC_RETRY_CNT; ctr++) {
             long stamp = stampedLock.tryOptimisticRead();
             InstanceInfo instanceInfo = getInstanceInfo(hash128Bit);
             if (stampedLock.validate(stamp)) {
+                if (Objects.nonNull(metrics)) {
+                    metrics.optimisticReadSucceeded();
+                    metrics.routed(instanceInfo, startNanos);
+                }
                 return instanceInfo;
             }
         }
@@ -60,49 +223,412 @@ public class ConsistentHasherV1 implements NodeLocator {
         //Now trying with PESSIMISTIC locking, blocking call
         long stamp = stampedLock.readLock();
         try {
-            return getInstanceInfo(hash128Bit);
+            InstanceInfo instanceInfo = getInstanceInfo(hash128Bit);
+            if (Objects.nonNull(metrics)) {
+                metrics.optimisticReadFellBack();
+                metrics.routed(instanceInfo, startNanos);
+            }
+            return instanceInfo;
         } finally {
             stampedLock.unlockRead(stamp);
         }
     }
 
+    private static InstanceInfo routed(final LocatorMetrics metrics, final InstanceInfo instanceInfo,
+                                       final long startNanos) {
+        if (Objects.nonNull(metrics)) {
+            metrics.routed(instanceInfo, startNanos);
+        }
+        return instanceInfo;
+    }
+
     @Override
-    public void registerInstance(final String instanceId, final String host, final int port) {
-        long stamp = stampedLock.writeLock();
+    public int routeN(final String key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        byte[] bytes = hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes();
+        return routeN(getHash128Bit(bytes), n, out);
+    }
+
+    @Override
+    public int routeN(final RoutingKey key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        return routeN(key.hash(hashFunction), n, out);
+    }
+
+    private int routeN(final Hash128Bit hash128Bit, final int n, final InstanceInfo[] out) {
+        long stamp = stampedLock.readLock();
+        try {
+            int limit = Math.min(n, instanceIdToVNodeHashes.size());
+            return RingWalks.distinctOwners(hashRing, hash128Bit, limit, out);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    private RouteCache.CachedRoute cachedRoute(final RouteCache cache, final String key) {
+        LocatorMetrics metrics = this.metrics;
+        if (Objects.isNull(metrics)) {
+            return lookupCachedRoute(cache, key);
+        }
+        long startNanos = metrics.startRoute();
+        RouteCache.CachedRoute cached = lookupCachedRoute(cache, key);
+        metrics.routed(cached.instanceInfo(), startNanos);
+        return cached;
+    }
+
+    /**
+     * Misses route under the read lock so the cached owner and index come from the same ring.
+     */
+    private RouteCache.CachedRoute lookupCachedRoute(final RouteCache cache, final String key) {
+        long version = this.ringVersion;
+        RouteCache.CachedRoute cached = cache.get(key, version);
+        if (Objects.nonNull(cached)) {
+            return cached;
+        }
+        Hash128Bit hash128Bit = getHash128Bit(hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes());
+        long stamp = stampedLock.readLock();
+        try {
+            InstanceInfo instanceInfo = getInstanceInfo(hash128Bit);
+            return cache.put(key, version, getInstanceIdx(instanceInfo), instanceInfo);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Map<InstanceInfo, List<String>> routeAll(final String[] keys, final ForkJoinPool pool) {
+        return BatchRouting.groupByOwner(keys, routeAll(keys, pool, null));
+    }
+
+    @Override
+    public int[] routeAllToIndex(final String[] keys, final ForkJoinPool pool) {
+        int[] instanceIdxArr = new int[keys.length];
+        routeAll(keys, pool, instanceIdxArr);
+        return instanceIdxArr;
+    }
+
+    private InstanceInfo[] routeAll(final String[] keys, final ForkJoinPool pool, final int[] instanceIdxArr) {
+        BatchRouting.HashedKeys[] chunks = BatchRouting.hashChunks(keys, hashFunction, pool);
+        InstanceInfo[] owners = new InstanceInfo[keys.length];
+        //a single read of the ring for the whole batch
+        long stamp = stampedLock.readLock();
+        try {
+            for (BatchRouting.HashedKeys chunk : chunks) {
+                BatchRouting.ownersOf(hashRing, chunk, owners);
+            }
+            if (Objects.nonNull(instanceIdxArr)) {
+                for (int i = 0; i < owners.length; i++) {
+                    instanceIdxArr[i] = getInstanceIdx(owners[i]);
+                }
+            }
+            return owners;
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void enableBoundedLoad(final double epsilon) {
+        this.loadTracker = new LoadTracker(epsilon);
+    }
+
+    @Override
+    public void disableBoundedLoad() {
+        this.loadTracker = null;
+    }
+
+    @Override
+    public void enableRouteCache(final int capacity) {
+        this.routeCache = new RouteCache(capacity);
+    }
+
+    @Override
+    public void disableRouteCache() {
+        this.routeCache = null;
+    }
+
+    @Override
+    public RouteCacheStats getRouteCacheStats() {
+        RouteCache cache = this.routeCache;
+        return Objects.isNull(cache) ? null : cache.stats();
+    }
+
+    @Override
+    public void enableHotKeyTracking(final double sampleRate, final int trackedKeys) {
+        this.hotKeySketch = new HotKeySketch(sampleRate, trackedKeys);
+    }
+
+    @Override
+    public void disableHotKeyTracking() {
+        this.hotKeySketch = null;
+    }
+
+    @Override
+    public HotKeyStats getHotKeyStats(final int topK) {
+        HotKeySketch sketch = this.hotKeySketch;
+        return Objects.isNull(sketch) ? null : sketch.stats(topK, copyRing());
+    }
+
+    @Override
+    public synchronized LocatorMetrics enableMetrics(final String name) {
+        disableMetrics();
+        LocatorMetrics newMetrics = LocatorMetrics.register(name);
+        this.metrics = newMetrics;
+        return newMetrics;
+    }
+
+    @Override
+    public synchronized void disableMetrics() {
+        LocatorMetrics oldMetrics = this.metrics;
+        this.metrics = null;
+        if (Objects.nonNull(oldMetrics)) {
+            oldMetrics.unregister();
+        }
+    }
+
+    @Override
+    public LocatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public long getRingVersion() {
+        return ringVersion;
+    }
+
+    @Override
+    public Flow.Publisher<RingChangeEvent> ringChanges() {
+        RingChangePublisher<RingSnapshot> publisher = this.ringChangePublisher;
+        if (Objects.isNull(publisher)) {
+            long stamp = stampedLock.writeLock();
+            try {
+                publisher = this.ringChangePublisher;
+                if (Objects.isNull(publisher)) {
+                    publisher = RingChangePublisher.forRing(RingSnapshot.copyOf(ringVersion, hashRing, instanceSlots,
+                                                                                instanceIdToIdx));
+                    this.ringChangePublisher = publisher;
+                }
+            } finally {
+                stampedLock.unlock(stamp);
+            }
+        }
+        return publisher.publisher();
+    }
+
+    /**
+     * Called holding the write lock after a membership change, also one that failed part way. With a
+     * publisher, and when the ring moved past versionBefore, hands it the recorded vnode changes, the new ring
+     * is derived from them on the dispatcher.
+     */
+    private void publishChange(final long versionBefore) {
+        RingChangePublisher<RingSnapshot> publisher = this.ringChangePublisher;
+        if (Objects.nonNull(publisher) && ringVersion != versionBefore) {
+            publisher.publishChange(RingChangePublisher.applying(List.copyOf(vNodeChanges), ringVersion));
+        }
+        vNodeChanges.clear();
+    }
+
+    @Override
+    public RingDigest getRingDigest() {
+        //the digest is built once under the write lock, copies only need the read lock
+        long stamp = Objects.isNull(this.ringDigest) ? stampedLock.writeLock() : stampedLock.readLock();
         try {
-            if (instanceIdToVNodeHashes.containsKey(instanceId)) {
-                return;
+            RingDigest digest = this.ringDigest;
+            if (Objects.isNull(digest)) {
+                digest = RingDigest.of(hashRing);
+                this.ringDigest = digest;
             }
-            InstanceInfo instanceInfo = new InstanceInfo(instanceId, host, port);
+            return digest.copy(ringVersion);
+        } finally {
+            stampedLock.unlock(stamp);
+        }
+    }
 
-            Hash128Bit[] vNodeHashes = new Hash128Bit[VIRTUAL_NODE_CNT];
-            for (int ctr = 0; ctr < VIRTUAL_NODE_CNT; ctr++) {
-                VirtualNode virtualNode = new VirtualNode(instanceInfo, ctr);
-                byte[] bytes = hashFunction.hashString(virtualNode.getKey(), StandardCharsets.UTF_8).asBytes();
-                Hash128Bit hash128Bit = getHash128Bit(bytes);
-                vNodeHashes[ctr] = hash128Bit;
-                hashRing.put(hash128Bit, virtualNode);
+    @Override
+    public LoadToken acquire(final String key) {
+        byte[] bytes = hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes();
+        Hash128Bit hash128Bit = getHash128Bit(bytes);
+        LoadTracker tracker = this.loadTracker;
+        long stamp = stampedLock.readLock();
+        try {
+            InstanceInfo instanceInfo = Objects.isNull(tracker) ? getInstanceInfo(hash128Bit)
+                                                                : getBoundedInstanceInfo(hash128Bit, tracker);
+            if (Objects.isNull(instanceInfo)) {
+                return null;
             }
-            instanceIdToVNodeHashes.put(instanceId, new InstanceInfoHashRange(instanceInfo, vNodeHashes));
+            int instanceIdx = getInstanceIdx(instanceInfo);
+            return Objects.isNull(tracker) ? LoadToken.untracked(instanceInfo, instanceIdx)
+                                           : tracker.acquire(instanceIdx, instanceInfo);
         } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void registerInstance(final String instanceId, final String host, final int port, final int weight) {
+        int instanceVNodeCnt = getVNodeCnt(weight);
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        long stamp = stampedLock.writeLock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        long versionBefore = ringVersion;
+        try {
+            register(instanceId, host, port, instanceVNodeCnt, null);
+        } finally {
+            publishChange(versionBefore);
             stampedLock.unlock(stamp);
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
         }
     }
 
     @Override
-    public void deregisterInstance(final String instanceId) {
+    public void applyChanges(final Collection<InstanceRegistration> registrations,
+                             final Collection<String> deregistrations, final ForkJoinPool pool) {
+        InstanceRegistration[] registrationArr = MembershipChanges.distinct(registrations);
+        int[] vNodeCnts = new int[registrationArr.length];
+        for (int i = 0; i < registrationArr.length; i++) {
+            vNodeCnts[i] = getVNodeCnt(registrationArr[i].weight());
+        }
+        //hashing happens before taking the write lock, readers then see one ring update
+        Hash128Bit[][] vNodeHashes = MembershipChanges.hashVNodes(registrationArr, vNodeCnts, this::vNodeHash, pool);
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
         long stamp = stampedLock.writeLock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        long versionBefore = ringVersion;
         try {
-            if (!instanceIdToVNodeHashes.containsKey(instanceId)) {
-                return;
+            deregistrations.forEach(this::deregister);
+            for (int i = 0; i < registrationArr.length; i++) {
+                InstanceRegistration registration = registrationArr[i];
+                register(registration.instanceId(), registration.host(), registration.port(), vNodeCnts[i],
+                         vNodeHashes[i]);
+            }
+        } finally {
+            publishChange(versionBefore);
+            stampedLock.unlock(stamp);
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    /**
+     * Registers or resizes the instance, must be called holding the write lock. precomputedHashes, when
+     * non-null, holds the hashes of vnodes [0, instanceVNodeCnt) computed outside the lock.
+     */
+    private void register(final String instanceId, final String host, final int port, final int instanceVNodeCnt,
+                          final Hash128Bit[] precomputedHashes) {
+        InstanceInfoHashRange<Hash128Bit[]> instanceInfoHashRange = instanceIdToVNodeHashes.get(instanceId);
+        if (Objects.nonNull(instanceInfoHashRange)) {
+            if (instanceInfoHashRange.vNodeHashArr().length != instanceVNodeCnt) {
+                //weight change, only the delta vnodes are added or removed
+                InstanceInfo instanceInfo = instanceInfoHashRange.instanceInfo();
+                //precomputed hashes are for the given host and port, an instance keeps the ones it registered with
+                boolean sameKey = instanceInfo.getHost().equals(host) && instanceInfo.getPort() == port;
+                Hash128Bit[] vNodeHashes = resizeVNodes(instanceInfo, instanceInfoHashRange.vNodeHashArr(),
+                                                        instanceVNodeCnt, sameKey ? precomputedHashes : null);
+                instanceIdToVNodeHashes.put(instanceId, new InstanceInfoHashRange<>(instanceInfo, vNodeHashes));
+                if (Objects.nonNull(ringChangePublisher)) {
+                    vNodeChanges.add(RingChangePublisher.VNodeChange.resized(
+                            instanceInfo, instanceInfoHashRange.vNodeHashArr(), vNodeHashes));
+                }
+                ringVersion++;
             }
-            InstanceInfoHashRange<Hash128Bit[]> instanceInfoHashRange = instanceIdToVNodeHashes.remove(instanceId);
-            for (Hash128Bit vNodeHash : instanceInfoHashRange.vNodeHashArr()) {
-                hashRing.remove(vNodeHash);
+            return;
+        }
+        InstanceInfo instanceInfo = new InstanceInfo(instanceId, host, port);
+        Hash128Bit[] vNodeHashes = resizeVNodes(instanceInfo, new Hash128Bit[0], instanceVNodeCnt,
+                                                precomputedHashes);
+        instanceIdToVNodeHashes.put(instanceId, new InstanceInfoHashRange<>(instanceInfo, vNodeHashes));
+        int instanceIdx = instanceSlots.indexOf(null);
+        if (instanceIdx < 0) {
+            instanceIdx = instanceSlots.size();
+            instanceSlots.add(instanceInfo);
+        } else {
+            instanceSlots.set(instanceIdx, instanceInfo);
+        }
+        instanceIdToIdx.put(instanceId, instanceIdx);
+        if (Objects.nonNull(ringChangePublisher)) {
+            vNodeChanges.add(RingChangePublisher.VNodeChange.added(instanceInfo, vNodeHashes));
+        }
+        ringVersion++;
+    }
+
+    /**
+     * Adds the vnodes [vNodeHashes.length, newVNodeCnt) to the ring or removes [newVNodeCnt, vNodeHashes.length)
+     * from it, returning the instance's new vnode hashes. Added vnodes are taken from precomputedHashes when
+     * non-null. Must be called holding the write lock.
+     */
+    private Hash128Bit[] resizeVNodes(final InstanceInfo instanceInfo, final Hash128Bit[] vNodeHashes,
+                                      final int newVNodeCnt, final Hash128Bit[] precomputedHashes) {
+        Hash128Bit[] newVNodeHashes = Arrays.copyOf(vNodeHashes, newVNodeCnt);
+        RingDigest digest = this.ringDigest;
+        long instanceKey = Objects.isNull(digest) ? 0L : RingDigest.instanceKey(instanceInfo);
+        for (int ctr = vNodeHashes.length; ctr < newVNodeCnt; ctr++) {
+            VirtualNode virtualNode = new VirtualNode(instanceInfo, ctr);
+            Hash128Bit hash128Bit = Objects.isNull(precomputedHashes)
+                    ? vNodeHash(virtualNode) : precomputedHashes[ctr];
+            newVNodeHashes[ctr] = hash128Bit;
+            hashRing.put(hash128Bit, virtualNode);
+            if (Objects.nonNull(digest)) {
+                digest.add(hash128Bit, instanceKey);
             }
+        }
+        for (int ctr = newVNodeCnt; ctr < vNodeHashes.length; ctr++) {
+            hashRing.remove(vNodeHashes[ctr]);
+            if (Objects.nonNull(digest)) {
+                digest.remove(vNodeHashes[ctr], instanceKey);
+            }
+        }
+        return newVNodeHashes;
+    }
+
+    private Hash128Bit vNodeHash(final VirtualNode virtualNode) {
+        return getHash128Bit(hashFunction.hashString(virtualNode.getKey(), StandardCharsets.UTF_8).asBytes());
+    }
+
+    private int getVNodeCnt(final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+        return Math.multiplyExact(vNodeCnt, weight);
+    }
+
+    @Override
+    public void deregisterInstance(final String instanceId) {
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        long stamp = stampedLock.writeLock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        long versionBefore = ringVersion;
+        try {
+            deregister(instanceId);
         } finally {
+            publishChange(versionBefore);
             stampedLock.unlock(stamp);
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private void deregister(final String instanceId) {
+        if (!instanceIdToVNodeHashes.containsKey(instanceId)) {
+            return;
+        }
+        InstanceInfoHashRange<Hash128Bit[]> instanceInfoHashRange = instanceIdToVNodeHashes.remove(instanceId);
+        RingDigest digest = this.ringDigest;
+        long instanceKey = Objects.isNull(digest) ? 0L : RingDigest.instanceKey(instanceInfoHashRange.instanceInfo());
+        for (Hash128Bit vNodeHash : instanceInfoHashRange.vNodeHashArr()) {
+            hashRing.remove(vNodeHash);
+            if (Objects.nonNull(digest)) {
+                digest.remove(vNodeHash, instanceKey);
+            }
         }
+        instanceSlots.set(instanceIdToIdx.remove(instanceId), null);
+        if (Objects.nonNull(ringChangePublisher)) {
+            vNodeChanges.add(RingChangePublisher.VNodeChange.removed(instanceInfoHashRange.instanceInfo()));
+        }
+        ringVersion++;
     }
 
     @Override
@@ -120,6 +646,49 @@ public class ConsistentHasherV1 implements NodeLocator {
         }
     }
 
+    @Override
+    public Stream<RangeInstanceInfo> getOwnershipRanges() {
+        return RingRanges.ownershipRanges(copyRing());
+    }
+
+    @Override
+    public Stream<RangeTransfer> planRegister(final String instanceId, final String host, final int port,
+                                              final int weight) {
+        int instanceVNodeCnt = getVNodeCnt(weight);
+        RingSnapshot current = copyRing();
+        return RingRanges.transfers(current,
+                                    current.withVNodeCnt(instanceId, host, port, instanceVNodeCnt, this::vNodeHash));
+    }
+
+    @Override
+    public Stream<RangeTransfer> planDeregister(final String instanceId) {
+        RingSnapshot current = copyRing();
+        return RingRanges.transfers(current, current.withoutInstance(instanceId));
+    }
+
+    /**
+     * A copy of the ring for {@link RingSnapshotFile}, never modified afterwards.
+     */
+    RingSnapshot ringSnapshot() {
+        return copyRing();
+    }
+
+    HashFunction hashFunction() {
+        return hashFunction;
+    }
+
+    /**
+     * Copies the ring into primitive arrays under the read lock, range streams are then consumed without holding it.
+     */
+    private RingSnapshot copyRing() {
+        long stamp = stampedLock.readLock();
+        try {
+            return RingSnapshot.copyOf(ringVersion, hashRing, instanceSlots, instanceIdToIdx);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
     @Override
     public List<RangeInstanceInfo> getRingDetails() {
         long stamp = stampedLock.readLock();
@@ -148,6 +717,46 @@ public class ConsistentHasherV1 implements NodeLocator {
         return this.hashRing.isEmpty() ? null : this.hashRing.firstEntry().getValue().instanceInfo();
     }
 
+    private int getInstanceIdx(final InstanceInfo instanceInfo) {
+        if (Objects.isNull(instanceInfo)) {
+            return -1;
+        }
+        //may be read under an optimistic stamp, so a concurrent writer can make this null
+        Integer instanceIdx = this.instanceIdToIdx.get(instanceInfo.getInstanceId());
+        return Objects.isNull(instanceIdx) ? -1 : instanceIdx;
+    }
+
+    /**
+     * Walks clockwise from the owner of the hash to the first instance with room under the load bound.
+     * Must be called holding the read lock.
+     */
+    private InstanceInfo getBoundedInstanceInfo(final Hash128Bit hash128Bit, final LoadTracker loadTracker) {
+        if (this.hashRing.isEmpty()) {
+            return null;
+        }
+        long totalLoad = loadTracker.totalLoad() + 1;
+        int totalVNodeCnt = this.hashRing.size();
+        Iterator<VirtualNode> ringIterator = this.hashRing.tailMap(hash128Bit, true).values().iterator();
+        InstanceInfo rejected = null;
+        for (int ctr = 0; ctr < totalVNodeCnt; ctr++) {
+            if (!ringIterator.hasNext()) {
+                ringIterator = this.hashRing.values().iterator();
+            }
+            InstanceInfo instanceInfo = ringIterator.next().instanceInfo();
+            if (instanceInfo == rejected) {
+                continue;
+            }
+            int instanceVNodeCnt = this.instanceIdToVNodeHashes.get(instanceInfo.getInstanceId()).vNodeHashArr().length;
+            if (loadTracker.hasCapacity(getInstanceIdx(instanceInfo), instanceInfo, totalLoad, instanceVNodeCnt,
+                                        totalVNodeCnt)) {
+                return instanceInfo;
+            }
+            rejected = instanceInfo;
+        }
+        //only racing acquires can push every instance to its bound
+        return getInstanceInfo(hash128Bit);
+    }
+
     private Hash128Bit getHash128Bit(final byte[] bytes) {
         ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
         long high = buffer.getLong();
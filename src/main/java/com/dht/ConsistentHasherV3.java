@@ -0,0 +1,702 @@
+package com.dht;
+
+import com.dht.hash.Murmur3Hasher;
+import com.dht.hash.XxHash64;
+import com.dht.model.Hash128Bit;
+import com.dht.model.HotKeyStats;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RingDelta;
+import com.dht.model.RingState;
+import com.dht.model.RouteCacheStats;
+import com.dht.model.RoutingKey;
+import com.dht.model.Topology;
+import com.dht.model.VirtualNode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Using an immutable ring snapshot published through a volatile reference.
+ * route() is a lock-free binary search over sorted primitive arrays, writers are serialised
+ * and swap in a freshly built snapshot.
+ */
+
+@ThreadSafe
+public class ConsistentHasherV3 implements NodeLocator {
+
+    private static final int DEFAULT_VIRTUAL_NODE_CNT = 420;
+    private static final HashFunction DEFAULT_HASH_FN = Hashing.murmur3_128();
+    private final HashFunction hashFunction;
+    private final int vNodeCnt;
+    //allocation-free hashing, only when hashing with the default murmur3_128
+    private final ThreadLocal<Murmur3Hasher> murmur3Hasher;
+    //64-bit ring mode, hashes live in the high half and the low half is always zero
+    private final ThreadLocal<XxHash64> xxHash64;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile RingSnapshot ring = RingSnapshot.EMPTY;
+    private volatile LoadTracker loadTracker;
+    private volatile RouteCache routeCache;
+    private volatile HotKeySketch hotKeySketch;
+    private volatile LocatorMetrics metrics;
+    private volatile RingChangePublisher<RingSnapshot> ringChangePublisher;
+    private final DownSlots downSlots = new DownSlots();
+    private volatile RingStateLog ringStateLog;
+
+    public ConsistentHasherV3() {
+        this(null);
+    }
+
+    public ConsistentHasherV3(final HashFunction hashFunction) {
+        this(hashFunction, DEFAULT_VIRTUAL_NODE_CNT);
+    }
+
+    /**
+     * @param vNodeCnt virtual nodes of an instance with weight 1
+     */
+    public ConsistentHasherV3(final HashFunction hashFunction, final int vNodeCnt) {
+        if (vNodeCnt < 1) {
+            throw new IllegalArgumentException("vNodeCnt must be positive: " + vNodeCnt);
+        }
+        this.hashFunction = Objects.isNull(hashFunction) ? DEFAULT_HASH_FN : hashFunction;
+        this.vNodeCnt = vNodeCnt;
+        this.murmur3Hasher = DEFAULT_HASH_FN.equals(this.hashFunction)
+                ? ThreadLocal.withInitial(Murmur3Hasher::new) : null;
+        this.xxHash64 = XxHash64.hashFunction().equals(this.hashFunction)
+                ? ThreadLocal.withInitial(XxHash64::new) : null;
+    }
+
+    @Override
+    public InstanceInfo route(final String key) {
+        RouteCache cache = routeCache;
+        InstanceInfo instanceInfo = Objects.nonNull(cache) && Objects.isNull(loadTracker) && !downSlots.anyDown()
+                ? cachedRoute(cache, key).instanceInfo() : route((CharSequence) key);
+        HotKeySketch sketch = hotKeySketch;
+        if (Objects.nonNull(sketch)) {
+            sketch.offer(key, instanceInfo);
+        }
+        return instanceInfo;
+    }
+
+    @Override
+    public InstanceInfo route(final CharSequence key) {
+        RingSnapshot current = ring;
+        int instanceIdx = ownerOf(current, key);
+        return instanceIdx < 0 ? null : current.instances[instanceIdx];
+    }
+
+    @Override
+    public InstanceInfo route(final byte[] key, final int offset, final int length) {
+        RingSnapshot current = ring;
+        int instanceIdx = ownerOf(current, key, offset, length);
+        return instanceIdx < 0 ? null : current.instances[instanceIdx];
+    }
+
+    @Override
+    public InstanceInfo route(final long hashHigh, final long hashLow) {
+        RingSnapshot current = ring;
+        int instanceIdx = ownerOf(current, hashHigh, hashLow);
+        return instanceIdx < 0 ? null : current.instances[instanceIdx];
+    }
+
+    @Override
+    public InstanceInfo route(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(hashFunction);
+        InstanceInfo instanceInfo = route(hash128Bit.getHigh(), hash128Bit.getLow());
+        HotKeySketch sketch = hotKeySketch;
+        if (Objects.nonNull(sketch)) {
+            sketch.offer(key.getKey(), instanceInfo);
+        }
+        return instanceInfo;
+    }
+
+    @Override
+    public int routeToIndex(final CharSequence key) {
+        RouteCache cache = routeCache;
+        if (key instanceof String stringKey && Objects.nonNull(cache) && Objects.isNull(loadTracker)
+                && !downSlots.anyDown()) {
+            return cachedRoute(cache, stringKey).instanceIdx();
+        }
+        return ownerOf(ring, key);
+    }
+
+    @Override
+    public int routeToIndex(final byte[] key, final int offset, final int length) {
+        return ownerOf(ring, key, offset, length);
+    }
+
+    @Override
+    public int routeToIndex(final long hashHigh, final long hashLow) {
+        return ownerOf(ring, hashHigh, hashLow);
+    }
+
+    @Override
+    public int routeToIndex(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(hashFunction);
+        return routeToIndex(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    @Override
+    public InstanceInfo getInstance(final int instanceIdx) {
+        InstanceInfo[] instances = ring.instances;
+        return instanceIdx >= 0 && instanceIdx < instances.length ? instances[instanceIdx] : null;
+    }
+
+    @Override
+    public int routeN(final String key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        RingSnapshot current = ring;
+        int idx = ceilingIndex(current, key);
+        int limit = Math.min(n, current.slotByInstanceId.size());
+        return idx < 0 ? 0 : current.distinctOwners(idx, limit, out, downSlots);
+    }
+
+    @Override
+    public int routeN(final RoutingKey key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        RingSnapshot current = ring;
+        Hash128Bit hash128Bit = key.hash(hashFunction);
+        int idx = current.ceilingIndex(hash128Bit.getHigh(), hash128Bit.getLow());
+        int limit = Math.min(n, current.slotByInstanceId.size());
+        return idx < 0 ? 0 : current.distinctOwners(idx, limit, out, downSlots);
+    }
+
+    @Override
+    public int routeAcrossZones(final String key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        RingSnapshot current = ring;
+        int idx = ceilingIndex(current, key);
+        int limit = Math.min(n, current.slotByInstanceId.size());
+        return idx < 0 ? 0 : current.zoneSpreadOwners(idx, limit, out, downSlots);
+    }
+
+    @Override
+    public Topology getTopology(final String instanceId) {
+        RingSnapshot current = ring;
+        Integer slot = current.slotByInstanceId.get(instanceId);
+        return Objects.isNull(slot) ? null : current.topologies[slot];
+    }
+
+    private int ceilingIndex(final RingSnapshot current, final String key) {
+        if (Objects.nonNull(murmur3Hasher)) {
+            Murmur3Hasher hasher = murmur3Hasher.get().hash(key);
+            return current.ceilingIndex(hasher.high(), hasher.low());
+        }
+        if (Objects.nonNull(xxHash64)) {
+            return current.ceilingIndex(xxHash64.get().hash(key).value(), 0L);
+        }
+        Hash128Bit hash128Bit = getHash128Bit(hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes());
+        return current.ceilingIndex(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    /**
+     * Misses are counted by the ring lookup, hits here. Bypassed while an instance is down, so routes
+     * around it are never cached.
+     */
+    private RouteCache.CachedRoute cachedRoute(final RouteCache cache, final String key) {
+        LocatorMetrics metrics = this.metrics;
+        long startNanos = Objects.isNull(metrics) ? 0L : metrics.startRoute();
+        RingSnapshot current = ring;
+        RouteCache.CachedRoute cached = cache.get(key, current.version);
+        if (Objects.nonNull(cached)) {
+            if (Objects.nonNull(metrics)) {
+                metrics.routed(cached.instanceInfo(), startNanos);
+            }
+            return cached;
+        }
+        int instanceIdx = ownerOf(current, key, null);
+        return cache.put(key, current.version, instanceIdx, instanceIdx < 0 ? null : current.instances[instanceIdx]);
+    }
+
+    @Override
+    public Map<InstanceInfo, List<String>> routeAll(final String[] keys, final ForkJoinPool pool) {
+        RingSnapshot current = ring;
+        int[] instanceIdxArr = routeAllToIndex(current, keys, pool);
+        InstanceInfo[] owners = new InstanceInfo[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            owners[i] = instanceIdxArr[i] < 0 ? null : current.instances[instanceIdxArr[i]];
+        }
+        return BatchRouting.groupByOwner(keys, owners);
+    }
+
+    @Override
+    public int[] routeAllToIndex(final String[] keys, final ForkJoinPool pool) {
+        return routeAllToIndex(ring, keys, pool);
+    }
+
+    private int[] routeAllToIndex(final RingSnapshot current, final String[] keys, final ForkJoinPool pool) {
+        int[] instanceIdxArr = new int[keys.length];
+        //every chunk is hashed, sorted and swept against the same snapshot, in parallel when a pool is given
+        BatchRouting.forEachChunk(BatchRouting.chunkCount(keys.length), pool,
+                                  chunk -> current.ownersOf(BatchRouting.hashChunk(keys, chunk, hashFunction),
+                                                            instanceIdxArr, downSlots));
+        return instanceIdxArr;
+    }
+
+    @Override
+    public void enableBoundedLoad(final double epsilon) {
+        this.loadTracker = new LoadTracker(epsilon);
+    }
+
+    @Override
+    public void disableBoundedLoad() {
+        this.loadTracker = null;
+    }
+
+    @Override
+    public void enableRouteCache(final int capacity) {
+        this.routeCache = new RouteCache(capacity);
+    }
+
+    @Override
+    public void disableRouteCache() {
+        this.routeCache = null;
+    }
+
+    @Override
+    public RouteCacheStats getRouteCacheStats() {
+        RouteCache cache = this.routeCache;
+        return Objects.isNull(cache) ? null : cache.stats();
+    }
+
+    @Override
+    public void enableHotKeyTracking(final double sampleRate, final int trackedKeys) {
+        this.hotKeySketch = new HotKeySketch(sampleRate, trackedKeys);
+    }
+
+    @Override
+    public void disableHotKeyTracking() {
+        this.hotKeySketch = null;
+    }
+
+    @Override
+    public HotKeyStats getHotKeyStats(final int topK) {
+        HotKeySketch sketch = this.hotKeySketch;
+        return Objects.isNull(sketch) ? null : sketch.stats(topK, ring);
+    }
+
+    @Override
+    public synchronized LocatorMetrics enableMetrics(final String name) {
+        disableMetrics();
+        LocatorMetrics newMetrics = LocatorMetrics.register(name);
+        this.metrics = newMetrics;
+        return newMetrics;
+    }
+
+    @Override
+    public synchronized void disableMetrics() {
+        LocatorMetrics oldMetrics = this.metrics;
+        this.metrics = null;
+        if (Objects.nonNull(oldMetrics)) {
+            oldMetrics.unregister();
+        }
+    }
+
+    @Override
+    public LocatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public LoadToken acquire(final String key) {
+        LoadTracker tracker = loadTracker;
+        RingSnapshot current = ring;
+        int instanceIdx = ownerOf(current, key, tracker);
+        if (instanceIdx < 0) {
+            return null;
+        }
+        InstanceInfo instanceInfo = current.instances[instanceIdx];
+        return Objects.isNull(tracker) ? LoadToken.untracked(instanceInfo, instanceIdx)
+                                       : tracker.acquire(instanceIdx, instanceInfo);
+    }
+
+    @Override
+    public void registerInstance(final String instanceId, final String host, final int port, final int weight) {
+        registerInstance(instanceId, host, port, weight, null);
+    }
+
+    @Override
+    public void registerInstance(final String instanceId, final String host, final int port, final int weight,
+                                 final Topology topology) {
+        int instanceVNodeCnt = getVNodeCnt(weight);
+        //hashing happens before taking the writer lock, only the merge is serialised
+        RingSnapshot current = ring;
+        RingSnapshot next = current.withVNodeCnt(instanceId, host, port, instanceVNodeCnt, topology, this::vNodeHash);
+        if (next == current) {
+            return;
+        }
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        writeLock.lock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        try {
+            if (ring != current) {
+                //lost the race against another writer, redo against the latest ring
+                next = ring.withVNodeCnt(instanceId, host, port, instanceVNodeCnt, topology, this::vNodeHash);
+            }
+            publishRing(next);
+        } finally {
+            writeLock.unlock();
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    @Override
+    public void applyChanges(final Collection<InstanceRegistration> registrations,
+                             final Collection<String> deregistrations, final ForkJoinPool pool) {
+        InstanceRegistration[] registrationArr = MembershipChanges.distinct(registrations);
+        int[] vNodeCnts = new int[registrationArr.length];
+        for (int i = 0; i < registrationArr.length; i++) {
+            vNodeCnts[i] = getVNodeCnt(registrationArr[i].weight());
+        }
+        RingSnapshot current = ring;
+        RingSnapshot next = current.withChanges(registrationArr, vNodeCnts, deregistrations, this::vNodeHash, pool);
+        if (next == current) {
+            return;
+        }
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        writeLock.lock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        try {
+            if (ring != current) {
+                //lost the race against another writer, redo against the latest ring
+                next = ring.withChanges(registrationArr, vNodeCnts, deregistrations, this::vNodeHash, pool);
+            }
+            if (next != ring) {
+                publishRing(next);
+            }
+        } finally {
+            writeLock.unlock();
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    /**
+     * Must be called holding the writer lock.
+     */
+    private void publishRing(final RingSnapshot next) {
+        RingSnapshot previous = ring;
+        RingStateLog log = this.ringStateLog;
+        if (next != previous && Objects.nonNull(log)) {
+            log.record(previous, next);
+        }
+        ring = next;
+        if (downSlots.anyDown()) {
+            //deregistered instances forget they were down, the next instance taking the slot starts up
+            for (int slot = 0; slot < previous.instances.length; slot++) {
+                if (Objects.nonNull(previous.instances[slot])
+                        && (slot >= next.instances.length || next.instances[slot] != previous.instances[slot])) {
+                    downSlots.markUp(slot);
+                }
+            }
+        }
+        RingChangePublisher<RingSnapshot> publisher = this.ringChangePublisher;
+        if (next != previous && Objects.nonNull(publisher)) {
+            publisher.publish(next);
+        }
+    }
+
+    @Override
+    public void markDown(final String instanceId) {
+        RingSnapshot current = ring;
+        Integer slot = current.slotByInstanceId.get(instanceId);
+        if (Objects.isNull(slot) || !downSlots.markDown(slot)) {
+            return;
+        }
+        RingSnapshot latest = ring;
+        if (latest != current && (slot >= latest.instances.length
+                || latest.instances[slot] != current.instances[slot])) {
+            //deregistered meanwhile, the writer may have cleared the slot before the bit was set
+            downSlots.markUp(slot);
+        }
+    }
+
+    @Override
+    public void markUp(final String instanceId) {
+        Integer slot = ring.slotByInstanceId.get(instanceId);
+        if (Objects.nonNull(slot)) {
+            downSlots.markUp(slot);
+        }
+    }
+
+    @Override
+    public boolean isDown(final String instanceId) {
+        Integer slot = ring.slotByInstanceId.get(instanceId);
+        return Objects.nonNull(slot) && downSlots.isDown(slot);
+    }
+
+    @Override
+    public Flow.Publisher<RingChangeEvent> ringChanges() {
+        RingChangePublisher<RingSnapshot> publisher = this.ringChangePublisher;
+        if (Objects.isNull(publisher)) {
+            writeLock.lock();
+            try {
+                publisher = this.ringChangePublisher;
+                if (Objects.isNull(publisher)) {
+                    publisher = RingChangePublisher.forRing(ring);
+                    this.ringChangePublisher = publisher;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return publisher.publisher();
+    }
+
+    @Override
+    public long getRingVersion() {
+        return ring.version;
+    }
+
+    @Override
+    public RingState exportRingState() {
+        return RingStateLog.full(ring, hashFunction.toString());
+    }
+
+    @Override
+    public RingState exportRingState(final long sinceVersion) {
+        RingStateLog log = this.ringStateLog;
+        if (Objects.isNull(log)) {
+            writeLock.lock();
+            try {
+                log = this.ringStateLog;
+                if (Objects.isNull(log)) {
+                    log = new RingStateLog(ring.version);
+                    this.ringStateLog = log;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        RingState changes = log.since(sinceVersion, hashFunction.toString());
+        return Objects.isNull(changes) ? exportRingState() : changes;
+    }
+
+    @Override
+    public void applyRingState(final RingState state) {
+        if (!hashFunction.toString().equals(state.hashFunction())) {
+            throw new IllegalArgumentException("ring state hashed with " + state.hashFunction() + ", ring uses "
+                                               + hashFunction);
+        }
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        writeLock.lock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        try {
+            RingSnapshot current = ring;
+            RingSnapshot next;
+            if (state.full()) {
+                next = RingSnapshot.ofInstances(state.toVersion(), state.deltas());
+            } else {
+                if (state.fromVersion() != current.version) {
+                    throw new IllegalStateException("ring is at version " + current.version + ", changes start at "
+                                                    + state.fromVersion());
+                }
+                next = current;
+                for (RingDelta delta : state.deltas()) {
+                    next = next.with(delta);
+                }
+                next = next.withVersion(state.toVersion());
+            }
+            if (state.full() || next.version != current.version) {
+                publishRing(next);
+            }
+        } finally {
+            writeLock.unlock();
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    private int getVNodeCnt(final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+        return Math.multiplyExact(vNodeCnt, weight);
+    }
+
+    @Override
+    public void deregisterInstance(final String instanceId) {
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        writeLock.lock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        try {
+            RingSnapshot next = ring.withoutInstance(instanceId);
+            if (next != ring) {
+                publishRing(next);
+            }
+        } finally {
+            writeLock.unlock();
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    @Override
+    public List<InstanceInfo> getInstanceList() {
+        RingSnapshot current = ring;
+        List<InstanceInfo> instanceInfoList = new ArrayList<>(current.slotByInstanceId.size());
+        for (InstanceInfo instanceInfo : current.instances) {
+            if (Objects.nonNull(instanceInfo)) {
+                instanceInfoList.add(instanceInfo);
+            }
+        }
+        return instanceInfoList;
+    }
+
+    /**
+     * A copy of the ring for {@link RingSnapshotFile}, never modified afterwards.
+     */
+    RingSnapshot ringSnapshot() {
+        return ring;
+    }
+
+    HashFunction hashFunction() {
+        return hashFunction;
+    }
+
+    @Override
+    public Stream<RangeInstanceInfo> getOwnershipRanges() {
+        return RingRanges.ownershipRanges(ring);
+    }
+
+    @Override
+    public Stream<RangeTransfer> planRegister(final String instanceId, final String host, final int port,
+                                              final int weight) {
+        RingSnapshot current = ring;
+        RingSnapshot next = current.withVNodeCnt(instanceId, host, port, getVNodeCnt(weight), this::vNodeHash);
+        return RingRanges.transfers(current, next);
+    }
+
+    @Override
+    public Stream<RangeTransfer> planDeregister(final String instanceId) {
+        RingSnapshot current = ring;
+        return RingRanges.transfers(current, current.withoutInstance(instanceId));
+    }
+
+    @Override
+    public List<RangeInstanceInfo> getRingDetails() {
+        RingSnapshot current = ring;
+        List<RangeInstanceInfo> rangeInstanceInfoList = new ArrayList<>(current.slotByInstanceId.size());
+        for (int slot = 0; slot < current.instances.length; slot++) {
+            InstanceInfo instanceInfo = current.instances[slot];
+            if (Objects.nonNull(instanceInfo)) {
+                Hash128Bit startHash = vNodeHash(new VirtualNode(instanceInfo, 0));
+                Hash128Bit endHash = vNodeHash(new VirtualNode(instanceInfo, current.vNodeCounts[slot] - 1));
+                rangeInstanceInfoList.add(new RangeInstanceInfo(startHash, endHash, instanceInfo));
+            }
+        }
+        return rangeInstanceInfoList;
+    }
+
+    private int ownerOf(final RingSnapshot current, final CharSequence key) {
+        return ownerOf(current, key, loadTracker);
+    }
+
+    private int ownerOf(final RingSnapshot current, final CharSequence key, final LoadTracker tracker) {
+        if (Objects.nonNull(murmur3Hasher)) {
+            Murmur3Hasher hasher = murmur3Hasher.get().hash(key);
+            return ownerOf(current, hasher.high(), hasher.low(), tracker);
+        }
+        if (Objects.nonNull(xxHash64)) {
+            return ownerOf(current, xxHash64.get().hash(key).value(), 0L, tracker);
+        }
+        Hash128Bit hash128Bit = getHash128Bit(hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes());
+        return ownerOf(current, hash128Bit.getHigh(), hash128Bit.getLow(), tracker);
+    }
+
+    private int ownerOf(final RingSnapshot current, final byte[] key, final int offset, final int length) {
+        if (Objects.nonNull(murmur3Hasher)) {
+            Murmur3Hasher hasher = murmur3Hasher.get().hash(key, offset, length);
+            return ownerOf(current, hasher.high(), hasher.low());
+        }
+        if (Objects.nonNull(xxHash64)) {
+            return ownerOf(current, xxHash64.get().hash(key, offset, length).value(), 0L);
+        }
+        Hash128Bit hash128Bit = getHash128Bit(hashFunction.hashBytes(key, offset, length).asBytes());
+        return ownerOf(current, hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    private int ownerOf(final RingSnapshot current, final long hashHigh, final long hashLow) {
+        return ownerOf(current, hashHigh, hashLow, loadTracker);
+    }
+
+    private int ownerOf(final RingSnapshot current, final long hashHigh, final long hashLow,
+                        final LoadTracker tracker) {
+        LocatorMetrics metrics = this.metrics;
+        if (Objects.isNull(metrics)) {
+            return lookupOwner(current, hashHigh, hashLow, tracker, downSlots);
+        }
+        long startNanos = metrics.startRoute();
+        int instanceIdx = lookupOwner(current, hashHigh, hashLow, tracker, downSlots);
+        metrics.routed(instanceIdx < 0 ? null : current.instances[instanceIdx], startNanos);
+        return instanceIdx;
+    }
+
+    private static int lookupOwner(final RingSnapshot current, final long hashHigh, final long hashLow,
+                                   final LoadTracker tracker, final DownSlots downSlots) {
+        if (Objects.nonNull(tracker)) {
+            return boundedOwnerOf(current, hashHigh, hashLow, tracker, downSlots);
+        }
+        if (!downSlots.anyDown()) {
+            return current.ownerOf(hashHigh, hashLow);
+        }
+        int idx = current.ceilingIndex(hashHigh, hashLow);
+        return idx < 0 ? -1 : current.liveOwner(idx, downSlots);
+    }
+
+    /**
+     * Walks clockwise from the owner of the hash to the first live instance with room under the load bound.
+     */
+    private static int boundedOwnerOf(final RingSnapshot current, final long hashHigh, final long hashLow,
+                                      final LoadTracker tracker, final DownSlots downSlots) {
+        int idx = current.ceilingIndex(hashHigh, hashLow);
+        if (idx < 0) {
+            return -1;
+        }
+        long totalLoad = tracker.totalLoad() + 1;
+        boolean skipDown = downSlots.anyDown();
+        int size = current.size();
+        int rejected = -1;
+        for (int ctr = 0; ctr < size; ctr++, idx = idx + 1 == size ? 0 : idx + 1) {
+            int instanceIdx = current.owner[idx];
+            if (instanceIdx == rejected || skipDown && downSlots.isDown(instanceIdx)) {
+                continue;
+            }
+            if (tracker.hasCapacity(instanceIdx, current.instances[instanceIdx], totalLoad,
+                                    current.vNodeCounts[instanceIdx], size)) {
+                return instanceIdx;
+            }
+            rejected = instanceIdx;
+        }
+        //only racing acquires can push every live instance to its bound
+        return current.liveOwner(current.ceilingIndex(hashHigh, hashLow), downSlots);
+    }
+
+    private Hash128Bit vNodeHash(final VirtualNode virtualNode) {
+        return getHash128Bit(hashFunction.hashString(virtualNode.getKey(), StandardCharsets.UTF_8).asBytes());
+    }
+
+    private Hash128Bit getHash128Bit(final byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        long high = buffer.getLong();
+        long low = buffer.getLong();
+        return new Hash128Bit(high, low);
+    }
+}
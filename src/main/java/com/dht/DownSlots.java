@@ -0,0 +1,63 @@
+package com.dht;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Instance slots taken out of routing by markDown(), one bit per slot.
+ * <p>
+ * Routers read the bits without locking and only test them while anyDown() holds, so a ring with every
+ * instance up pays one volatile read per route. Flips are serialised on this object's monitor, they never
+ * wait for the ring's writer lock. Bits are per slot, locators clear the bit of a slot whose instance is
+ * deregistered so that the next instance taking the slot starts up.
+ */
+final class DownSlots {
+
+    private volatile AtomicLongArray words = new AtomicLongArray(1);
+    private volatile int downCnt;
+
+    boolean anyDown() {
+        return downCnt > 0;
+    }
+
+    boolean isDown(final int slot) {
+        AtomicLongArray current = words;
+        int word = slot >>> 6;
+        return word < current.length() && (current.get(word) & 1L << slot) != 0;
+    }
+
+    /**
+     * Returns false when the slot was already down.
+     */
+    synchronized boolean markDown(final int slot) {
+        AtomicLongArray current = words;
+        int word = slot >>> 6;
+        if (word >= current.length()) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max(word + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            current = grown;
+            words = grown;
+        }
+        long bits = current.get(word);
+        if ((bits & 1L << slot) != 0) {
+            return false;
+        }
+        current.set(word, bits | 1L << slot);
+        downCnt++;
+        return true;
+    }
+
+    /**
+     * Returns false when the slot was already up.
+     */
+    synchronized boolean markUp(final int slot) {
+        if (!isDown(slot)) {
+            return false;
+        }
+        AtomicLongArray current = words;
+        current.set(slot >>> 6, current.get(slot >>> 6) & ~(1L << slot));
+        downCnt--;
+        return true;
+    }
+}
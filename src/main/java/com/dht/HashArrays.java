@@ -0,0 +1,91 @@
+package com.dht;
+
+/**
+ * Helpers for 128-bit hashes kept as parallel {@code long[] high, long[] low} arrays,
+ * ordered as unsigned 128-bit integers like {@link com.dht.model.Hash128Bit}.
+ */
+final class HashArrays {
+
+    private HashArrays() {
+    }
+
+    static int compare(final long high1, final long low1, final long high2, final long low2) {
+        if (high1 != high2) {
+            return Long.compareUnsigned(high1, high2);
+        }
+        return Long.compareUnsigned(low1, low2);
+    }
+
+    /**
+     * Sorts the range [from, to) of the parallel arrays by unsigned 128-bit hash, carrying the
+     * int payload along. Stable.
+     */
+    static void sort(final long[] high, final long[] low, final int[] payload, final int from, final int to) {
+        int len = to - from;
+        if (len < 2) {
+            return;
+        }
+        long[] tmpHigh = new long[len];
+        long[] tmpLow = new long[len];
+        int[] tmpPayload = new int[len];
+        mergeSort(high, low, payload, tmpHigh, tmpLow, tmpPayload, from, to);
+    }
+
+    private static void mergeSort(final long[] high, final long[] low, final int[] payload,
+                                  final long[] tmpHigh, final long[] tmpLow, final int[] tmpPayload,
+                                  final int from, final int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                long h = high[i];
+                long l = low[i];
+                int p = payload[i];
+                int j = i - 1;
+                while (j >= from && compare(high[j], low[j], h, l) > 0) {
+                    high[j + 1] = high[j];
+                    low[j + 1] = low[j];
+                    payload[j + 1] = payload[j];
+                    j--;
+                }
+                high[j + 1] = h;
+                low[j + 1] = l;
+                payload[j + 1] = p;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(high, low, payload, tmpHigh, tmpLow, tmpPayload, from, mid);
+        mergeSort(high, low, payload, tmpHigh, tmpLow, tmpPayload, mid, to);
+        if (compare(high[mid - 1], low[mid - 1], high[mid], low[mid]) <= 0) {
+            return;
+        }
+        int len = to - from;
+        System.arraycopy(high, from, tmpHigh, 0, len);
+        System.arraycopy(low, from, tmpLow, 0, len);
+        System.arraycopy(payload, from, tmpPayload, 0, len);
+        int i = 0;
+        int leftEnd = mid - from;
+        int j = leftEnd;
+        int k = from;
+        while (i < leftEnd && j < len) {
+            if (compare(tmpHigh[i], tmpLow[i], tmpHigh[j], tmpLow[j]) <= 0) {
+                high[k] = tmpHigh[i];
+                low[k] = tmpLow[i];
+                payload[k++] = tmpPayload[i++];
+            } else {
+                high[k] = tmpHigh[j];
+                low[k] = tmpLow[j];
+                payload[k++] = tmpPayload[j++];
+            }
+        }
+        while (i < leftEnd) {
+            high[k] = tmpHigh[i];
+            low[k] = tmpLow[i];
+            payload[k++] = tmpPayload[i++];
+        }
+        while (j < len) {
+            high[k] = tmpHigh[j];
+            low[k] = tmpLow[j];
+            payload[k++] = tmpPayload[j++];
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.dht;
+
+import com.dht.hash.Murmur3Hasher;
+import com.dht.model.HotKey;
+import com.dht.model.HotKeyStats;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceLoadShare;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free heavy-hitter sketch fed with a sample of the routed keys: a Count-Min sketch estimates how often
+ * each key was sampled and a table of candidate keys remembers the hottest ones with their owner.
+ * <p>
+ * A key hashes to two candidate slots. It refreshes its slot when it holds one, takes a free one, or else
+ * replaces the colder of the two keys holding them once its estimate exceeds that key's. Slots are swapped by
+ * CAS, racing routes at worst drop a sample's candidate update; counts are never lost. Unsampled routes pay
+ * a random draw.
+ */
+final class HotKeySketch {
+
+    private static final int ROWS = 4;
+    //4096 counters a row keep the overestimate within about 0.07% of the sampled routes
+    private static final int WIDTH_BITS = 12;
+    private static final int MAX_TRACKED_KEYS = 1 << 20;
+    private final double sampleRate;
+    private final long sampleThreshold;
+    private final AtomicLongArray counts = new AtomicLongArray(ROWS << WIDTH_BITS);
+    private final AtomicReferenceArray<Candidate> candidates;
+    private final int candidateMask;
+    private final Map<InstanceInfo, LongAdder> instanceRoutes = new ConcurrentHashMap<>();
+    private final LongAdder sampledRoutes = new LongAdder();
+    private final ThreadLocal<Murmur3Hasher> murmur3Hasher = ThreadLocal.withInitial(Murmur3Hasher::new);
+
+    private record Candidate(String key, InstanceInfo owner) {
+    }
+
+    /**
+     * @param sampleRate  probability of feeding a route into the sketch, in (0, 1]
+     * @param trackedKeys candidate hot keys kept across all instances, rounded up to a power of two
+     */
+    HotKeySketch(final double sampleRate, final int trackedKeys) {
+        if (!(sampleRate > 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("sampleRate must be in (0, 1]: " + sampleRate);
+        }
+        if (trackedKeys < 1 || trackedKeys > MAX_TRACKED_KEYS) {
+            throw new IllegalArgumentException("trackedKeys must be in [1, " + MAX_TRACKED_KEYS + "]: "
+                                                       + trackedKeys);
+        }
+        this.sampleRate = sampleRate;
+        //random draws are 53 bits, a rate of 1 samples every route
+        this.sampleThreshold = (long) (sampleRate * (1L << 53));
+        int size = Math.max(2, Integer.highestOneBit(trackedKeys));
+        size = size < trackedKeys ? size << 1 : size;
+        this.candidates = new AtomicReferenceArray<>(size);
+        this.candidateMask = size - 1;
+    }
+
+    /**
+     * Called after routing key to owner, null when no instance is registered.
+     */
+    void offer(final String key, final InstanceInfo owner) {
+        if (Objects.isNull(owner) || ThreadLocalRandom.current().nextLong() >>> 11 >= sampleThreshold) {
+            return;
+        }
+        sampledRoutes.increment();
+        instanceRoutes.computeIfAbsent(owner, instanceInfo -> new LongAdder()).increment();
+        long h1 = keyHash(key);
+        long h2 = SplitMix64.mix(h1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            estimate = Math.min(estimate, counts.incrementAndGet(counterIdx(row, h1, h2)));
+        }
+        int firstSlot = (int) h1 & candidateMask;
+        int secondSlot = (int) (h2 >>> 32) & candidateMask;
+        if (track(firstSlot, key, owner) || track(secondSlot, key, owner)) {
+            return;
+        }
+        //both slots are held by other keys, which never give a slot back
+        Candidate first = candidates.get(firstSlot);
+        Candidate second = candidates.get(secondSlot);
+        long firstEstimate = estimate(first.key());
+        long secondEstimate = estimate(second.key());
+        int slot = firstEstimate <= secondEstimate ? firstSlot : secondSlot;
+        if (Math.min(firstEstimate, secondEstimate) < estimate) {
+            candidates.compareAndSet(slot, slot == firstSlot ? first : second, new Candidate(key, owner));
+        }
+    }
+
+    /**
+     * Refreshes the key's owner when the slot holds the key or takes the slot when free, false when another
+     * key holds it.
+     */
+    private boolean track(final int slot, final String key, final InstanceInfo owner) {
+        Candidate candidate = candidates.get(slot);
+        if (Objects.isNull(candidate)) {
+            if (candidates.compareAndSet(slot, null, new Candidate(key, owner))) {
+                return true;
+            }
+            candidate = candidates.get(slot);
+        }
+        if (!candidate.key().equals(key)) {
+            return false;
+        }
+        if (!candidate.owner().equals(owner)) {
+            candidates.compareAndSet(slot, candidate, new Candidate(key, owner));
+        }
+        return true;
+    }
+
+    /**
+     * Load shares of the ring's instances, whose expected share is the fraction of the ring's hash space they
+     * own, with up to topK hot keys each. Keys whose last seen owner left the ring are not reported.
+     */
+    HotKeyStats stats(final int topK, final RingSnapshot ring) {
+        if (topK < 0) {
+            throw new IllegalArgumentException("topK must not be negative: " + topK);
+        }
+        Map<InstanceInfo, List<HotKey>> hotKeysByOwner = new HashMap<>();
+        Map<String, Candidate> tracked = new HashMap<>();
+        for (int slot = 0; slot < candidates.length(); slot++) {
+            Candidate candidate = candidates.get(slot);
+            if (Objects.nonNull(candidate) && Objects.isNull(tracked.putIfAbsent(candidate.key(), candidate))) {
+                long estimatedRoutes = Math.round(estimate(candidate.key()) / sampleRate);
+                hotKeysByOwner.computeIfAbsent(candidate.owner(), owner -> new ArrayList<>())
+                              .add(new HotKey(candidate.key(), estimatedRoutes));
+            }
+        }
+        long totalRoutes = 0;
+        for (InstanceInfo instanceInfo : ring.instances) {
+            totalRoutes += Objects.isNull(instanceInfo) ? 0 : routesOf(instanceInfo);
+        }
+        Map<String, Double> ownedFractions = RingAnalyzer.ownedFractions(ring);
+        List<InstanceLoadShare> instanceLoads = new ArrayList<>(ownedFractions.size());
+        for (InstanceInfo instanceInfo : ring.instances) {
+            if (Objects.isNull(instanceInfo)) {
+                continue;
+            }
+            double observedShare = totalRoutes == 0 ? 0 : (double) routesOf(instanceInfo) / totalRoutes;
+            List<HotKey> hotKeys = hotKeysByOwner.getOrDefault(instanceInfo, List.of()).stream()
+                                                 .sorted(Comparator.comparingLong(HotKey::estimatedRoutes)
+                                                                   .reversed())
+                                                 .limit(topK)
+                                                 .toList();
+            instanceLoads.add(new InstanceLoadShare(instanceInfo, observedShare,
+                                                    ownedFractions.get(instanceInfo.getInstanceId()), hotKeys));
+        }
+        instanceLoads.sort(Comparator.comparingDouble(InstanceLoadShare::loadRatio).reversed());
+        return new HotKeyStats(sampleRate, sampledRoutes.sum(), List.copyOf(instanceLoads));
+    }
+
+    private long routesOf(final InstanceInfo instanceInfo) {
+        LongAdder routes = instanceRoutes.get(instanceInfo);
+        return Objects.isNull(routes) ? 0 : routes.sum();
+    }
+
+    private long estimate(final String key) {
+        long h1 = keyHash(key);
+        long h2 = SplitMix64.mix(h1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            estimate = Math.min(estimate, counts.get(counterIdx(row, h1, h2)));
+        }
+        return estimate;
+    }
+
+    /**
+     * 64 bits of murmur3 rather than {@code String.hashCode()}, whose collisions such as "Aa" and "BB"
+     * would share every counter.
+     */
+    private long keyHash(final String key) {
+        return murmur3Hasher.get().hash(key).high();
+    }
+
+    /**
+     * Row counters are picked by double hashing, h1 + row x h2, from the top bits.
+     */
+    private static int counterIdx(final int row, final long h1, final long h2) {
+        return row << WIDTH_BITS | (int) ((h1 + row * h2) >>> (Long.SIZE - WIDTH_BITS));
+    }
+}
@@ -0,0 +1,85 @@
+package com.dht;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free log-linear histogram of non-negative values such as latencies in nanoseconds, in the spirit
+ * of HdrHistogram: every power of two is split into 32 linear buckets, so a reported percentile is
+ * within 1/32 of the recorded value. Values below 32 are exact. Recording is a single atomic increment.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_CNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_CNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_CNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_CNT);
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+
+    /**
+     * Records a value, negative values count as 0.
+     */
+    public void record(final long value) {
+        long clamped = Math.max(value, 0L);
+        counts.incrementAndGet(bucketOf(clamped));
+        max.accumulate(clamped);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKET_CNT; bucket++) {
+            count += counts.get(bucket);
+        }
+        return count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Highest value equivalent to the one at the given percentile in [0, 100], 0 when nothing was recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in [0, 100]: " + percentile);
+        }
+        long[] snapshot = new long[BUCKET_CNT];
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKET_CNT; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            count += snapshot[bucket];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_CNT; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKET_CNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_CNT + (int) ((value >>> shift) - SUB_BUCKET_CNT);
+    }
+
+    static long highestValueOf(final int bucket) {
+        if (bucket < SUB_BUCKET_CNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_CNT - 1;
+        long lowest = (long) (SUB_BUCKET_CNT + bucket % SUB_BUCKET_CNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,46 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import lombok.Getter;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One in-flight request routed by {@link NodeLocator#acquire(String)}. Closing the token releases
+ * the request from its instance's load. Meant to be closed once by the thread handling the request.
+ */
+public final class LoadToken implements AutoCloseable {
+    @Getter
+    private final InstanceInfo instanceInfo;
+    @Getter
+    private final int instanceIdx;
+    private final LongAdder instanceLoad;
+    private final LongAdder totalLoad;
+    private boolean released;
+
+    LoadToken(final InstanceInfo instanceInfo, final int instanceIdx, final LongAdder instanceLoad,
+              final LongAdder totalLoad) {
+        this.instanceInfo = instanceInfo;
+        this.instanceIdx = instanceIdx;
+        this.instanceLoad = instanceLoad;
+        this.totalLoad = totalLoad;
+    }
+
+    /**
+     * Token of a request routed while bounded loads are off, nothing is tracked.
+     */
+    static LoadToken untracked(final InstanceInfo instanceInfo, final int instanceIdx) {
+        return new LoadToken(instanceInfo, instanceIdx, null, null);
+    }
+
+    @Override
+    public void close() {
+        if (released || Objects.isNull(instanceLoad)) {
+            return;
+        }
+        released = true;
+        instanceLoad.decrement();
+        totalLoad.decrement();
+    }
+}
@@ -0,0 +1,83 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-flight request counters for consistent hashing with bounded loads (Mirrokni, Thorup, Zadimoghaddam).
+ * <p>
+ * Counters are LongAdders, so acquiring and releasing tokens from many threads does not contend on a
+ * single cache line. An instance accepts one more request while its load stays within
+ * {@code ceil((1 + epsilon) x (totalLoad + 1) x share)}, where share is its fraction of the ring's vnodes,
+ * so weighted instances get proportionally more. Checks and increments are not atomic together, under
+ * concurrent acquires an instance can overshoot its bound by the number of racing threads.
+ */
+final class LoadTracker {
+
+    private final double epsilon;
+    private final LongAdder totalLoad = new LongAdder();
+    private volatile InstanceLoad[] instanceLoads = new InstanceLoad[0];
+
+    /**
+     * Load of the instance currently holding a slot. A reused slot gets a fresh counter, tokens of the
+     * previous holder keep releasing into the old one.
+     */
+    private record InstanceLoad(InstanceInfo instanceInfo, LongAdder load) {
+    }
+
+    LoadTracker(final double epsilon) {
+        if (!(epsilon > 0) || Double.isInfinite(epsilon)) {
+            throw new IllegalArgumentException("epsilon must be positive: " + epsilon);
+        }
+        this.epsilon = epsilon;
+    }
+
+    long totalLoad() {
+        return totalLoad.sum();
+    }
+
+    /**
+     * @param totalLoad      total in-flight requests including the one being routed
+     * @param instanceVNodes vnodes of the instance
+     * @param totalVNodes    vnodes on the ring
+     */
+    boolean hasCapacity(final int instanceIdx, final InstanceInfo instanceInfo, final long totalLoad,
+                        final int instanceVNodes, final int totalVNodes) {
+        double capacity = Math.ceil((1 + epsilon) * totalLoad * instanceVNodes / totalVNodes);
+        return instanceLoad(instanceIdx, instanceInfo).sum() + 1 <= capacity;
+    }
+
+    LoadToken acquire(final int instanceIdx, final InstanceInfo instanceInfo) {
+        LongAdder load = instanceLoad(instanceIdx, instanceInfo);
+        load.increment();
+        totalLoad.increment();
+        return new LoadToken(instanceInfo, instanceIdx, load, totalLoad);
+    }
+
+    private LongAdder instanceLoad(final int instanceIdx, final InstanceInfo instanceInfo) {
+        InstanceLoad[] loads = instanceLoads;
+        if (instanceIdx < loads.length) {
+            InstanceLoad instanceLoad = loads[instanceIdx];
+            if (instanceLoad != null && instanceLoad.instanceInfo() == instanceInfo) {
+                return instanceLoad.load();
+            }
+        }
+        return newInstanceLoad(instanceIdx, instanceInfo);
+    }
+
+    private synchronized LongAdder newInstanceLoad(final int instanceIdx, final InstanceInfo instanceInfo) {
+        InstanceLoad[] loads = instanceLoads;
+        if (instanceIdx < loads.length) {
+            InstanceLoad instanceLoad = loads[instanceIdx];
+            if (instanceLoad != null && instanceLoad.instanceInfo() == instanceInfo) {
+                return instanceLoad.load();
+            }
+        }
+        InstanceLoad[] newLoads = Arrays.copyOf(loads, Math.max(loads.length, instanceIdx + 1));
+        newLoads[instanceIdx] = new InstanceLoad(instanceInfo, new LongAdder());
+        instanceLoads = newLoads;
+        return newLoads[instanceIdx].load();
+    }
+}
@@ -0,0 +1,219 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in routing and lock metrics of a locator, published as the MXBean
+ * {@code com.dht:type=NodeLocator,name=<name>}. Locators hold it in a volatile field that stays null
+ * until metrics are enabled, so the route path costs a single null check when they are off.
+ * <p>
+ * Route counters are LongAdders. Only one route in {@value #ROUTE_SAMPLE_RATE} is timed, two
+ * System.nanoTime() calls per route would cost more than a V3 lookup itself.
+ */
+public final class LocatorMetrics implements LocatorMetricsMXBean {
+
+    static final int ROUTE_SAMPLE_RATE = 64;
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final ObjectName objectName;
+    private final Map<String, LongAdder> routeCounts = new ConcurrentHashMap<>();
+    private final LongAdder optimisticReadSuccess = new LongAdder();
+    private final LongAdder optimisticReadFallback = new LongAdder();
+    private final LatencyHistogram routeLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLockWait = new LatencyHistogram();
+    private final LatencyHistogram writeLockHold = new LatencyHistogram();
+
+    private LocatorMetrics(final ObjectName objectName) {
+        this.objectName = objectName;
+    }
+
+    /**
+     * Creates metrics and registers them on the platform MBean server.
+     *
+     * @throws IllegalArgumentException when the name is malformed or already registered
+     */
+    static LocatorMetrics register(final String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.dht:type=NodeLocator,name=" + name);
+            if (objectName.isPattern()) {
+                throw new IllegalArgumentException("metrics name must not be a pattern: " + name);
+            }
+            LocatorMetrics metrics = new LocatorMetrics(objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            return metrics;
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("cannot publish metrics as " + name, e);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot publish metrics as " + name, e);
+        }
+    }
+
+    void unregister() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            //already gone, e.g. unregistered through JMX
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister " + objectName, e);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Start time of a sampled route, or a marker telling {@link #routed} not to time this one.
+     */
+    long startRoute() {
+        return ThreadLocalRandom.current().nextInt(ROUTE_SAMPLE_RATE) == 0 ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    void routed(final InstanceInfo instanceInfo, final long startNanos) {
+        if (startNanos != NOT_SAMPLED) {
+            routeLatency.record(System.nanoTime() - startNanos);
+        }
+        if (Objects.nonNull(instanceInfo)) {
+            LongAdder routeCount = routeCounts.get(instanceInfo.getInstanceId());
+            if (Objects.isNull(routeCount)) {
+                routeCount = routeCounts.computeIfAbsent(instanceInfo.getInstanceId(), instanceId -> new LongAdder());
+            }
+            routeCount.increment();
+        }
+    }
+
+    void optimisticReadSucceeded() {
+        optimisticReadSuccess.increment();
+    }
+
+    void optimisticReadFellBack() {
+        optimisticReadFallback.increment();
+    }
+
+    /**
+     * Null-tolerant helpers for the write paths: take the time before asking for the write lock,
+     * report acquisition with the returned start, then report release with the hold start.
+     */
+    static long beforeWriteLock(final LocatorMetrics metrics) {
+        return Objects.isNull(metrics) ? 0L : System.nanoTime();
+    }
+
+    static long writeLockAcquired(final LocatorMetrics metrics, final long waitStartNanos) {
+        if (Objects.isNull(metrics)) {
+            return 0L;
+        }
+        long now = System.nanoTime();
+        metrics.writeLockWait.record(now - waitStartNanos);
+        return now;
+    }
+
+    static void writeLockReleased(final LocatorMetrics metrics, final long holdStartNanos) {
+        if (Objects.nonNull(metrics)) {
+            metrics.writeLockHold.record(System.nanoTime() - holdStartNanos);
+        }
+    }
+
+    public LatencyHistogram getRouteLatency() {
+        return routeLatency;
+    }
+
+    public LatencyHistogram getWriteLockWait() {
+        return writeLockWait;
+    }
+
+    public LatencyHistogram getWriteLockHold() {
+        return writeLockHold;
+    }
+
+    @Override
+    public Map<String, Long> getRouteCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        routeCounts.forEach((instanceId, routeCount) -> counts.put(instanceId, routeCount.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getOptimisticReadSuccessCount() {
+        return optimisticReadSuccess.sum();
+    }
+
+    @Override
+    public long getOptimisticReadFallbackCount() {
+        return optimisticReadFallback.sum();
+    }
+
+    @Override
+    public long getRouteLatencySampleCount() {
+        return routeLatency.getCount();
+    }
+
+    @Override
+    public long getRouteLatencyP50() {
+        return routeLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getRouteLatencyP99() {
+        return routeLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getRouteLatencyP999() {
+        return routeLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getRouteLatencyMax() {
+        return routeLatency.getMax();
+    }
+
+    @Override
+    public long getWriteLockCount() {
+        return writeLockHold.getCount();
+    }
+
+    @Override
+    public long getWriteLockWaitP50() {
+        return writeLockWait.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getWriteLockWaitP99() {
+        return writeLockWait.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getWriteLockWaitMax() {
+        return writeLockWait.getMax();
+    }
+
+    @Override
+    public long getWriteLockHoldP50() {
+        return writeLockHold.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getWriteLockHoldP99() {
+        return writeLockHold.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getWriteLockHoldMax() {
+        return writeLockHold.getMax();
+    }
+}
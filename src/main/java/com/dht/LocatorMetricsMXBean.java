@@ -0,0 +1,48 @@
+package com.dht;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link LocatorMetrics}, latencies in nanoseconds.
+ */
+public interface LocatorMetricsMXBean {
+
+    /**
+     * Routes per instance id since metrics were enabled, deregistered instances included.
+     */
+    Map<String, Long> getRouteCounts();
+
+    /**
+     * Routes answered by a validated optimistic read, StampedLock locators only.
+     */
+    long getOptimisticReadSuccessCount();
+
+    /**
+     * Routes that exhausted the optimistic retries and blocked on the read lock, StampedLock locators only.
+     */
+    long getOptimisticReadFallbackCount();
+
+    long getRouteLatencySampleCount();
+
+    long getRouteLatencyP50();
+
+    long getRouteLatencyP99();
+
+    long getRouteLatencyP999();
+
+    long getRouteLatencyMax();
+
+    long getWriteLockCount();
+
+    long getWriteLockWaitP50();
+
+    long getWriteLockWaitP99();
+
+    long getWriteLockWaitMax();
+
+    long getWriteLockHoldP50();
+
+    long getWriteLockHoldP99();
+
+    long getWriteLockHoldMax();
+}
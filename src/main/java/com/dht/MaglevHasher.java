@@ -0,0 +1,502 @@
+package com.dht;
+
+import com.dht.hash.Murmur3Hasher;
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RouteCacheStats;
+import com.dht.model.RoutingKey;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Using Maglev hashing (Eisenbud et al., NSDI 2016).
+ * <p>
+ * Every instance derives a permutation of the prime sized lookup table from its key, the table is
+ * filled by letting instances claim their next preferred free entry in turn. route() is a single
+ * {@code hash mod M} array read, the table is rebuilt by writers and published through a volatile reference.
+ * <p>
+ * Disruption on churn, measured by MaglevHasherTest with 10 instances, 100k keys and the default table size:
+ * removing one instance moves 10.3% of keys (V1: 10.4%, ideal 10%), adding an eleventh moves 9.4%
+ * (V1: 8.6%, ideal 9.1%). Beyond the ideal, keys move only because the table is refilled, which
+ * Maglev keeps to a fraction of a percent; V1 deviates by its vnode imbalance instead.
+ */
+
+@ThreadSafe
+public class MaglevHasher implements NodeLocator {
+
+    public static final int DEFAULT_TABLE_SIZE = 65_537;
+    private final int tableSize;
+    private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+    private final ThreadLocal<Murmur3Hasher> murmur3Hasher = ThreadLocal.withInitial(Murmur3Hasher::new);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, Integer> instanceIdToIdx = new HashMap<>();
+    private final Map<String, Integer> instanceIdToWeight = new HashMap<>();
+    private final List<InstanceInfo> instanceSlots = new ArrayList<>();
+    private volatile LookupTable lookupTable;
+    private volatile RouteCache routeCache;
+    private volatile LocatorMetrics metrics;
+    private volatile RingChangePublisher<RingChangePublisher.Membership> ringChangePublisher;
+
+    public MaglevHasher() {
+        this(DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * @param tableSize a prime, well above the instance count, 100 x instances keeps imbalance around 1%
+     */
+    public MaglevHasher(final int tableSize) {
+        if (tableSize < 2 || !BigInteger.valueOf(tableSize).isProbablePrime(32)) {
+            throw new IllegalArgumentException("tableSize must be a prime: " + tableSize);
+        }
+        this.tableSize = tableSize;
+        this.lookupTable = new LookupTable(0L, null, new InstanceInfo[0], 0);
+    }
+
+    /**
+     * Immutable lookup table, entry j holds the index of the instance owning hashes with {@code hash mod M == j}.
+     */
+    private record LookupTable(long version, int[] entries, InstanceInfo[] instances, int instanceCnt) {
+    }
+
+    @Override
+    public InstanceInfo route(final String key) {
+        RouteCache cache = routeCache;
+        if (Objects.nonNull(cache)) {
+            return cachedRoute(cache, key).instanceInfo();
+        }
+        return route((CharSequence) key);
+    }
+
+    @Override
+    public InstanceInfo route(final CharSequence key) {
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key);
+        return route(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public InstanceInfo route(final byte[] key, final int offset, final int length) {
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key, offset, length);
+        return route(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public InstanceInfo route(final long hashHigh, final long hashLow) {
+        LookupTable current = lookupTable;
+        int instanceIdx = routeToIndex(current, hashHigh);
+        return instanceIdx < 0 ? null : current.instances()[instanceIdx];
+    }
+
+    @Override
+    public int routeToIndex(final CharSequence key) {
+        RouteCache cache = routeCache;
+        if (key instanceof String stringKey && Objects.nonNull(cache)) {
+            return cachedRoute(cache, stringKey).instanceIdx();
+        }
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key);
+        return routeToIndex(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public int routeToIndex(final byte[] key, final int offset, final int length) {
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key, offset, length);
+        return routeToIndex(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public InstanceInfo route(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(MURMUR3_128);
+        return route(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    @Override
+    public int routeToIndex(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(MURMUR3_128);
+        return routeToIndex(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    @Override
+    public int routeToIndex(final long hashHigh, final long hashLow) {
+        return routeToIndex(lookupTable, hashHigh);
+    }
+
+    /**
+     * Misses are counted by the table lookup, hits here.
+     */
+    private RouteCache.CachedRoute cachedRoute(final RouteCache cache, final String key) {
+        LocatorMetrics metrics = this.metrics;
+        long startNanos = Objects.isNull(metrics) ? 0L : metrics.startRoute();
+        LookupTable current = lookupTable;
+        RouteCache.CachedRoute cached = cache.get(key, current.version());
+        if (Objects.nonNull(cached)) {
+            if (Objects.nonNull(metrics)) {
+                metrics.routed(cached.instanceInfo(), startNanos);
+            }
+            return cached;
+        }
+        int instanceIdx = routeToIndex(current, murmur3Hasher.get().hash(key).high());
+        InstanceInfo instanceInfo = instanceIdx < 0 ? null : current.instances()[instanceIdx];
+        return cache.put(key, current.version(), instanceIdx, instanceInfo);
+    }
+
+    @Override
+    public void enableRouteCache(final int capacity) {
+        this.routeCache = new RouteCache(capacity);
+    }
+
+    @Override
+    public void disableRouteCache() {
+        this.routeCache = null;
+    }
+
+    @Override
+    public RouteCacheStats getRouteCacheStats() {
+        RouteCache cache = this.routeCache;
+        return Objects.isNull(cache) ? null : cache.stats();
+    }
+
+    @Override
+    public synchronized LocatorMetrics enableMetrics(final String name) {
+        disableMetrics();
+        LocatorMetrics newMetrics = LocatorMetrics.register(name);
+        this.metrics = newMetrics;
+        return newMetrics;
+    }
+
+    @Override
+    public synchronized void disableMetrics() {
+        LocatorMetrics oldMetrics = this.metrics;
+        this.metrics = null;
+        if (Objects.nonNull(oldMetrics)) {
+            oldMetrics.unregister();
+        }
+    }
+
+    @Override
+    public LocatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public InstanceInfo getInstance(final int instanceIdx) {
+        InstanceInfo[] instances = lookupTable.instances();
+        return instanceIdx >= 0 && instanceIdx < instances.length ? instances[instanceIdx] : null;
+    }
+
+    /**
+     * Maglev has no ring to walk, the preference list takes the distinct owners of the table entries
+     * following the key's entry. The owner stays first, the replicas are as spread as the table.
+     */
+    @Override
+    public int routeN(final String key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        LookupTable current = lookupTable;
+        int[] entries = current.entries();
+        if (Objects.isNull(entries)) {
+            return 0;
+        }
+        int limit = Math.min(n, current.instanceCnt());
+        int entry = (int) Long.remainderUnsigned(murmur3Hasher.get().hash(key).high(), tableSize);
+        int cnt = 0;
+        for (int ctr = 0; ctr < tableSize && cnt < limit; ctr++, entry = entry + 1 == tableSize ? 0 : entry + 1) {
+            InstanceInfo instanceInfo = current.instances()[entries[entry]];
+            if (!RingWalks.contains(out, cnt, instanceInfo)) {
+                out[cnt++] = instanceInfo;
+            }
+        }
+        return cnt;
+    }
+
+    private int routeToIndex(final LookupTable current, final long hashHigh) {
+        LocatorMetrics metrics = this.metrics;
+        if (Objects.isNull(metrics)) {
+            return lookup(current, hashHigh);
+        }
+        long startNanos = metrics.startRoute();
+        int instanceIdx = lookup(current, hashHigh);
+        metrics.routed(instanceIdx < 0 ? null : current.instances()[instanceIdx], startNanos);
+        return instanceIdx;
+    }
+
+    private int lookup(final LookupTable current, final long hashHigh) {
+        int[] entries = current.entries();
+        return Objects.isNull(entries) ? -1 : entries[(int) Long.remainderUnsigned(hashHigh, tableSize)];
+    }
+
+    @Override
+    public void registerInstance(final String instanceId, final String host, final int port, final int weight) {
+        checkWeight(weight);
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        writeLock.lock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        try {
+            if (register(instanceId, host, port, weight)) {
+                publishTable(buildLookupTable());
+            }
+        } finally {
+            writeLock.unlock();
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    @Override
+    public void deregisterInstance(final String instanceId) {
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        writeLock.lock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        try {
+            if (deregister(instanceId)) {
+                publishTable(buildLookupTable());
+            }
+        } finally {
+            writeLock.unlock();
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    /**
+     * Updates membership for the whole batch and fills the table once. The pool is not used, the
+     * table fill is a single sequential pass.
+     */
+    @Override
+    public void applyChanges(final Collection<InstanceRegistration> registrations,
+                             final Collection<String> deregistrations, final ForkJoinPool pool) {
+        InstanceRegistration[] registrationArr = MembershipChanges.distinct(registrations);
+        for (InstanceRegistration registration : registrationArr) {
+            checkWeight(registration.weight());
+        }
+        LocatorMetrics metrics = this.metrics;
+        long waitStartNanos = LocatorMetrics.beforeWriteLock(metrics);
+        writeLock.lock();
+        long holdStartNanos = LocatorMetrics.writeLockAcquired(metrics, waitStartNanos);
+        try {
+            boolean changed = false;
+            for (String instanceId : deregistrations) {
+                changed |= deregister(instanceId);
+            }
+            for (InstanceRegistration registration : registrationArr) {
+                changed |= register(registration.instanceId(), registration.host(), registration.port(),
+                                    registration.weight());
+            }
+            if (changed) {
+                publishTable(buildLookupTable());
+            }
+        } finally {
+            writeLock.unlock();
+            LocatorMetrics.writeLockReleased(metrics, holdStartNanos);
+        }
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private void publishTable(final LookupTable next) {
+        lookupTable = next;
+        RingChangePublisher<RingChangePublisher.Membership> publisher = this.ringChangePublisher;
+        if (Objects.nonNull(publisher)) {
+            publisher.publish(membership(next));
+        }
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private RingChangePublisher.Membership membership(final LookupTable table) {
+        InstanceInfo[] instances = table.instances();
+        int[] weights = new int[instances.length];
+        for (int instanceIdx = 0; instanceIdx < instances.length; instanceIdx++) {
+            if (Objects.nonNull(instances[instanceIdx])) {
+                weights[instanceIdx] = instanceIdToWeight.get(instances[instanceIdx].getInstanceId());
+            }
+        }
+        return new RingChangePublisher.Membership(table.version(), instances, weights);
+    }
+
+    /**
+     * Events carry no range transfers, Maglev moves table entries rather than hash ranges.
+     */
+    @Override
+    public Flow.Publisher<RingChangeEvent> ringChanges() {
+        RingChangePublisher<RingChangePublisher.Membership> publisher = this.ringChangePublisher;
+        if (Objects.isNull(publisher)) {
+            writeLock.lock();
+            try {
+                publisher = this.ringChangePublisher;
+                if (Objects.isNull(publisher)) {
+                    publisher = RingChangePublisher.forMembership(membership(lookupTable));
+                    this.ringChangePublisher = publisher;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return publisher.publisher();
+    }
+
+    private void checkWeight(final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+    }
+
+    /**
+     * Returns whether membership changed, must be called holding the write lock.
+     */
+    private boolean register(final String instanceId, final String host, final int port, final int weight) {
+        Integer existingWeight = instanceIdToWeight.put(instanceId, weight);
+        if (Objects.nonNull(existingWeight)) {
+            return existingWeight != weight;
+        }
+        InstanceInfo instanceInfo = new InstanceInfo(instanceId, host, port);
+        int instanceIdx = instanceSlots.indexOf(null);
+        if (instanceIdx < 0) {
+            instanceIdx = instanceSlots.size();
+            instanceSlots.add(instanceInfo);
+        } else {
+            instanceSlots.set(instanceIdx, instanceInfo);
+        }
+        instanceIdToIdx.put(instanceId, instanceIdx);
+        return true;
+    }
+
+    /**
+     * Returns whether membership changed, must be called holding the write lock.
+     */
+    private boolean deregister(final String instanceId) {
+        if (!instanceIdToIdx.containsKey(instanceId)) {
+            return false;
+        }
+        instanceSlots.set(instanceIdToIdx.remove(instanceId), null);
+        instanceIdToWeight.remove(instanceId);
+        return true;
+    }
+
+    @Override
+    public List<InstanceInfo> getInstanceList() {
+        List<InstanceInfo> instanceInfoList = new ArrayList<>();
+        for (InstanceInfo instanceInfo : lookupTable.instances()) {
+            if (Objects.nonNull(instanceInfo)) {
+                instanceInfoList.add(instanceInfo);
+            }
+        }
+        return instanceInfoList;
+    }
+
+    /**
+     * Maglev owns table entries, not contiguous hash ranges, so there are no ring details to report.
+     */
+    @Override
+    public List<RangeInstanceInfo> getRingDetails() {
+        throw new UnsupportedOperationException("Maglev lookup table has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeInstanceInfo> getOwnershipRanges() {
+        throw new UnsupportedOperationException("Maglev lookup table has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeTransfer> planRegister(final String instanceId, final String host, final int port,
+                                              final int weight) {
+        throw new UnsupportedOperationException("Maglev lookup table has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeTransfer> planDeregister(final String instanceId) {
+        throw new UnsupportedOperationException("Maglev lookup table has no hash ranges");
+    }
+
+    /**
+     * Owner slot of every table entry, entries is null while the table is empty, and the weight of
+     * every slot with 0 for free slots. Read under the write lock so both describe the same table.
+     */
+    record TableOwnership(int[] entries, InstanceInfo[] instances, int[] weights) {
+    }
+
+    TableOwnership tableOwnership() {
+        writeLock.lock();
+        try {
+            LookupTable current = lookupTable;
+            return new TableOwnership(current.entries(), current.instances(), membership(current).weights());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Fills the table as in the Maglev paper. Instances take turns in instance id order, not
+     * registration order, so every router with the same membership builds the same table.
+     * A weighted instance claims weight entries per turn.
+     */
+    private LookupTable buildLookupTable() {
+        long version = lookupTable.version() + 1;
+        InstanceInfo[] instances = instanceSlots.toArray(new InstanceInfo[0]);
+        int[] fillOrder = new int[instanceIdToIdx.size()];
+        int n = 0;
+        for (int instanceIdx = 0; instanceIdx < instances.length; instanceIdx++) {
+            if (Objects.nonNull(instances[instanceIdx])) {
+                fillOrder[n++] = instanceIdx;
+            }
+        }
+        if (n == 0) {
+            return new LookupTable(version, null, instances, 0);
+        }
+        fillOrder = Arrays.stream(fillOrder)
+                          .boxed()
+                          .sorted(Comparator.comparing(instanceIdx -> instances[instanceIdx].getInstanceId()))
+                          .mapToInt(Integer::intValue)
+                          .toArray();
+
+        long[] offset = new long[n];
+        long[] skip = new long[n];
+        int[] weight = new int[n];
+        Murmur3Hasher hasher = new Murmur3Hasher();
+        for (int i = 0; i < n; i++) {
+            weight[i] = instanceIdToWeight.get(instances[fillOrder[i]].getInstanceId());
+            hasher.hash(instances[fillOrder[i]].getKey());
+            offset[i] = Long.remainderUnsigned(hasher.high(), tableSize);
+            skip[i] = Long.remainderUnsigned(hasher.low(), tableSize - 1) + 1;
+        }
+
+        int[] entries = new int[tableSize];
+        Arrays.fill(entries, -1);
+        long[] next = new long[n];
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; i++) {
+                for (int turn = 0; turn < weight[i]; turn++) {
+                    int entry = (int) ((offset[i] + next[i] * skip[i]) % tableSize);
+                    while (entries[entry] >= 0) {
+                        next[i]++;
+                        entry = (int) ((offset[i] + next[i] * skip[i]) % tableSize);
+                    }
+                    entries[entry] = fillOrder[i];
+                    next[i]++;
+                    if (++filled == tableSize) {
+                        return new LookupTable(version, entries, instances, n);
+                    }
+                }
+            }
+        }
+    }
+}
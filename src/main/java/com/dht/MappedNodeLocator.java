@@ -0,0 +1,216 @@
+package com.dht;
+
+import com.dht.hash.Murmur3Hasher;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Read-only locator over a memory-mapped {@link RingSnapshotFile}, or its direct memory copy of a live ring.
+ * route() binary searches the mapped vnode arrays in place, nothing but the slot table lives on the heap.
+ * Membership changes throw, write a new snapshot and map it instead.
+ */
+
+@ThreadSafe
+public class MappedNodeLocator implements NodeLocator {
+
+    private static final String READ_ONLY = "mapped ring snapshots are read-only";
+    //absolute reads only, they leave the shared buffer's position alone
+    private final ByteBuffer buffer;
+    private final long ringVersion;
+    private final int vNodeCnt;
+    private final int lowOffset;
+    private final int ownerOffset;
+    private final InstanceInfo[] instances;
+    private final int instanceCnt;
+    private final ThreadLocal<Murmur3Hasher> murmur3Hasher = ThreadLocal.withInitial(Murmur3Hasher::new);
+
+    MappedNodeLocator(final ByteBuffer buffer, final long ringVersion, final int vNodeCnt,
+                      final InstanceInfo[] instances) {
+        this.buffer = buffer;
+        this.ringVersion = ringVersion;
+        this.vNodeCnt = vNodeCnt;
+        this.lowOffset = RingSnapshotFile.HEADER_SIZE + 8 * vNodeCnt;
+        this.ownerOffset = lowOffset + 8 * vNodeCnt;
+        this.instances = instances;
+        this.instanceCnt = (int) Stream.of(instances).filter(Objects::nonNull).count();
+    }
+
+    /**
+     * Version of the ring the snapshot was written from.
+     */
+    @Override
+    public long getRingVersion() {
+        return ringVersion;
+    }
+
+    @Override
+    public InstanceInfo route(final String key) {
+        return route((CharSequence) key);
+    }
+
+    @Override
+    public InstanceInfo route(final CharSequence key) {
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key);
+        return route(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public InstanceInfo route(final byte[] key, final int offset, final int length) {
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key, offset, length);
+        return route(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public InstanceInfo route(final long hashHigh, final long hashLow) {
+        int instanceIdx = routeToIndex(hashHigh, hashLow);
+        return instanceIdx < 0 ? null : instances[instanceIdx];
+    }
+
+    @Override
+    public int routeToIndex(final CharSequence key) {
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key);
+        return routeToIndex(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public int routeToIndex(final byte[] key, final int offset, final int length) {
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key, offset, length);
+        return routeToIndex(hasher.high(), hasher.low());
+    }
+
+    @Override
+    public int routeToIndex(final long hashHigh, final long hashLow) {
+        int idx = ceilingIndex(hashHigh, hashLow);
+        return idx < 0 ? -1 : owner(idx);
+    }
+
+    @Override
+    public InstanceInfo getInstance(final int instanceIdx) {
+        return instanceIdx >= 0 && instanceIdx < instances.length ? instances[instanceIdx] : null;
+    }
+
+    @Override
+    public int routeN(final String key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        Murmur3Hasher hasher = murmur3Hasher.get().hash(key);
+        int idx = ceilingIndex(hasher.high(), hasher.low());
+        if (idx < 0) {
+            return 0;
+        }
+        int limit = Math.min(n, instanceCnt);
+        int cnt = 0;
+        for (int ctr = 0; ctr < vNodeCnt && cnt < limit; ctr++, idx = idx + 1 == vNodeCnt ? 0 : idx + 1) {
+            InstanceInfo instanceInfo = instances[owner(idx)];
+            if (!RingWalks.contains(out, cnt, instanceInfo)) {
+                out[cnt++] = instanceInfo;
+            }
+        }
+        return cnt;
+    }
+
+    @Override
+    public List<InstanceInfo> getInstanceList() {
+        List<InstanceInfo> instanceInfoList = new ArrayList<>(instanceCnt);
+        for (InstanceInfo instanceInfo : instances) {
+            if (Objects.nonNull(instanceInfo)) {
+                instanceInfoList.add(instanceInfo);
+            }
+        }
+        return instanceInfoList;
+    }
+
+    @Override
+    public List<RangeInstanceInfo> getRingDetails() {
+        throw new UnsupportedOperationException("use getOwnershipRanges() on a mapped ring snapshot");
+    }
+
+    /**
+     * Ranges and plans work on a heap copy of the vnode arrays, they are meant for tooling, not the route path.
+     */
+    @Override
+    public Stream<RangeInstanceInfo> getOwnershipRanges() {
+        return RingRanges.ownershipRanges(toRingSnapshot());
+    }
+
+    /**
+     * The snapshot does not record vnodes per weight, plan against the locator the snapshot was written from.
+     */
+    @Override
+    public Stream<RangeTransfer> planRegister(final String instanceId, final String host, final int port,
+                                              final int weight) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    public Stream<RangeTransfer> planDeregister(final String instanceId) {
+        RingSnapshot current = toRingSnapshot();
+        return RingRanges.transfers(current, current.withoutInstance(instanceId));
+    }
+
+    @Override
+    public void registerInstance(final String instanceId, final String host, final int port, final int weight) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    public void deregisterInstance(final String instanceId) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    @Override
+    public void applyChanges(final Collection<InstanceRegistration> registrations,
+                             final Collection<String> deregistrations, final ForkJoinPool pool) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+    /**
+     * Same lower bound search as {@link RingSnapshot#ceilingIndex}, the low word is only read on a tie.
+     */
+    private int ceilingIndex(final long hashHigh, final long hashLow) {
+        if (vNodeCnt == 0) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = vNodeCnt;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Long.compareUnsigned(buffer.getLong(RingSnapshotFile.HEADER_SIZE + 8 * mid), hashHigh);
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(buffer.getLong(lowOffset + 8 * mid), hashLow);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo == vNodeCnt ? 0 : lo;
+    }
+
+    private int owner(final int idx) {
+        return buffer.getInt(ownerOffset + 4 * idx);
+    }
+
+    RingSnapshot toRingSnapshot() {
+        long[] high = new long[vNodeCnt];
+        long[] low = new long[vNodeCnt];
+        int[] owner = new int[vNodeCnt];
+        for (int idx = 0; idx < vNodeCnt; idx++) {
+            high[idx] = buffer.getLong(RingSnapshotFile.HEADER_SIZE + 8 * idx);
+            low[idx] = buffer.getLong(lowOffset + 8 * idx);
+            owner[idx] = owner(idx);
+        }
+        return RingSnapshot.of(ringVersion, high, low, owner, instances);
+    }
+}
@@ -0,0 +1,54 @@
+package com.dht;
+
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.VirtualNode;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Shared plumbing for applyChanges(): registrations are validated up front and their vnodes hashed
+ * before any lock is taken, one instance per task when a pool is given.
+ */
+final class MembershipChanges {
+
+    private MembershipChanges() {
+    }
+
+    /**
+     * Rejects batches registering the same instance twice, the outcome would depend on apply order.
+     */
+    static InstanceRegistration[] distinct(final Collection<InstanceRegistration> registrations) {
+        InstanceRegistration[] registrationArr = registrations.toArray(new InstanceRegistration[0]);
+        Set<String> instanceIds = new HashSet<>();
+        for (InstanceRegistration registration : registrationArr) {
+            if (!instanceIds.add(registration.instanceId())) {
+                throw new IllegalArgumentException("instance registered twice: " + registration.instanceId());
+            }
+        }
+        return registrationArr;
+    }
+
+    /**
+     * Hashes vnodes [0, vNodeCnts[i]) of every registration as a freshly registered instance would.
+     */
+    static Hash128Bit[][] hashVNodes(final InstanceRegistration[] registrations, final int[] vNodeCnts,
+                                     final Function<VirtualNode, Hash128Bit> vNodeHash, final ForkJoinPool pool) {
+        Hash128Bit[][] vNodeHashes = new Hash128Bit[registrations.length][];
+        BatchRouting.forEachChunk(registrations.length, pool, i -> {
+            InstanceRegistration registration = registrations[i];
+            InstanceInfo instanceInfo = new InstanceInfo(registration.instanceId(), registration.host(),
+                                                         registration.port());
+            vNodeHashes[i] = new Hash128Bit[vNodeCnts[i]];
+            for (int ctr = 0; ctr < vNodeCnts[i]; ctr++) {
+                vNodeHashes[i][ctr] = vNodeHash.apply(new VirtualNode(instanceInfo, ctr));
+            }
+        });
+        return vNodeHashes;
+    }
+}
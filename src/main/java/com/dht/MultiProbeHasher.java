@@ -0,0 +1,442 @@
+package com.dht;
+
+import com.dht.hash.Murmur3Hasher;
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RoutingKey;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Using multi-probe consistent hashing (Appleton and O'Reilly, 2015).
+ * <p>
+ * Every instance takes a single point on a 64-bit ring, a weighted one a point per unit of weight. A key is
+ * hashed into probeCnt probes and the point closest clockwise to any probe owns it. Vnodes buy balance
+ * with points, probes buy it with lookups: the default 21 probes are the paper's choice for a peak-to-mean
+ * ratio of about 1.05. The ring is n points instead of 420n, so a membership change hashes one point and
+ * copies n of them instead of hashing and inserting 420, and a route costs probeCnt binary searches of
+ * log n steps. Churn moves only the keys of the instance that left or to the one that joined.
+ * <p>
+ * Ownership is not contiguous, the keys of a hash range are spread by their probes, so there are no
+ * ownership ranges or transfer plans. Replicas are the next distinct instances clockwise from the owning point.
+ */
+
+@ThreadSafe
+public class MultiProbeHasher implements NodeLocator {
+
+    public static final int DEFAULT_PROBE_CNT = 21;
+    private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+    //Weyl sequence step of SplitMix64, probe and point i of a seed are mix(seed + i x STEP)
+    private static final long STEP = 0x9E3779B97F4A7C15L;
+    private final ThreadLocal<Murmur3Hasher> murmur3Hasher = ThreadLocal.withInitial(Murmur3Hasher::new);
+    private final int probeCnt;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, Integer> instanceIdToIdx = new HashMap<>();
+    private final Map<String, Integer> instanceIdToWeight = new HashMap<>();
+    private final List<InstanceInfo> instanceSlots = new ArrayList<>();
+    //sorted unsigned with their owner slots, replaced by copies under the write lock and published in members
+    private long[] points = new long[0];
+    private int[] owners = new int[0];
+    private volatile RingChangePublisher<RingChangePublisher.Membership> ringChangePublisher;
+    private volatile Members members = new Members(0L, new long[0], new int[0], new InstanceInfo[0], 0);
+
+    /**
+     * Immutable membership, point i is owned by the instance in slot {@code owners[i]}.
+     */
+    private record Members(long version, long[] points, int[] owners, InstanceInfo[] instances, int instanceCnt) {
+    }
+
+    public MultiProbeHasher() {
+        this(DEFAULT_PROBE_CNT);
+    }
+
+    /**
+     * @param probeCnt hashes per key, more probes balance better and route slower
+     */
+    public MultiProbeHasher(final int probeCnt) {
+        if (probeCnt < 1) {
+            throw new IllegalArgumentException("probeCnt must be positive: " + probeCnt);
+        }
+        this.probeCnt = probeCnt;
+    }
+
+    @Override
+    public InstanceInfo route(final String key) {
+        return route((CharSequence) key);
+    }
+
+    @Override
+    public InstanceInfo route(final CharSequence key) {
+        return route(murmur3Hasher.get().hash(key).high(), 0L);
+    }
+
+    @Override
+    public InstanceInfo route(final byte[] key, final int offset, final int length) {
+        return route(murmur3Hasher.get().hash(key, offset, length).high(), 0L);
+    }
+
+    @Override
+    public InstanceInfo route(final long hashHigh, final long hashLow) {
+        Members current = members;
+        int point = pointOf(current, hashHigh);
+        return point < 0 ? null : current.instances()[current.owners()[point]];
+    }
+
+    @Override
+    public InstanceInfo route(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(MURMUR3_128);
+        return route(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    @Override
+    public int routeToIndex(final CharSequence key) {
+        return routeToIndex(murmur3Hasher.get().hash(key).high(), 0L);
+    }
+
+    @Override
+    public int routeToIndex(final byte[] key, final int offset, final int length) {
+        return routeToIndex(murmur3Hasher.get().hash(key, offset, length).high(), 0L);
+    }
+
+    @Override
+    public int routeToIndex(final long hashHigh, final long hashLow) {
+        Members current = members;
+        int point = pointOf(current, hashHigh);
+        return point < 0 ? -1 : current.owners()[point];
+    }
+
+    @Override
+    public int routeToIndex(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(MURMUR3_128);
+        return routeToIndex(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    @Override
+    public InstanceInfo getInstance(final int instanceIdx) {
+        InstanceInfo[] instances = members.instances();
+        return instanceIdx >= 0 && instanceIdx < instances.length ? instances[instanceIdx] : null;
+    }
+
+    @Override
+    public int routeN(final String key, final int n, final InstanceInfo[] out) {
+        return routeN(murmur3Hasher.get().hash(key).high(), n, out);
+    }
+
+    @Override
+    public int routeN(final RoutingKey key, final int n, final InstanceInfo[] out) {
+        return routeN(key.hash(MURMUR3_128).getHigh(), n, out);
+    }
+
+    private int routeN(final long keyHash, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        Members current = members;
+        int point = pointOf(current, keyHash);
+        if (point < 0) {
+            return 0;
+        }
+        int limit = Math.min(n, current.instanceCnt());
+        int cnt = 0;
+        for (int ctr = 0, size = current.points().length; ctr < size && cnt < limit; ctr++) {
+            InstanceInfo instanceInfo = current.instances()[current.owners()[point]];
+            if (!RingWalks.contains(out, cnt, instanceInfo)) {
+                out[cnt++] = instanceInfo;
+            }
+            point = point + 1 == size ? 0 : point + 1;
+        }
+        return cnt;
+    }
+
+    /**
+     * Index of the point closest clockwise to any probe of the key, -1 when there are no points.
+     */
+    private int pointOf(final Members current, final long keyHash) {
+        long[] ringPoints = current.points();
+        if (ringPoints.length == 0) {
+            return -1;
+        }
+        int best = 0;
+        long bestDistance = -1L;
+        for (int probe = 0; probe < probeCnt; probe++) {
+            long probeHash = SplitMix64.mix(keyHash + probe * STEP);
+            int point = ceilingIndex(ringPoints, probeHash);
+            //unsigned distance clockwise, wrapping past the highest hash
+            long distance = ringPoints[point] - probeHash;
+            if (Long.compareUnsigned(distance, bestDistance) < 0) {
+                best = point;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * First point not below the hash, wrapping to 0 past the highest point.
+     */
+    private static int ceilingIndex(final long[] ringPoints, final long hash) {
+        int lo = 0;
+        int hi = ringPoints.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(ringPoints[mid], hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo == ringPoints.length ? 0 : lo;
+    }
+
+    @Override
+    public void registerInstance(final String instanceId, final String host, final int port, final int weight) {
+        checkWeight(weight);
+        writeLock.lock();
+        try {
+            if (register(instanceId, host, port, weight)) {
+                publishMembers(buildMembers());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void deregisterInstance(final String instanceId) {
+        writeLock.lock();
+        try {
+            if (deregister(instanceId)) {
+                publishMembers(buildMembers());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Updates membership for the whole batch and publishes it once, the pool is not used.
+     */
+    @Override
+    public void applyChanges(final Collection<InstanceRegistration> registrations,
+                             final Collection<String> deregistrations, final ForkJoinPool pool) {
+        InstanceRegistration[] registrationArr = MembershipChanges.distinct(registrations);
+        for (InstanceRegistration registration : registrationArr) {
+            checkWeight(registration.weight());
+        }
+        writeLock.lock();
+        try {
+            boolean changed = false;
+            for (String instanceId : deregistrations) {
+                changed |= deregister(instanceId);
+            }
+            for (InstanceRegistration registration : registrationArr) {
+                changed |= register(registration.instanceId(), registration.host(), registration.port(),
+                                    registration.weight());
+            }
+            if (changed) {
+                publishMembers(buildMembers());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void checkWeight(final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+    }
+
+    /**
+     * Returns whether membership changed, must be called holding the write lock. A weight change replaces
+     * the instance's points, the first min(old, new) of which hash the same.
+     */
+    private boolean register(final String instanceId, final String host, final int port, final int weight) {
+        Integer existingWeight = instanceIdToWeight.put(instanceId, weight);
+        if (Objects.nonNull(existingWeight)) {
+            if (existingWeight == weight) {
+                return false;
+            }
+            int instanceIdx = instanceIdToIdx.get(instanceId);
+            removePoints(instanceIdx);
+            addPoints(instanceIdx, instanceSlots.get(instanceIdx), weight);
+            return true;
+        }
+        InstanceInfo instanceInfo = new InstanceInfo(instanceId, host, port);
+        int instanceIdx = instanceSlots.indexOf(null);
+        if (instanceIdx < 0) {
+            instanceIdx = instanceSlots.size();
+            instanceSlots.add(instanceInfo);
+        } else {
+            instanceSlots.set(instanceIdx, instanceInfo);
+        }
+        instanceIdToIdx.put(instanceId, instanceIdx);
+        addPoints(instanceIdx, instanceInfo, weight);
+        return true;
+    }
+
+    /**
+     * Returns whether membership changed, must be called holding the write lock.
+     */
+    private boolean deregister(final String instanceId) {
+        if (!instanceIdToIdx.containsKey(instanceId)) {
+            return false;
+        }
+        int instanceIdx = instanceIdToIdx.remove(instanceId);
+        instanceSlots.set(instanceIdx, null);
+        instanceIdToWeight.remove(instanceId);
+        removePoints(instanceIdx);
+        return true;
+    }
+
+    /**
+     * Merges the instance's weight points into copies of the sorted points. Points are derived from the
+     * instance key, so every router with the same membership has the same ring.
+     */
+    private void addPoints(final int instanceIdx, final InstanceInfo instanceInfo, final int weight) {
+        long seed = murmur3Hasher.get().hash(instanceInfo.getKey()).high();
+        long[] added = new long[weight];
+        for (int i = 0; i < weight; i++) {
+            //sign bit flipped for a signed sort in unsigned order
+            added[i] = SplitMix64.mix(seed + i * STEP) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(added);
+        for (int i = 0; i < weight; i++) {
+            added[i] ^= Long.MIN_VALUE;
+        }
+        long[] mergedPoints = new long[points.length + weight];
+        int[] mergedOwners = new int[mergedPoints.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < mergedPoints.length; k++) {
+            if (j == weight || (i < points.length && Long.compareUnsigned(points[i], added[j]) <= 0)) {
+                mergedPoints[k] = points[i];
+                mergedOwners[k] = owners[i++];
+            } else {
+                mergedPoints[k] = added[j++];
+                mergedOwners[k] = instanceIdx;
+            }
+        }
+        points = mergedPoints;
+        owners = mergedOwners;
+    }
+
+    private void removePoints(final int instanceIdx) {
+        int kept = 0;
+        for (int owner : owners) {
+            kept += owner == instanceIdx ? 0 : 1;
+        }
+        long[] keptPoints = new long[kept];
+        int[] keptOwners = new int[kept];
+        int k = 0;
+        for (int i = 0; i < owners.length; i++) {
+            if (owners[i] != instanceIdx) {
+                keptPoints[k] = points[i];
+                keptOwners[k++] = owners[i];
+            }
+        }
+        points = keptPoints;
+        owners = keptOwners;
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private Members buildMembers() {
+        return new Members(members.version() + 1, points, owners, instanceSlots.toArray(new InstanceInfo[0]),
+                           instanceIdToIdx.size());
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private void publishMembers(final Members next) {
+        members = next;
+        RingChangePublisher<RingChangePublisher.Membership> publisher = this.ringChangePublisher;
+        if (Objects.nonNull(publisher)) {
+            publisher.publish(membership(next));
+        }
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private RingChangePublisher.Membership membership(final Members current) {
+        InstanceInfo[] instances = current.instances();
+        int[] weights = new int[instances.length];
+        for (int instanceIdx = 0; instanceIdx < instances.length; instanceIdx++) {
+            if (Objects.nonNull(instances[instanceIdx])) {
+                weights[instanceIdx] = instanceIdToWeight.get(instances[instanceIdx].getInstanceId());
+            }
+        }
+        return new RingChangePublisher.Membership(current.version(), instances, weights);
+    }
+
+    /**
+     * Events carry no range transfers, ownership is not made of hash ranges.
+     */
+    @Override
+    public Flow.Publisher<RingChangeEvent> ringChanges() {
+        RingChangePublisher<RingChangePublisher.Membership> publisher = this.ringChangePublisher;
+        if (Objects.isNull(publisher)) {
+            writeLock.lock();
+            try {
+                publisher = this.ringChangePublisher;
+                if (Objects.isNull(publisher)) {
+                    publisher = RingChangePublisher.forMembership(membership(members));
+                    this.ringChangePublisher = publisher;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return publisher.publisher();
+    }
+
+    @Override
+    public List<InstanceInfo> getInstanceList() {
+        List<InstanceInfo> instanceInfoList = new ArrayList<>();
+        for (InstanceInfo instanceInfo : members.instances()) {
+            if (Objects.nonNull(instanceInfo)) {
+                instanceInfoList.add(instanceInfo);
+            }
+        }
+        return instanceInfoList;
+    }
+
+    @Override
+    public List<RangeInstanceInfo> getRingDetails() {
+        throw new UnsupportedOperationException("multi-probe hashing has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeInstanceInfo> getOwnershipRanges() {
+        throw new UnsupportedOperationException("multi-probe hashing has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeTransfer> planRegister(final String instanceId, final String host, final int port,
+                                              final int weight) {
+        throw new UnsupportedOperationException("multi-probe hashing has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeTransfer> planDeregister(final String instanceId) {
+        throw new UnsupportedOperationException("multi-probe hashing has no hash ranges");
+    }
+}
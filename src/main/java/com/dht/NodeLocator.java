@@ -1,15 +1,386 @@
 package com.dht;
 
+import com.dht.model.HotKeyStats;
 import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
 import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RingState;
+import com.dht.model.RouteCacheStats;
+import com.dht.model.RoutingKey;
+import com.dht.model.Topology;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 public interface NodeLocator {
     InstanceInfo route(String key);
-    void registerInstance(String instanceId, String host, int port);
     void deregisterInstance(String instanceId);
     List<InstanceInfo> getInstanceList();
     List<RangeInstanceInfo> getRingDetails();
 
+    /**
+     * Exact ownership of the hash space in hash order, each range (startRange, endRange] belongs to its
+     * instance and the first range wraps around past the highest hash. Ranges are streamed lazily,
+     * large rings are never materialised as a list.
+     */
+    Stream<RangeInstanceInfo> getOwnershipRanges();
+
+    default Stream<RangeTransfer> planRegister(String instanceId, String host, int port) {
+        return planRegister(instanceId, host, port, 1);
+    }
+
+    /**
+     * Ranges registerInstance() with the same arguments would move and between which instances,
+     * computed against the current ring without changing it. Weight changes are planned the same way.
+     */
+    Stream<RangeTransfer> planRegister(String instanceId, String host, int port, int weight);
+
+    /**
+     * Ranges deregisterInstance() would hand over to the remaining instances, without changing the ring.
+     */
+    Stream<RangeTransfer> planDeregister(String instanceId);
+
+    /**
+     * Registers an instance with weight 1.
+     */
+    default void registerInstance(String instanceId, String host, int port) {
+        registerInstance(instanceId, host, port, 1);
+    }
+
+    /**
+     * Registers an instance whose share of the ring scales with weight, e.g. its core count relative to
+     * the smallest box. Registering an already registered instance with another weight changes its
+     * share in place, implementations add or remove only the difference.
+     */
+    void registerInstance(String instanceId, String host, int port, int weight);
+
+    /**
+     * Registers an instance with placement labels for {@link #routeAcrossZones}. Registering it again with
+     * other labels relabels it without moving any range, a null topology keeps its current labels.
+     */
+    default void registerInstance(String instanceId, String host, int port, int weight, Topology topology) {
+        if (Objects.nonNull(topology)) {
+            throw new UnsupportedOperationException("zone-aware placement not supported");
+        }
+        registerInstance(instanceId, host, port, weight);
+    }
+
+    /**
+     * Placement labels of a registered instance, null when it has none or is not registered.
+     */
+    default Topology getTopology(String instanceId) {
+        return null;
+    }
+
+    /**
+     * Takes a registered instance out of routing without touching the ring: its keys route to the next
+     * live instance clockwise, where deregistering it would send them, and every other key keeps its owner.
+     * Flips a bit instead of rebuilding the ring, markUp() hands the keys straight back. When every
+     * instance is down keys route as if all were up. Unknown instance ids are ignored, deregistering an
+     * instance forgets that it was down.
+     */
+    default void markDown(String instanceId) {
+        throw new UnsupportedOperationException("health-aware routing not supported");
+    }
+
+    default void markUp(String instanceId) {
+        throw new UnsupportedOperationException("health-aware routing not supported");
+    }
+
+    default boolean isDown(String instanceId) {
+        return false;
+    }
+
+    /**
+     * Registers a batch of instances as one membership change, see {@link #applyChanges}.
+     */
+    default void registerInstances(Collection<InstanceRegistration> registrations) {
+        applyChanges(registrations, List.of());
+    }
+
+    default void deregisterInstances(Collection<String> instanceIds) {
+        applyChanges(List.of(), instanceIds);
+    }
+
+    default void applyChanges(Collection<InstanceRegistration> registrations, Collection<String> deregistrations) {
+        applyChanges(registrations, deregistrations, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Applies the deregistrations, then the registrations, as a single ring update: routers see either
+     * the old or the new membership, never a mix. Vnodes are hashed before the update, in parallel on
+     * the pool when non-null. An instance may be registered at most once per batch.
+     */
+    void applyChanges(Collection<InstanceRegistration> registrations, Collection<String> deregistrations,
+                      ForkJoinPool pool);
+
+    /**
+     * Routes a key without requiring the caller to build a String, e.g. a reused StringBuilder.
+     */
+    default InstanceInfo route(CharSequence key) {
+        return route(key.toString());
+    }
+
+    /**
+     * Routes the raw key bytes in [offset, offset + length).
+     */
+    InstanceInfo route(byte[] key, int offset, int length);
+
+    /**
+     * Routes an already computed 128-bit hash, high and low as in {@link com.dht.model.Hash128Bit}.
+     */
+    InstanceInfo route(long hashHigh, long hashLow);
+
+    /**
+     * Routes a key hashed at most once per hash function, see {@link RoutingKey}. Bypasses the route cache.
+     */
+    default InstanceInfo route(RoutingKey key) {
+        return route(key.getKey());
+    }
+
+    /**
+     * Index variants of route() return an instance index, or -1 when no instance is registered.
+     * An index stays valid until its instance is deregistered, resolve it with {@link #getInstance(int)}.
+     */
+    int routeToIndex(CharSequence key);
+
+    int routeToIndex(byte[] key, int offset, int length);
+
+    int routeToIndex(long hashHigh, long hashLow);
+
+    default int routeToIndex(RoutingKey key) {
+        return routeToIndex(key.getKey());
+    }
+
+    /**
+     * Returns the instance currently holding the index, or null when the index is free.
+     */
+    InstanceInfo getInstance(int instanceIdx);
+
+    /**
+     * Replica preference list of a key: its owner followed by the next distinct instances clockwise,
+     * at most n and fewer when fewer instances are registered.
+     */
+    default List<InstanceInfo> routeN(String key, int n) {
+        InstanceInfo[] out = new InstanceInfo[n];
+        return List.of(Arrays.copyOf(out, routeN(key, n, out)));
+    }
+
+    /**
+     * As {@link #routeN(String, int)}, writing the instances to out[0, count) and returning the count,
+     * callers reusing out route without allocating.
+     */
+    int routeN(String key, int n, InstanceInfo[] out);
+
+    default int routeN(RoutingKey key, int n, InstanceInfo[] out) {
+        return routeN(key.getKey(), n, out);
+    }
+
+    /**
+     * Zone-aware replica preference list: walking clockwise from the key, the first instance met in each
+     * zone, so the owner comes first and no two of the first min(n, zones) owners share a zone. With fewer
+     * zones than n the list is topped up with the next distinct instances clockwise. Instances registered
+     * without a topology count as one zone. Like routeN() the order only changes for keys whose owners
+     * are added or removed.
+     */
+    default List<InstanceInfo> routeAcrossZones(String key, int n) {
+        InstanceInfo[] out = new InstanceInfo[n];
+        return List.of(Arrays.copyOf(out, routeAcrossZones(key, n, out)));
+    }
+
+    /**
+     * As {@link #routeAcrossZones(String, int)}, writing the instances to out[0, count) and returning the count.
+     */
+    default int routeAcrossZones(String key, int n, InstanceInfo[] out) {
+        throw new UnsupportedOperationException("zone-aware placement not supported");
+    }
+
+    /**
+     * Routes a batch of keys and groups them by owning instance. Implementations read the ring once
+     * for the whole batch, so all keys are routed against the same membership.
+     */
+    default Map<InstanceInfo, List<String>> routeAll(Collection<String> keys) {
+        return routeAll(keys.toArray(new String[0]));
+    }
+
+    default Map<InstanceInfo, List<String>> routeAll(String[] keys) {
+        return routeAll(keys, null);
+    }
+
+    /**
+     * As {@link #routeAll(String[])}, hashing large batches in parallel on the given pool when non-null.
+     */
+    default Map<InstanceInfo, List<String>> routeAll(String[] keys, ForkJoinPool pool) {
+        Map<InstanceInfo, List<String>> keysByOwner = new HashMap<>();
+        for (String key : keys) {
+            InstanceInfo instanceInfo = route(key);
+            if (Objects.nonNull(instanceInfo)) {
+                keysByOwner.computeIfAbsent(instanceInfo, owner -> new ArrayList<>()).add(key);
+            }
+        }
+        return keysByOwner;
+    }
+
+    /**
+     * Routes a batch of keys, returning the owner index of keys[i] at position i.
+     */
+    default int[] routeAllToIndex(String[] keys) {
+        return routeAllToIndex(keys, null);
+    }
+
+    default int[] routeAllToIndex(String[] keys, ForkJoinPool pool) {
+        int[] instanceIdxArr = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            instanceIdxArr[i] = routeToIndex(keys[i]);
+        }
+        return instanceIdxArr;
+    }
+
+    /**
+     * Turns on consistent hashing with bounded loads: route() and acquire() walk clockwise past instances
+     * holding more than {@code (1 + epsilon)} times their share of the in-flight requests counted by
+     * acquire() tokens. Batch routing ignores the bound. Enabling again starts from fresh counters.
+     */
+    default void enableBoundedLoad(double epsilon) {
+        throw new UnsupportedOperationException("bounded loads need a hash ring");
+    }
+
+    default void disableBoundedLoad() {
+    }
+
+    /**
+     * Puts a direct-mapped cache of key to owner in front of route(String) and of routeToIndex() for
+     * String keys, for traffic dominated by a few hot keys. Entries are tagged with the ring version and
+     * never served after a membership change. Bypassed while bounded loads are on, enabling again starts empty.
+     */
+    default void enableRouteCache(int capacity) {
+        throw new UnsupportedOperationException("route cache not supported");
+    }
+
+    default void disableRouteCache() {
+    }
+
+    /**
+     * Hits and misses of the route cache since it was enabled, null when it is off.
+     */
+    default RouteCacheStats getRouteCacheStats() {
+        return null;
+    }
+
+    /**
+     * Feeds a sample of the keys routed with route(String) or route(RoutingKey) into a lock-free heavy-hitter
+     * sketch, each with probability sampleRate, see {@link #getHotKeyStats}. Unsampled routes pay a random
+     * draw and while off route() pays a null check. Enabling again starts from empty counts.
+     *
+     * @param trackedKeys candidate hot keys kept across all instances
+     */
+    default void enableHotKeyTracking(double sampleRate, int trackedKeys) {
+        throw new UnsupportedOperationException("hot key tracking not supported");
+    }
+
+    default void disableHotKeyTracking() {
+    }
+
+    /**
+     * Observed against expected load share of every registered instance with up to topK of its hottest keys,
+     * null when tracking is off. Shares count routes since tracking was enabled.
+     */
+    default HotKeyStats getHotKeyStats(int topK) {
+        return null;
+    }
+
+    /**
+     * Starts collecting route counts, route latencies and write lock wait and hold times, published as the
+     * MXBean {@code com.dht:type=NodeLocator,name=<name>} until disabled. While off route() pays a null check.
+     * Enabling again replaces the previous metrics.
+     *
+     * @throws IllegalArgumentException when name is not a valid ObjectName value or already published
+     */
+    default LocatorMetrics enableMetrics(String name) {
+        throw new UnsupportedOperationException("metrics not supported");
+    }
+
+    default void disableMetrics() {
+    }
+
+    /**
+     * Metrics since they were enabled, null when they are off.
+     */
+    default LocatorMetrics getMetrics() {
+        return null;
+    }
+
+    /**
+     * Membership changes from the first call on, one event per registerInstance(), deregisterInstance() or
+     * applyChanges() that changed the ring, in version order. Events are diffed and delivered on a dispatcher
+     * thread and the subscribers' executor, so a slow subscriber never extends a writer's lock hold.
+     * Writers pay nothing until the first call.
+     */
+    default Flow.Publisher<RingChangeEvent> ringChanges() {
+        throw new UnsupportedOperationException("ring change events not supported");
+    }
+
+    /**
+     * Version of the ring, increasing with every membership change.
+     */
+    default long getRingVersion() {
+        throw new UnsupportedOperationException("ring versions not supported");
+    }
+
+    /**
+     * The whole ring with the vnode hashes of every instance, for routers joining or too far behind for
+     * {@link #exportRingState(long)}. Ship it with {@link RingStateCodec}.
+     */
+    default RingState exportRingState() {
+        throw new UnsupportedOperationException("ring state sync not supported");
+    }
+
+    /**
+     * The membership changes after sinceVersion as deltas, or the whole ring when the changes since then are
+     * no longer known. Changes are recorded from the first call on, for a bounded number of versions.
+     */
+    default RingState exportRingState(long sinceVersion) {
+        throw new UnsupportedOperationException("ring state sync not supported");
+    }
+
+    /**
+     * Applies a state exported by a locator with the same hash function without hashing any vnode: a full
+     * state replaces the ring, deltas must start at this ring's version. Either way the ring takes the
+     * exporter's version, so a router fed this way should not change membership itself.
+     *
+     * @throws IllegalStateException when deltas start at another version, fetch a full state instead
+     */
+    default void applyRingState(RingState state) {
+        throw new UnsupportedOperationException("ring state sync not supported");
+    }
+
+    /**
+     * Copy of a Merkle digest of the vnodes and their owners, for finding where two routers' rings diverge
+     * with {@link RingDigest#divergentRanges} instead of comparing whole rings. The first call builds it,
+     * afterwards writers update it in O(log buckets) per vnode added or removed.
+     */
+    default RingDigest getRingDigest() {
+        throw new UnsupportedOperationException("ring digests not supported");
+    }
+
+    /**
+     * Routes a request and counts it against its instance until the returned token is closed,
+     * null when no instance is registered. Without bounded loads the token tracks nothing.
+     */
+    default LoadToken acquire(String key) {
+        int instanceIdx = routeToIndex(key);
+        InstanceInfo instanceInfo = getInstance(instanceIdx);
+        return Objects.isNull(instanceInfo) ? null : LoadToken.untracked(instanceInfo, instanceIdx);
+    }
+
 }
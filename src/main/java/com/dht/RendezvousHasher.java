@@ -0,0 +1,398 @@
+package com.dht;
+
+import com.dht.hash.Murmur3Hasher;
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RoutingKey;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Using rendezvous, or highest random weight, hashing (Thaler and Ravishankar, 1998).
+ * <p>
+ * Every instance scores the key by mixing the key hash with the instance's seed, the highest score owns
+ * the key. Balance is that of the hash, with no vnodes, churn moves only the keys of the instance that
+ * left or to the one that joined, and the replica preference list is the instances by descending score.
+ * A route costs one mixing step per instance, linear in the pool size where the TreeMap lookup of
+ * {@link ConsistentHasherV1} is logarithmic in its vnodes, CrossoverBenchmark measures where they cross.
+ * <p>
+ * Seeds live in a dense primitive array scored in one pass without allocation. Weighted instances use
+ * the logarithmic method, {@code weight / -ln(score)} with the score mapped into (0, 1), which takes
+ * one log per instance and is only used once a weight other than 1 is registered.
+ */
+
+@ThreadSafe
+public class RendezvousHasher implements NodeLocator {
+
+    private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+    private final ThreadLocal<Murmur3Hasher> murmur3Hasher = ThreadLocal.withInitial(Murmur3Hasher::new);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, Integer> instanceIdToIdx = new HashMap<>();
+    private final Map<String, Integer> instanceIdToWeight = new HashMap<>();
+    private final List<InstanceInfo> instanceSlots = new ArrayList<>();
+    private volatile RingChangePublisher<RingChangePublisher.Membership> ringChangePublisher;
+    private volatile Members members = new Members(0L, new long[0], null, new int[0],
+                                                          new InstanceInfo[0]);
+
+    /**
+     * Immutable membership, position i of seeds and weights describes the instance in slot {@code slots[i]}.
+     * weights is null while every instance has weight 1.
+     */
+    private record Members(long version, long[] seeds, double[] weights, int[] slots, InstanceInfo[] instances) {
+    }
+
+    @Override
+    public InstanceInfo route(final String key) {
+        return route((CharSequence) key);
+    }
+
+    @Override
+    public InstanceInfo route(final CharSequence key) {
+        Members current = members;
+        int instanceIdx = ownerOf(current, murmur3Hasher.get().hash(key).high());
+        return instanceIdx < 0 ? null : current.instances()[instanceIdx];
+    }
+
+    @Override
+    public InstanceInfo route(final byte[] key, final int offset, final int length) {
+        Members current = members;
+        int instanceIdx = ownerOf(current, murmur3Hasher.get().hash(key, offset, length).high());
+        return instanceIdx < 0 ? null : current.instances()[instanceIdx];
+    }
+
+    @Override
+    public InstanceInfo route(final long hashHigh, final long hashLow) {
+        Members current = members;
+        int instanceIdx = ownerOf(current, hashHigh);
+        return instanceIdx < 0 ? null : current.instances()[instanceIdx];
+    }
+
+    @Override
+    public int routeToIndex(final CharSequence key) {
+        return ownerOf(members, murmur3Hasher.get().hash(key).high());
+    }
+
+    @Override
+    public int routeToIndex(final byte[] key, final int offset, final int length) {
+        return ownerOf(members, murmur3Hasher.get().hash(key, offset, length).high());
+    }
+
+    @Override
+    public InstanceInfo route(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(MURMUR3_128);
+        return route(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    @Override
+    public int routeToIndex(final RoutingKey key) {
+        Hash128Bit hash128Bit = key.hash(MURMUR3_128);
+        return routeToIndex(hash128Bit.getHigh(), hash128Bit.getLow());
+    }
+
+    @Override
+    public int routeToIndex(final long hashHigh, final long hashLow) {
+        return ownerOf(members, hashHigh);
+    }
+
+    @Override
+    public InstanceInfo getInstance(final int instanceIdx) {
+        InstanceInfo[] instances = members.instances();
+        return instanceIdx >= 0 && instanceIdx < instances.length ? instances[instanceIdx] : null;
+    }
+
+    /**
+     * The n highest scoring instances in descending score, by insertion into the n best seen so far.
+     */
+    @Override
+    public int routeN(final String key, final int n, final InstanceInfo[] out) {
+        RingWalks.checkReplicaCnt(n, out);
+        Members current = members;
+        long keyHash = murmur3Hasher.get().hash(key).high();
+        int limit = Math.min(n, current.seeds().length);
+        if (limit == 0) {
+            return 0;
+        }
+        long[] bestScores = new long[limit];
+        int[] best = new int[limit];
+        int cnt = 0;
+        for (int i = 0; i < current.seeds().length; i++) {
+            long score = score(current, i, keyHash);
+            if (cnt == limit && score <= bestScores[limit - 1]) {
+                continue;
+            }
+            int pos = cnt < limit ? cnt++ : limit - 1;
+            while (pos > 0 && bestScores[pos - 1] < score) {
+                bestScores[pos] = bestScores[pos - 1];
+                best[pos] = best[pos - 1];
+                pos--;
+            }
+            bestScores[pos] = score;
+            best[pos] = i;
+        }
+        for (int i = 0; i < limit; i++) {
+            out[i] = current.instances()[current.slots()[best[i]]];
+        }
+        return limit;
+    }
+
+    private static int ownerOf(final Members current, final long keyHash) {
+        long[] seeds = current.seeds();
+        if (seeds.length == 0) {
+            return -1;
+        }
+        if (Objects.nonNull(current.weights())) {
+            return current.slots()[weightedOwnerOf(current, keyHash)];
+        }
+        int best = 0;
+        long bestScore = SplitMix64.mix(keyHash ^ seeds[0]) ^ Long.MIN_VALUE;
+        for (int i = 1; i < seeds.length; i++) {
+            long score = SplitMix64.mix(keyHash ^ seeds[i]) ^ Long.MIN_VALUE;
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return current.slots()[best];
+    }
+
+    private static int weightedOwnerOf(final Members current, final long keyHash) {
+        int best = 0;
+        long bestScore = score(current, 0, keyHash);
+        for (int i = 1; i < current.seeds().length; i++) {
+            long score = score(current, i, keyHash);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Score of the instance at position i, comparable as a signed long. Weighted scores are positive
+     * doubles, whose bits order like the values. Unweighted scores have the sign bit flipped, so both rank
+     * the mixed hashes as unsigned and weight 1 instances keep their order when another instance's weight
+     * switches the weighted mode on or off.
+     */
+    private static long score(final Members current, final int i, final long keyHash) {
+        long mixed = SplitMix64.mix(keyHash ^ current.seeds()[i]);
+        if (Objects.isNull(current.weights())) {
+            return mixed ^ Long.MIN_VALUE;
+        }
+        double unit = ((mixed >>> 11) + 0.5) * 0x1p-53;
+        return Double.doubleToRawLongBits(current.weights()[i] / -Math.log(unit));
+    }
+
+    @Override
+    public void registerInstance(final String instanceId, final String host, final int port, final int weight) {
+        checkWeight(weight);
+        writeLock.lock();
+        try {
+            if (register(instanceId, host, port, weight)) {
+                publishMembers(buildMembers());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void deregisterInstance(final String instanceId) {
+        writeLock.lock();
+        try {
+            if (deregister(instanceId)) {
+                publishMembers(buildMembers());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Updates membership for the whole batch and rebuilds the seed arrays once, the pool is not used.
+     */
+    @Override
+    public void applyChanges(final Collection<InstanceRegistration> registrations,
+                             final Collection<String> deregistrations, final ForkJoinPool pool) {
+        InstanceRegistration[] registrationArr = MembershipChanges.distinct(registrations);
+        for (InstanceRegistration registration : registrationArr) {
+            checkWeight(registration.weight());
+        }
+        writeLock.lock();
+        try {
+            boolean changed = false;
+            for (String instanceId : deregistrations) {
+                changed |= deregister(instanceId);
+            }
+            for (InstanceRegistration registration : registrationArr) {
+                changed |= register(registration.instanceId(), registration.host(), registration.port(),
+                                    registration.weight());
+            }
+            if (changed) {
+                publishMembers(buildMembers());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void checkWeight(final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: " + weight);
+        }
+    }
+
+    /**
+     * Returns whether membership changed, must be called holding the write lock.
+     */
+    private boolean register(final String instanceId, final String host, final int port, final int weight) {
+        Integer existingWeight = instanceIdToWeight.put(instanceId, weight);
+        if (Objects.nonNull(existingWeight)) {
+            return existingWeight != weight;
+        }
+        InstanceInfo instanceInfo = new InstanceInfo(instanceId, host, port);
+        int instanceIdx = instanceSlots.indexOf(null);
+        if (instanceIdx < 0) {
+            instanceIdx = instanceSlots.size();
+            instanceSlots.add(instanceInfo);
+        } else {
+            instanceSlots.set(instanceIdx, instanceInfo);
+        }
+        instanceIdToIdx.put(instanceId, instanceIdx);
+        return true;
+    }
+
+    /**
+     * Returns whether membership changed, must be called holding the write lock.
+     */
+    private boolean deregister(final String instanceId) {
+        if (!instanceIdToIdx.containsKey(instanceId)) {
+            return false;
+        }
+        instanceSlots.set(instanceIdToIdx.remove(instanceId), null);
+        instanceIdToWeight.remove(instanceId);
+        return true;
+    }
+
+    /**
+     * Seeds are derived from the instance key, so every router with the same membership scores alike.
+     * Must be called holding the write lock.
+     */
+    private Members buildMembers() {
+        InstanceInfo[] instances = instanceSlots.toArray(new InstanceInfo[0]);
+        int n = instanceIdToIdx.size();
+        long[] seeds = new long[n];
+        double[] weights = new double[n];
+        int[] slots = new int[n];
+        boolean weighted = false;
+        Murmur3Hasher hasher = new Murmur3Hasher();
+        int i = 0;
+        for (int instanceIdx = 0; instanceIdx < instances.length; instanceIdx++) {
+            if (Objects.isNull(instances[instanceIdx])) {
+                continue;
+            }
+            seeds[i] = hasher.hash(instances[instanceIdx].getKey()).high();
+            weights[i] = instanceIdToWeight.get(instances[instanceIdx].getInstanceId());
+            weighted |= weights[i] != 1;
+            slots[i++] = instanceIdx;
+        }
+        return new Members(members.version() + 1, seeds, weighted ? weights : null, slots, instances);
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private void publishMembers(final Members next) {
+        members = next;
+        RingChangePublisher<RingChangePublisher.Membership> publisher = this.ringChangePublisher;
+        if (Objects.nonNull(publisher)) {
+            publisher.publish(membership(next));
+        }
+    }
+
+    /**
+     * Must be called holding the write lock.
+     */
+    private RingChangePublisher.Membership membership(final Members current) {
+        InstanceInfo[] instances = current.instances();
+        int[] weights = new int[instances.length];
+        for (int instanceIdx = 0; instanceIdx < instances.length; instanceIdx++) {
+            if (Objects.nonNull(instances[instanceIdx])) {
+                weights[instanceIdx] = instanceIdToWeight.get(instances[instanceIdx].getInstanceId());
+            }
+        }
+        return new RingChangePublisher.Membership(current.version(), instances, weights);
+    }
+
+    /**
+     * Events carry no range transfers, rendezvous hashing has no hash ranges.
+     */
+    @Override
+    public Flow.Publisher<RingChangeEvent> ringChanges() {
+        RingChangePublisher<RingChangePublisher.Membership> publisher = this.ringChangePublisher;
+        if (Objects.isNull(publisher)) {
+            writeLock.lock();
+            try {
+                publisher = this.ringChangePublisher;
+                if (Objects.isNull(publisher)) {
+                    publisher = RingChangePublisher.forMembership(membership(members));
+                    this.ringChangePublisher = publisher;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return publisher.publisher();
+    }
+
+    @Override
+    public List<InstanceInfo> getInstanceList() {
+        List<InstanceInfo> instanceInfoList = new ArrayList<>();
+        for (InstanceInfo instanceInfo : members.instances()) {
+            if (Objects.nonNull(instanceInfo)) {
+                instanceInfoList.add(instanceInfo);
+            }
+        }
+        return instanceInfoList;
+    }
+
+    /**
+     * Rendezvous hashing assigns keys, not contiguous hash ranges, so there are no ring details to report.
+     */
+    @Override
+    public List<RangeInstanceInfo> getRingDetails() {
+        throw new UnsupportedOperationException("rendezvous hashing has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeInstanceInfo> getOwnershipRanges() {
+        throw new UnsupportedOperationException("rendezvous hashing has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeTransfer> planRegister(final String instanceId, final String host, final int port,
+                                              final int weight) {
+        throw new UnsupportedOperationException("rendezvous hashing has no hash ranges");
+    }
+
+    @Override
+    public Stream<RangeTransfer> planDeregister(final String instanceId) {
+        throw new UnsupportedOperationException("rendezvous hashing has no hash ranges");
+    }
+}
@@ -0,0 +1,331 @@
+package com.dht;
+
+import com.dht.model.ChurnReport;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RingBalance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Offline analysis of how evenly a locator spreads the hash space and how much of it moves on churn,
+ * for choosing vnode counts, hash functions and algorithms against a real instance list, e.g.
+ * {@code RingAnalyzer.simulateAdd(() -> new ConsistentHasherV3(null, 200), instances, 3)}.
+ * <p>
+ * Ring ownership is exact: every vnode owns the 128-bit interval to its predecessor, summed per instance
+ * in parallel chunks of the sorted ring. Maglev owns table entries, one entry is 1 / tableSize of the space.
+ * Locators are built with {@link NodeLocator#registerInstances}, so vnodes are hashed on the common pool.
+ */
+public final class RingAnalyzer {
+
+    private static final int VNODES_PER_TASK = 1 << 16;
+    private static final double TWO_POW_64 = 0x1p64;
+
+    private RingAnalyzer() {
+    }
+
+    /**
+     * Ownership of the current membership of a V1, V2, V3, Maglev or mapped locator.
+     *
+     * @throws IllegalArgumentException for other locators or when no instance is registered
+     */
+    public static RingBalance balance(final NodeLocator nodeLocator) {
+        return balance(nodeLocator, ForkJoinPool.commonPool());
+    }
+
+    public static RingBalance balance(final NodeLocator nodeLocator, final ForkJoinPool pool) {
+        return ownershipOf(placementOf(nodeLocator), pool).balance();
+    }
+
+    /**
+     * Builds a locator from factory with instances registered, then applies the change and reports the
+     * hash space that moved. The change is applied with {@link NodeLocator#applyChanges}, deregistrations first.
+     */
+    public static ChurnReport simulate(final Supplier<? extends NodeLocator> factory,
+                                       final Collection<InstanceRegistration> instances,
+                                       final Collection<InstanceRegistration> registrations,
+                                       final Collection<String> deregistrations) {
+        NodeLocator nodeLocator = factory.get();
+        nodeLocator.registerInstances(instances);
+        return simulate(placementOf(nodeLocator), () -> nodeLocator.applyChanges(registrations, deregistrations));
+    }
+
+    private static <S> ChurnReport simulate(final Placement<S> placement, final Runnable change) {
+        S beforeState = placement.state();
+        Ownership before = ownershipOf(placement, beforeState, ForkJoinPool.commonPool());
+        change.run();
+        S afterState = placement.state();
+        Ownership after = ownershipOf(placement, afterState, ForkJoinPool.commonPool());
+        return new ChurnReport(placement.movedFraction(beforeState, afterState), minimalFraction(before, after),
+                               after.balance());
+    }
+
+    /**
+     * Adds k instances of weight 1, {@code added-0} to {@code added-(k-1)}.
+     */
+    public static ChurnReport simulateAdd(final Supplier<? extends NodeLocator> factory,
+                                          final Collection<InstanceRegistration> instances, final int k) {
+        List<InstanceRegistration> registrations = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            registrations.add(new InstanceRegistration("added-" + i, "added-host-" + i, 8080));
+        }
+        return simulate(factory, instances, registrations, List.of());
+    }
+
+    /**
+     * Removes the last k of the instances in iteration order, at least one instance has to remain.
+     */
+    public static ChurnReport simulateRemove(final Supplier<? extends NodeLocator> factory,
+                                             final Collection<InstanceRegistration> instances, final int k) {
+        if (k < 0 || k >= instances.size()) {
+            throw new IllegalArgumentException("cannot remove " + k + " of " + instances.size()
+                                                       + " instances, one has to remain");
+        }
+        List<String> deregistrations = instances.stream()
+                                                .skip(instances.size() - k)
+                                                .map(InstanceRegistration::instanceId)
+                                                .toList();
+        return simulate(factory, instances, List.of(), deregistrations);
+    }
+
+    public static ChurnReport simulateWeightChange(final Supplier<? extends NodeLocator> factory,
+                                                   final Collection<InstanceRegistration> instances,
+                                                   final String instanceId, final int weight) {
+        InstanceRegistration registration = instances.stream()
+                                                     .filter(instance -> instance.instanceId().equals(instanceId))
+                                                     .findFirst()
+                                                     .orElseThrow(() -> new IllegalArgumentException(
+                                                             "unknown instance " + instanceId));
+        return simulate(factory, instances, List.of(new InstanceRegistration(instanceId, registration.host(),
+                                                                             registration.port(), weight)),
+                        List.of());
+    }
+
+    /**
+     * Owned fraction of the hash space by instance id, empty for an empty ring.
+     */
+    static Map<String, Double> ownedFractions(final RingSnapshot ring) {
+        return ownershipOf(ring, ForkJoinPool.commonPool()).balance().ownedFractions();
+    }
+
+    /**
+     * Fraction of the hash space in (start, end], the whole space when start equals end.
+     */
+    static double fractionOf(final long startHigh, final long startLow, final long endHigh, final long endLow) {
+        long low = endLow - startLow;
+        long high = endHigh - startHigh - (Long.compareUnsigned(endLow, startLow) < 0 ? 1 : 0);
+        if (high == 0 && low == 0) {
+            return 1;
+        }
+        return (unsignedToDouble(high) + unsignedToDouble(low) / TWO_POW_64) / TWO_POW_64;
+    }
+
+    private static double unsignedToDouble(final long value) {
+        double d = (double) (value >>> 1) * 2;
+        return d + (value & 1);
+    }
+
+    /**
+     * Slot indexed instances with the fraction of the hash space each owns and the fraction it should own.
+     */
+    private record Ownership(InstanceInfo[] instances, double[] owned, double[] expected) {
+
+        private RingBalance balance() {
+            Map<String, Double> ownedFractions = new TreeMap<>();
+            double max = 0;
+            double min = Double.MAX_VALUE;
+            double sum = 0;
+            double sumOfSquares = 0;
+            int cnt = 0;
+            for (int slot = 0; slot < instances.length; slot++) {
+                if (Objects.isNull(instances[slot])) {
+                    continue;
+                }
+                ownedFractions.put(instances[slot].getInstanceId(), owned[slot]);
+                double loadRatio = owned[slot] / expected[slot];
+                max = Math.max(max, loadRatio);
+                min = Math.min(min, loadRatio);
+                sum += loadRatio;
+                sumOfSquares += loadRatio * loadRatio;
+                cnt++;
+            }
+            double mean = sum / cnt;
+            double stdDev = Math.sqrt(Math.max(0, sumOfSquares / cnt - mean * mean));
+            return new RingBalance(ownedFractions, max, min, stdDev);
+        }
+
+        private Map<String, Double> expectedById() {
+            Map<String, Double> expectedById = new HashMap<>();
+            for (int slot = 0; slot < instances.length; slot++) {
+                if (Objects.nonNull(instances[slot])) {
+                    expectedById.put(instances[slot].getInstanceId(), expected[slot]);
+                }
+            }
+            return expectedById;
+        }
+    }
+
+    /**
+     * Reads a locator's placement as an immutable state S, a RingSnapshot or a Maglev table, and analyzes
+     * states of that type only, so before and after states of a churn always have the same type.
+     */
+    private sealed interface Placement<S> permits RingPlacement, TablePlacement {
+
+        S state();
+
+        Ownership ownershipOf(S state, ForkJoinPool pool);
+
+        double movedFraction(S before, S after);
+    }
+
+    private record RingPlacement(Supplier<RingSnapshot> snapshots) implements Placement<RingSnapshot> {
+
+        @Override
+        public RingSnapshot state() {
+            return snapshots.get();
+        }
+
+        @Override
+        public Ownership ownershipOf(final RingSnapshot ring, final ForkJoinPool pool) {
+            return RingAnalyzer.ownershipOf(ring, pool);
+        }
+
+        @Override
+        public double movedFraction(final RingSnapshot before, final RingSnapshot after) {
+            return RingRanges.transfers(before, after)
+                             .mapToDouble(transfer -> fractionOf(transfer.startRange().getHigh(),
+                                                                 transfer.startRange().getLow(),
+                                                                 transfer.endRange().getHigh(),
+                                                                 transfer.endRange().getLow()))
+                             .sum();
+        }
+    }
+
+    private record TablePlacement(MaglevHasher maglev) implements Placement<MaglevHasher.TableOwnership> {
+
+        @Override
+        public MaglevHasher.TableOwnership state() {
+            return maglev.tableOwnership();
+        }
+
+        @Override
+        public Ownership ownershipOf(final MaglevHasher.TableOwnership table, final ForkJoinPool pool) {
+            return RingAnalyzer.ownershipOf(table);
+        }
+
+        @Override
+        public double movedFraction(final MaglevHasher.TableOwnership before,
+                                    final MaglevHasher.TableOwnership after) {
+            int[] beforeEntries = before.entries();
+            int[] afterEntries = after.entries();
+            int moved = 0;
+            for (int entry = 0; entry < beforeEntries.length; entry++) {
+                if (!Objects.equals(before.instances()[beforeEntries[entry]],
+                                    Objects.isNull(afterEntries) ? null : after.instances()[afterEntries[entry]])) {
+                    moved++;
+                }
+            }
+            return (double) moved / beforeEntries.length;
+        }
+    }
+
+    private static Placement<?> placementOf(final NodeLocator nodeLocator) {
+        if (nodeLocator instanceof ConsistentHasherV1 v1) {
+            return new RingPlacement(v1::ringSnapshot);
+        } else if (nodeLocator instanceof ConsistentHasherV2 v2) {
+            return new RingPlacement(v2::ringSnapshot);
+        } else if (nodeLocator instanceof ConsistentHasherV3 v3) {
+            return new RingPlacement(v3::ringSnapshot);
+        } else if (nodeLocator instanceof MappedNodeLocator mapped) {
+            return new RingPlacement(mapped::toRingSnapshot);
+        } else if (nodeLocator instanceof MaglevHasher maglev) {
+            return new TablePlacement(maglev);
+        }
+        throw new IllegalArgumentException("cannot analyze " + nodeLocator.getClass().getName());
+    }
+
+    private static <S> Ownership ownershipOf(final Placement<S> placement, final ForkJoinPool pool) {
+        return ownershipOf(placement, placement.state(), pool);
+    }
+
+    private static <S> Ownership ownershipOf(final Placement<S> placement, final S state, final ForkJoinPool pool) {
+        Ownership ownership = placement.ownershipOf(state, pool);
+        if (ownership.expectedById().isEmpty()) {
+            throw new IllegalArgumentException("no instance registered");
+        }
+        return ownership;
+    }
+
+    private static Ownership ownershipOf(final RingSnapshot ring, final ForkJoinPool pool) {
+        int size = ring.size();
+        int slotCnt = ring.instances.length;
+        int taskCnt = (size + VNODES_PER_TASK - 1) / VNODES_PER_TASK;
+        double[][] partialOwned = new double[taskCnt][];
+        BatchRouting.forEachChunk(taskCnt, pool, task -> {
+            double[] owned = new double[slotCnt];
+            int to = Math.min(size, (task + 1) * VNODES_PER_TASK);
+            for (int idx = task * VNODES_PER_TASK; idx < to; idx++) {
+                int prev = idx == 0 ? size - 1 : idx - 1;
+                owned[ring.owner[idx]] += fractionOf(ring.high[prev], ring.low[prev], ring.high[idx], ring.low[idx]);
+            }
+            partialOwned[task] = owned;
+        });
+        double[] owned = new double[slotCnt];
+        for (double[] partial : partialOwned) {
+            for (int slot = 0; slot < slotCnt; slot++) {
+                owned[slot] += partial[slot];
+            }
+        }
+        double[] expected = new double[slotCnt];
+        for (int slot = 0; slot < slotCnt; slot++) {
+            expected[slot] = (double) ring.vNodeCounts[slot] / size;
+        }
+        return new Ownership(ring.instances, owned, expected);
+    }
+
+    private static Ownership ownershipOf(final MaglevHasher.TableOwnership table) {
+        int slotCnt = table.instances().length;
+        double[] owned = new double[slotCnt];
+        double[] expected = new double[slotCnt];
+        if (Objects.nonNull(table.entries())) {
+            for (int entry : table.entries()) {
+                owned[entry]++;
+            }
+            long totalWeight = 0;
+            for (int weight : table.weights()) {
+                totalWeight += weight;
+            }
+            for (int slot = 0; slot < slotCnt; slot++) {
+                owned[slot] /= table.entries().length;
+                expected[slot] = (double) table.weights()[slot] / totalWeight;
+            }
+        }
+        return new Ownership(table.instances(), owned, expected);
+    }
+
+    /**
+     * Total variation distance between the ideal shares before and after.
+     */
+    private static double minimalFraction(final Ownership before, final Ownership after) {
+        Map<String, Double> expectedBefore = before.expectedById();
+        Map<String, Double> expectedAfter = after.expectedById();
+        double distance = 0;
+        for (Map.Entry<String, Double> entry : expectedBefore.entrySet()) {
+            distance += Math.abs(entry.getValue() - expectedAfter.getOrDefault(entry.getKey(), 0.0));
+        }
+        for (Map.Entry<String, Double> entry : expectedAfter.entrySet()) {
+            if (!expectedBefore.containsKey(entry.getKey())) {
+                distance += entry.getValue();
+            }
+        }
+        return distance / 2;
+    }
+}
@@ -0,0 +1,193 @@
+package com.dht;
+
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RingDelta;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Publishes ring change events of a locator. Writers hand over the new membership state, an immutable
+ * snapshot, or only the vnodes they changed while they still serialize against each other; deriving the new
+ * state, diffing it against the previous one, walking the range transfers and delivery all happen on a
+ * dispatcher thread, so subscribers never hold up writers. A subscriber that stops requesting stalls the
+ * dispatcher, changes then queue up in memory.
+ *
+ * @param <S> membership state, a RingSnapshot or a {@link Membership}
+ */
+final class RingChangePublisher<S> {
+
+    private final SubmissionPublisher<RingChangeEvent> publisher = new SubmissionPublisher<>();
+    //one daemon thread at most, gone when idle, keeps events in change order
+    private final ThreadPoolExecutor dispatcher = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+                                                                         new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "ring-change-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final BiFunction<S, S, RingChangeEvent> diff;
+    //only touched on the dispatcher after construction
+    private S last;
+
+    RingChangePublisher(final S initial, final BiFunction<S, S, RingChangeEvent> diff) {
+        this.last = initial;
+        this.diff = diff;
+    }
+
+    static RingChangePublisher<RingSnapshot> forRing(final RingSnapshot initial) {
+        return new RingChangePublisher<>(initial, RingChangePublisher::between);
+    }
+
+    static RingChangePublisher<Membership> forMembership(final Membership initial) {
+        return new RingChangePublisher<>(initial, (before, after) -> between(before, after, List.of()));
+    }
+
+    /**
+     * Subscription view, without the publisher's submit and close methods.
+     */
+    Flow.Publisher<RingChangeEvent> publisher() {
+        return publisher::subscribe;
+    }
+
+    /**
+     * Must be called by one writer at a time in change order, e.g. holding the locator's write lock.
+     * Changes that turn out to change nothing are not published.
+     */
+    void publish(final S next) {
+        publishChange(previous -> next);
+    }
+
+    /**
+     * As {@link #publish}, the new state is derived from the previous one on the dispatcher.
+     */
+    void publishChange(final UnaryOperator<S> change) {
+        dispatcher.execute(() -> {
+            S previous = last;
+            S next = change.apply(previous);
+            last = next;
+            RingChangeEvent event = diff.apply(previous, next);
+            //e.g. a batch re-registering instances as they are
+            boolean unchanged = event.addedInstances().isEmpty() && event.removedInstances().isEmpty()
+                    && event.resizedInstances().isEmpty() && event.rangeTransfers().isEmpty();
+            if (!unchanged) {
+                publisher.submit(event);
+            }
+        });
+    }
+
+    /**
+     * Derives the ring at version from the previous one by applying the changes in order.
+     */
+    static UnaryOperator<RingSnapshot> applying(final List<VNodeChange> changes, final long version) {
+        return previous -> {
+            RingSnapshot next = previous;
+            for (VNodeChange change : changes) {
+                next = next.with(change.toDelta());
+            }
+            return next.withVersion(version);
+        };
+    }
+
+    /**
+     * Membership of a locator without hash ranges, slot indexed with null instances for free slots.
+     */
+    record Membership(long version, InstanceInfo[] instances, int[] weights) {
+    }
+
+    /**
+     * A writer's change to one instance, the vnodes hashes[from, to) it gained or lost. Writers record the
+     * hash arrays they keep per instance, which they never modify afterwards, so recording copies nothing.
+     */
+    record VNodeChange(RingDelta.Kind kind, InstanceInfo instanceInfo, Hash128Bit[] hashes, int from, int to) {
+
+        private static final Hash128Bit[] NO_HASHES = new Hash128Bit[0];
+
+        static VNodeChange added(final InstanceInfo instanceInfo, final Hash128Bit[] hashes) {
+            return new VNodeChange(RingDelta.Kind.ADDED, instanceInfo, hashes, 0, hashes.length);
+        }
+
+        static VNodeChange removed(final InstanceInfo instanceInfo) {
+            return new VNodeChange(RingDelta.Kind.REMOVED, instanceInfo, NO_HASHES, 0, 0);
+        }
+
+        /**
+         * The instance's vnode hashes went from before to after, one a prefix of the other.
+         */
+        static VNodeChange resized(final InstanceInfo instanceInfo, final Hash128Bit[] before,
+                                   final Hash128Bit[] after) {
+            return before.length < after.length
+                    ? new VNodeChange(RingDelta.Kind.VNODES_ADDED, instanceInfo, after, before.length, after.length)
+                    : new VNodeChange(RingDelta.Kind.VNODES_REMOVED, instanceInfo, before, after.length,
+                                      before.length);
+        }
+
+        private RingDelta toDelta() {
+            long[] high = new long[to - from];
+            long[] low = new long[to - from];
+            for (int i = from; i < to; i++) {
+                high[i - from] = hashes[i].getHigh();
+                low[i - from] = hashes[i].getLow();
+            }
+            HashArrays.sort(high, low, new int[high.length], 0, high.length);
+            return new RingDelta(kind, instanceInfo, null, high, low);
+        }
+    }
+
+    private static RingChangeEvent between(final RingSnapshot before, final RingSnapshot after) {
+        return between(new Membership(before.version, before.instances, before.vNodeCounts),
+                       new Membership(after.version, after.instances, after.vNodeCounts),
+                       RingRanges.transfers(before, after).toList());
+    }
+
+    private static RingChangeEvent between(final Membership before, final Membership after,
+                                           final List<RangeTransfer> rangeTransfers) {
+        Map<String, Integer> beforeSlots = slotsById(before);
+        Map<String, Integer> afterSlots = slotsById(after);
+        List<InstanceInfo> added = new ArrayList<>();
+        List<InstanceInfo> resized = new ArrayList<>();
+        afterSlots.forEach((instanceId, slot) -> {
+            Integer beforeSlot = beforeSlots.get(instanceId);
+            if (Objects.isNull(beforeSlot)) {
+                added.add(after.instances()[slot]);
+            } else if (before.weights()[beforeSlot] != after.weights()[slot]) {
+                resized.add(after.instances()[slot]);
+            }
+        });
+        List<InstanceInfo> removed = new ArrayList<>();
+        beforeSlots.forEach((instanceId, slot) -> {
+            if (!afterSlots.containsKey(instanceId)) {
+                removed.add(before.instances()[slot]);
+            }
+        });
+        Comparator<InstanceInfo> byId = Comparator.comparing(InstanceInfo::getInstanceId);
+        added.sort(byId);
+        removed.sort(byId);
+        resized.sort(byId);
+        return new RingChangeEvent(after.version(), List.copyOf(added), List.copyOf(removed), List.copyOf(resized),
+                                   rangeTransfers);
+    }
+
+    private static Map<String, Integer> slotsById(final Membership membership) {
+        Map<String, Integer> slotsById = new HashMap<>();
+        for (int slot = 0; slot < membership.instances().length; slot++) {
+            if (Objects.nonNull(membership.instances()[slot])) {
+                slotsById.put(membership.instances()[slot].getInstanceId(), slot);
+            }
+        }
+        return slotsById;
+    }
+}
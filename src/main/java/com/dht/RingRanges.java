@@ -0,0 +1,188 @@
+package com.dht;
+
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy views of the exact token ranges of a ring. A vnode owns the hashes in (previous vnode, vnode],
+ * the range ending at the lowest vnode wraps around past the highest hash. Adjacent ranges with the
+ * same owner are merged, except across the top of the hash space.
+ */
+final class RingRanges {
+
+    private RingRanges() {
+    }
+
+    /**
+     * Ownership ranges of the ring in hash order, nothing is materialised beyond the current range.
+     */
+    static Stream<RangeInstanceInfo> ownershipRanges(final RingSnapshot ring) {
+        return stream(new Iterator<>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < ring.size();
+            }
+
+            @Override
+            public RangeInstanceInfo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int size = ring.size();
+                int start = idx == 0 ? size - 1 : idx - 1;
+                int slot = ring.owner[idx];
+                while (idx + 1 < size && ring.owner[idx + 1] == slot) {
+                    idx++;
+                }
+                int end = idx++;
+                return new RangeInstanceInfo(new Hash128Bit(ring.high[start], ring.low[start]),
+                                             new Hash128Bit(ring.high[end], ring.low[end]), ring.instances[slot]);
+            }
+        });
+    }
+
+    /**
+     * Ranges changing owner between two rings, in hash order. Both rings are walked once in step
+     * over the union of their vnode hashes, between two consecutive hashes the owner on either
+     * side is constant.
+     */
+    static Stream<RangeTransfer> transfers(final RingSnapshot before, final RingSnapshot after) {
+        return stream(new TransferIterator(before, after));
+    }
+
+    private static <T> Stream<T> stream(final Iterator<T> iterator) {
+        int characteristics = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false);
+    }
+
+    private static final class TransferIterator implements Iterator<RangeTransfer> {
+        private final RingSnapshot before;
+        private final RingSnapshot after;
+        private int beforeIdx;
+        private int afterIdx;
+        //end of the previous interval, the start of the next one
+        private long prevHigh;
+        private long prevLow;
+        //transfer being extended while the following intervals move between the same instances
+        private boolean pending;
+        private long pendingStartHigh;
+        private long pendingStartLow;
+        private long pendingEndHigh;
+        private long pendingEndLow;
+        private InstanceInfo pendingFrom;
+        private InstanceInfo pendingTo;
+        private RangeTransfer next;
+
+        private TransferIterator(final RingSnapshot before, final RingSnapshot after) {
+            this.before = before;
+            this.after = after;
+            int beforeLast = before.size() - 1;
+            int afterLast = after.size() - 1;
+            if (beforeLast < 0 && afterLast < 0) {
+                return;
+            }
+            //the first interval starts at the highest hash of either ring
+            boolean beforeIsLast = afterLast < 0 || beforeLast >= 0
+                    && HashArrays.compare(before.high[beforeLast], before.low[beforeLast],
+                                          after.high[afterLast], after.low[afterLast]) >= 0;
+            prevHigh = beforeIsLast ? before.high[beforeLast] : after.high[afterLast];
+            prevLow = beforeIsLast ? before.low[beforeLast] : after.low[afterLast];
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (Objects.isNull(next)) {
+                next = advance();
+            }
+            return Objects.nonNull(next);
+        }
+
+        @Override
+        public RangeTransfer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RangeTransfer rangeTransfer = next;
+            next = null;
+            return rangeTransfer;
+        }
+
+        private RangeTransfer advance() {
+            int beforeSize = before.size();
+            int afterSize = after.size();
+            while (beforeIdx < beforeSize || afterIdx < afterSize) {
+                boolean takeBefore = afterIdx >= afterSize || beforeIdx < beforeSize
+                        && HashArrays.compare(before.high[beforeIdx], before.low[beforeIdx],
+                                              after.high[afterIdx], after.low[afterIdx]) <= 0;
+                long pointHigh = takeBefore ? before.high[beforeIdx] : after.high[afterIdx];
+                long pointLow = takeBefore ? before.low[beforeIdx] : after.low[afterIdx];
+                InstanceInfo from = ownerAt(before, beforeIdx);
+                InstanceInfo to = ownerAt(after, afterIdx);
+                if (isAt(before, beforeIdx, pointHigh, pointLow)) {
+                    beforeIdx++;
+                }
+                if (isAt(after, afterIdx, pointHigh, pointLow)) {
+                    afterIdx++;
+                }
+                RangeTransfer completed = null;
+                if (!Objects.equals(from, to)) {
+                    boolean contiguous = pending && Objects.equals(pendingFrom, from) && Objects.equals(pendingTo, to)
+                            && pendingEndHigh == prevHigh && pendingEndLow == prevLow;
+                    if (!contiguous) {
+                        completed = pending ? pendingTransfer() : null;
+                        pending = true;
+                        pendingStartHigh = prevHigh;
+                        pendingStartLow = prevLow;
+                        pendingFrom = from;
+                        pendingTo = to;
+                    }
+                    pendingEndHigh = pointHigh;
+                    pendingEndLow = pointLow;
+                }
+                prevHigh = pointHigh;
+                prevLow = pointLow;
+                if (Objects.nonNull(completed)) {
+                    return completed;
+                }
+            }
+            if (pending) {
+                pending = false;
+                return pendingTransfer();
+            }
+            return null;
+        }
+
+        private RangeTransfer pendingTransfer() {
+            return new RangeTransfer(new Hash128Bit(pendingStartHigh, pendingStartLow),
+                                     new Hash128Bit(pendingEndHigh, pendingEndLow), pendingFrom, pendingTo);
+        }
+
+        private static boolean isAt(final RingSnapshot ring, final int idx, final long hashHigh,
+                                    final long hashLow) {
+            return idx < ring.size() && ring.high[idx] == hashHigh && ring.low[idx] == hashLow;
+        }
+
+        /**
+         * Owner of the interval ending at or before vnode idx, idx past the end wraps to the first vnode.
+         */
+        private static InstanceInfo ownerAt(final RingSnapshot ring, final int idx) {
+            int size = ring.size();
+            if (size == 0) {
+                return null;
+            }
+            return ring.instances[ring.owner[idx < size ? idx : 0]];
+        }
+    }
+}
@@ -0,0 +1,687 @@
+package com.dht;
+
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RingDelta;
+import com.dht.model.Topology;
+import com.dht.model.VirtualNode;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Immutable hash ring stored as parallel sorted primitive arrays.
+ * Vnode hashes are ordered as unsigned 128-bit integers, {@code owner[i]} is the slot of the
+ * owning instance in {@code instances}. Writers never mutate a published snapshot, they derive a new one.
+ * Once any instance carries a topology {@code vNodeZones[i]} is the zone id of vnode i, so zone-aware
+ * walks skip vnodes without touching their instances.
+ * <p>
+ * A vnode takes 20 bytes, 24 once topologies are set, against about 100 for a V1 TreeMap entry with its
+ * Hash128Bit key, VirtualNode value and per-instance hash array reference. 10,000 instances of 420 vnodes
+ * fit in 84 MB of three primitive arrays the collector never has to scan. Membership changes merge or
+ * filter the sorted arrays in one O(n) pass.
+ */
+final class RingSnapshot {
+
+    static final RingSnapshot EMPTY = new RingSnapshot(0L, new long[0], new long[0], new int[0],
+                                                       new InstanceInfo[0], new int[0], Map.of(), new Topology[0]);
+
+    final long version;
+    final long[] high;
+    final long[] low;
+    final int[] owner;
+    final InstanceInfo[] instances;
+    final int[] vNodeCounts;
+    final Map<String, Integer> slotByInstanceId;
+    //slot indexed like instances, null for instances without labels
+    final Topology[] topologies;
+    //null while no instance carries a topology
+    final int[] vNodeZones;
+    final int zoneCnt;
+
+    private RingSnapshot(final long version, final long[] high, final long[] low, final int[] owner,
+                         final InstanceInfo[] instances, final int[] vNodeCounts,
+                         final Map<String, Integer> slotByInstanceId, final Topology[] topologies) {
+        this.version = version;
+        this.high = high;
+        this.low = low;
+        this.owner = owner;
+        this.instances = instances;
+        this.vNodeCounts = vNodeCounts;
+        this.slotByInstanceId = slotByInstanceId;
+        this.topologies = topologies;
+        int[] slotZones = new int[instances.length];
+        int zoneCnt = zoneIds(instances, topologies, slotZones);
+        this.vNodeZones = zoneCnt == 0 ? null : new int[owner.length];
+        this.zoneCnt = Math.max(zoneCnt, 1);
+        for (int i = 0; zoneCnt > 0 && i < owner.length; i++) {
+            vNodeZones[i] = slotZones[owner[i]];
+        }
+    }
+
+    /**
+     * Numbers the zones of the registered instances from 0 in slot order, instances without a topology
+     * share one zone. Returns the number of zones, or 0 when no instance carries a topology.
+     */
+    private static int zoneIds(final InstanceInfo[] instances, final Topology[] topologies, final int[] slotZones) {
+        if (Arrays.stream(topologies).allMatch(Objects::isNull)) {
+            return 0;
+        }
+        Map<String, Integer> zoneIds = new HashMap<>();
+        for (int slot = 0; slot < instances.length; slot++) {
+            if (Objects.nonNull(instances[slot])) {
+                String zone = Objects.isNull(topologies[slot]) ? null : topologies[slot].zone();
+                slotZones[slot] = zoneIds.computeIfAbsent(zone, unused -> zoneIds.size());
+            }
+        }
+        return zoneIds.size();
+    }
+
+    /**
+     * Copies a TreeMap ring into a snapshot, slots as in instanceSlots. The caller must hold the ring's read lock.
+     */
+    static RingSnapshot copyOf(final long version, final NavigableMap<Hash128Bit, VirtualNode> hashRing,
+                               final List<InstanceInfo> instanceSlots, final Map<String, Integer> instanceIdToIdx) {
+        int size = hashRing.size();
+        long[] high = new long[size];
+        long[] low = new long[size];
+        int[] owner = new int[size];
+        int k = 0;
+        for (Map.Entry<Hash128Bit, VirtualNode> entry : hashRing.entrySet()) {
+            high[k] = entry.getKey().getHigh();
+            low[k] = entry.getKey().getLow();
+            owner[k++] = instanceIdToIdx.get(entry.getValue().instanceInfo().getInstanceId());
+        }
+        return of(version, high, low, owner, instanceSlots.toArray(new InstanceInfo[0]));
+    }
+
+    /**
+     * Wraps already sorted vnode arrays, instances is slot indexed with null for free slots.
+     */
+    static RingSnapshot of(final long version, final long[] high, final long[] low, final int[] owner,
+                           final InstanceInfo[] instances) {
+        int[] vNodeCounts = new int[instances.length];
+        for (int slot : owner) {
+            vNodeCounts[slot]++;
+        }
+        Map<String, Integer> slotByInstanceId = new HashMap<>();
+        for (int slot = 0; slot < instances.length; slot++) {
+            if (Objects.nonNull(instances[slot])) {
+                slotByInstanceId.put(instances[slot].getInstanceId(), slot);
+            }
+        }
+        return new RingSnapshot(version, high, low, owner, instances, vNodeCounts, slotByInstanceId,
+                                new Topology[instances.length]);
+    }
+
+    int size() {
+        return high.length;
+    }
+
+    /**
+     * Builds a ring from instances with their vnode hashes, as exported in a full RingState, slots in list
+     * order. The hashes are taken as they are, nothing is rehashed.
+     */
+    static RingSnapshot ofInstances(final long version, final List<RingDelta> instanceDeltas) {
+        int instanceCnt = instanceDeltas.size();
+        InstanceInfo[] instances = new InstanceInfo[instanceCnt];
+        Topology[] topologies = new Topology[instanceCnt];
+        int[] vNodeCounts = new int[instanceCnt];
+        Map<String, Integer> slotByInstanceId = new HashMap<>();
+        int size = 0;
+        for (int slot = 0; slot < instanceCnt; slot++) {
+            RingDelta delta = instanceDeltas.get(slot);
+            instances[slot] = delta.instanceInfo();
+            topologies[slot] = delta.topology();
+            vNodeCounts[slot] = delta.vNodeHigh().length;
+            if (Objects.nonNull(slotByInstanceId.put(delta.instanceInfo().getInstanceId(), slot))) {
+                throw new IllegalArgumentException("instance listed twice: " + delta.instanceInfo().getInstanceId());
+            }
+            size += vNodeCounts[slot];
+        }
+        long[] high = new long[size];
+        long[] low = new long[size];
+        int[] owner = new int[size];
+        int k = 0;
+        for (int slot = 0; slot < instanceCnt; slot++) {
+            RingDelta delta = instanceDeltas.get(slot);
+            System.arraycopy(delta.vNodeHigh(), 0, high, k, vNodeCounts[slot]);
+            System.arraycopy(delta.vNodeLow(), 0, low, k, vNodeCounts[slot]);
+            Arrays.fill(owner, k, k + vNodeCounts[slot], slot);
+            k += vNodeCounts[slot];
+        }
+        HashArrays.sort(high, low, owner, 0, size);
+        return new RingSnapshot(version, high, low, owner, instances, vNodeCounts, slotByInstanceId, topologies);
+    }
+
+    /**
+     * This ring under another version, e.g. the version of the router it was synchronised from.
+     */
+    RingSnapshot withVersion(final long newVersion) {
+        return new RingSnapshot(newVersion, high, low, owner, instances, vNodeCounts, slotByInstanceId, topologies);
+    }
+
+    /**
+     * Derives the ring with the delta applied, using the hashes it carries.
+     *
+     * @throws IllegalStateException when the delta does not fit this ring
+     */
+    RingSnapshot with(final RingDelta delta) {
+        String instanceId = delta.instanceInfo().getInstanceId();
+        Integer slot = slotByInstanceId.get(instanceId);
+        if (Objects.isNull(slot) == (delta.kind() != RingDelta.Kind.ADDED)) {
+            throw new IllegalStateException(delta.kind() + " of " + instanceId + " does not apply to ring version "
+                                            + version);
+        }
+        return switch (delta.kind()) {
+            case ADDED -> {
+                RingSnapshot next = withVNodes(delta.instanceInfo(), delta.vNodeHigh(), delta.vNodeLow());
+                yield Objects.isNull(delta.topology())
+                        ? next : next.withTopology(next.slotByInstanceId.get(instanceId), delta.topology());
+            }
+            case REMOVED -> withoutInstance(instanceId);
+            case VNODES_ADDED -> withVNodes(instances[slot], delta.vNodeHigh(), delta.vNodeLow());
+            case VNODES_REMOVED -> withoutVNodes(instanceId, delta.vNodeHigh(), delta.vNodeLow());
+            case RELABELLED -> withTopology(slot, delta.topology());
+        };
+    }
+
+    /**
+     * Index of the first vnode whose hash is greater than or equal to the given hash, wrapping
+     * around to 0 past the last vnode. Returns -1 when the ring is empty.
+     */
+    int ceilingIndex(final long hashHigh, final long hashLow) {
+        int size = high.length;
+        if (size == 0) {
+            return -1;
+        }
+        int idx = lowerBound(0, size, hashHigh, hashLow);
+        return idx == size ? 0 : idx;
+    }
+
+    /**
+     * Slot of the first owner clockwise from vnode index idx that is not down, the owner of idx itself
+     * when every instance is down.
+     */
+    int liveOwner(final int idx, final DownSlots downSlots) {
+        int slot = owner[idx];
+        if (!downSlots.anyDown() || !downSlots.isDown(slot)) {
+            return slot;
+        }
+        int size = high.length;
+        int rejected = slot;
+        for (int ctr = 1, i = idx + 1 == size ? 0 : idx + 1; ctr < size; ctr++, i = i + 1 == size ? 0 : i + 1) {
+            int candidate = owner[i];
+            if (candidate != rejected) {
+                if (!downSlots.isDown(candidate)) {
+                    return candidate;
+                }
+                rejected = candidate;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Writes the first distinct owners clockwise from vnode index {@code from} that are not down to out,
+     * stopping after limit owners or one full turn of the ring. Returns the number written.
+     */
+    int distinctOwners(final int from, final int limit, final InstanceInfo[] out, final DownSlots downSlots) {
+        return distinctOwners(from, 0, limit, out, downSlots);
+    }
+
+    /**
+     * As distinctOwners(), preferring owners in zones not picked yet: first the owner of the first vnode
+     * clockwise in each zone, up to limit, then the next distinct owners clockwise. Vnodes of picked zones
+     * are skipped reading vNodeZones only, instances that are down are skipped like distinctOwners() does.
+     */
+    int zoneSpreadOwners(final int from, final int limit, final InstanceInfo[] out, final DownSlots downSlots) {
+        final int[] vNodeZones = this.vNodeZones;
+        if (Objects.isNull(vNodeZones)) {
+            //a single zone, its first owner followed by the next distinct owners
+            return distinctOwners(from, 0, limit, out, downSlots);
+        }
+        boolean skipDown = downSlots.anyDown();
+        int size = high.length;
+        int zoneLimit = Math.min(limit, zoneCnt);
+        long[] pickedZones = new long[(zoneCnt + 63) >>> 6];
+        int cnt = 0;
+        for (int ctr = 0, idx = from; ctr < size && cnt < zoneLimit; ctr++, idx = idx + 1 == size ? 0 : idx + 1) {
+            int zone = vNodeZones[idx];
+            if ((pickedZones[zone >>> 6] & 1L << zone) == 0 && !(skipDown && downSlots.isDown(owner[idx]))) {
+                pickedZones[zone >>> 6] |= 1L << zone;
+                out[cnt++] = instances[owner[idx]];
+            }
+        }
+        return cnt < limit ? distinctOwners(from, cnt, limit, out, downSlots) : cnt;
+    }
+
+    /**
+     * Appends distinct owners clockwise from vnode index from to out[cnt, limit), skipping those already
+     * in out[0, cnt).
+     */
+    private int distinctOwners(final int from, final int picked, final int limit, final InstanceInfo[] out,
+                               final DownSlots downSlots) {
+        boolean skipDown = downSlots.anyDown();
+        int size = high.length;
+        int cnt = picked;
+        for (int ctr = 0, idx = from; ctr < size && cnt < limit; ctr++, idx = idx + 1 == size ? 0 : idx + 1) {
+            InstanceInfo instanceInfo = instances[owner[idx]];
+            if (!(skipDown && downSlots.isDown(owner[idx])) && !RingWalks.contains(out, cnt, instanceInfo)) {
+                out[cnt++] = instanceInfo;
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Resolves owner slots for a batch of hashed keys, writing the slot of key {@code order[i]}
+     * to {@code out[order[i]]}. Sorted batches are resolved in one clockwise sweep, each step
+     * gallops forward from the previous position instead of searching the whole ring again. Owners that
+     * are down are replaced by their live successor.
+     */
+    void ownersOf(final BatchRouting.HashedKeys hashedKeys, final int[] out, final DownSlots downSlots) {
+        long[] keyHigh = hashedKeys.high();
+        long[] keyLow = hashedKeys.low();
+        int[] order = hashedKeys.order();
+        int size = high.length;
+        if (!hashedKeys.sorted() || size == 0) {
+            for (int i = 0; i < order.length; i++) {
+                int idx = ceilingIndex(keyHigh[i], keyLow[i]);
+                out[order[i]] = idx < 0 ? -1 : liveOwner(idx, downSlots);
+            }
+            return;
+        }
+        int pos = 0;
+        for (int i = 0; i < order.length; i++) {
+            pos = gallop(pos, keyHigh[i], keyLow[i]);
+            out[order[i]] = liveOwner(pos == size ? 0 : pos, downSlots);
+        }
+    }
+
+    /**
+     * First index at or after {@code from} whose hash is not below the given hash, or size().
+     */
+    private int gallop(final int from, final long hashHigh, final long hashLow) {
+        int size = high.length;
+        if (from >= size || HashArrays.compare(high[from], low[from], hashHigh, hashLow) >= 0) {
+            return from;
+        }
+        int below = from;
+        int step = 1;
+        int probe = from + 1;
+        while (probe < size && HashArrays.compare(high[probe], low[probe], hashHigh, hashLow) < 0) {
+            below = probe;
+            step <<= 1;
+            probe = below + step;
+        }
+        return lowerBound(below + 1, Math.min(probe, size), hashHigh, hashLow);
+    }
+
+    private int lowerBound(final int from, final int to, final long hashHigh, final long hashLow) {
+        final long[] high = this.high;
+        final long[] low = this.low;
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (HashArrays.compare(high[mid], low[mid], hashHigh, hashLow) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Slot of the instance owning the given hash, -1 when the ring is empty.
+     */
+    int ownerOf(final long hashHigh, final long hashLow) {
+        int idx = ceilingIndex(hashHigh, hashLow);
+        return idx < 0 ? -1 : owner[idx];
+    }
+
+    InstanceInfo instanceOf(final long hashHigh, final long hashLow) {
+        int slot = ownerOf(hashHigh, hashLow);
+        return slot < 0 ? null : instances[slot];
+    }
+
+    /**
+     * Derives a ring where the instance owns exactly instanceVNodeCnt vnodes, adding or removing only
+     * the delta when it is already registered. Returns this snapshot when nothing changes.
+     */
+    RingSnapshot withVNodeCnt(final String instanceId, final String host, final int port, final int instanceVNodeCnt,
+                              final Function<VirtualNode, Hash128Bit> vNodeHash) {
+        Integer slot = slotByInstanceId.get(instanceId);
+        InstanceInfo instanceInfo = Objects.isNull(slot) ? new InstanceInfo(instanceId, host, port) : instances[slot];
+        int existingVNodeCnt = Objects.isNull(slot) ? 0 : vNodeCounts[slot];
+        if (existingVNodeCnt == instanceVNodeCnt) {
+            return this;
+        }
+        int from = Math.min(existingVNodeCnt, instanceVNodeCnt);
+        int to = Math.max(existingVNodeCnt, instanceVNodeCnt);
+        long[] vNodeHigh = new long[to - from];
+        long[] vNodeLow = new long[to - from];
+        for (int ctr = from; ctr < to; ctr++) {
+            Hash128Bit hash128Bit = vNodeHash.apply(new VirtualNode(instanceInfo, ctr));
+            vNodeHigh[ctr - from] = hash128Bit.getHigh();
+            vNodeLow[ctr - from] = hash128Bit.getLow();
+        }
+        return existingVNodeCnt < instanceVNodeCnt
+                ? withVNodes(instanceInfo, vNodeHigh, vNodeLow)
+                : withoutVNodes(instanceId, vNodeHigh, vNodeLow);
+    }
+
+    /**
+     * As above, also labelling the instance with the topology when non-null.
+     */
+    RingSnapshot withVNodeCnt(final String instanceId, final String host, final int port, final int instanceVNodeCnt,
+                              final Topology topology, final Function<VirtualNode, Hash128Bit> vNodeHash) {
+        RingSnapshot next = withVNodeCnt(instanceId, host, port, instanceVNodeCnt, vNodeHash);
+        int slot = next.slotByInstanceId.get(instanceId);
+        return Objects.isNull(topology) || topology.equals(next.topologies[slot]) ? next
+                                                                                   : next.withTopology(slot, topology);
+    }
+
+    /**
+     * Returns a new snapshot where the instance in the slot carries the topology, no vnode moves.
+     */
+    RingSnapshot withTopology(final int slot, final Topology topology) {
+        Topology[] newTopologies = topologies.clone();
+        newTopologies[slot] = topology;
+        return new RingSnapshot(version + 1, high, low, owner, instances, vNodeCounts, slotByInstanceId,
+                                newTopologies);
+    }
+
+    /**
+     * Returns a new snapshot with the instances deregistered and then every registrations[i] owning
+     * exactly vNodeCnts[i] vnodes. Delta vnodes are hashed up front, on the pool when non-null, and the
+     * ring is rebuilt in a single merge pass however many instances change. Returns this snapshot, at the
+     * same version, when the changes leave every vnode count and topology as they are.
+     */
+    RingSnapshot withChanges(final InstanceRegistration[] registrations, final int[] vNodeCnts,
+                             final Collection<String> deregistrations,
+                             final Function<VirtualNode, Hash128Bit> vNodeHash, final ForkJoinPool pool) {
+        InstanceInfo[] newInstances = Arrays.copyOf(instances, instances.length + registrations.length);
+        int[] newVNodeCounts = Arrays.copyOf(vNodeCounts, newInstances.length);
+        Topology[] newTopologies = Arrays.copyOf(topologies, newInstances.length);
+        Map<String, Integer> newSlots = new HashMap<>(slotByInstanceId);
+        boolean[] dropped = new boolean[instances.length];
+        int droppedCnt = 0;
+        for (String instanceId : deregistrations) {
+            Integer slot = newSlots.remove(instanceId);
+            if (Objects.nonNull(slot)) {
+                newInstances[slot] = null;
+                newVNodeCounts[slot] = 0;
+                newTopologies[slot] = null;
+                dropped[slot] = true;
+                droppedCnt += vNodeCounts[slot];
+            }
+        }
+        boolean changed = droppedCnt > 0;
+
+        int[] slots = new int[registrations.length];
+        InstanceInfo[] registered = new InstanceInfo[registrations.length];
+        int[] existingCnts = new int[registrations.length];
+        int instanceCnt = instances.length;
+        for (int i = 0; i < registrations.length; i++) {
+            InstanceRegistration registration = registrations[i];
+            Integer slot = newSlots.get(registration.instanceId());
+            if (Objects.isNull(slot)) {
+                slot = 0;
+                while (slot < instanceCnt && Objects.nonNull(newInstances[slot])) {
+                    slot++;
+                }
+                instanceCnt = Math.max(instanceCnt, slot + 1);
+                newInstances[slot] = new InstanceInfo(registration.instanceId(), registration.host(),
+                                                      registration.port());
+                newSlots.put(registration.instanceId(), slot);
+                changed = true;
+            }
+            if (Objects.nonNull(registration.topology())) {
+                changed |= !registration.topology().equals(newTopologies[slot]);
+                newTopologies[slot] = registration.topology();
+            }
+            slots[i] = slot;
+            registered[i] = newInstances[slot];
+            existingCnts[i] = newVNodeCounts[slot];
+            newVNodeCounts[slot] = vNodeCnts[i];
+            changed |= existingCnts[i] != vNodeCnts[i];
+        }
+        if (!changed) {
+            return this;
+        }
+
+        long[][] deltaHigh = new long[registrations.length][];
+        long[][] deltaLow = new long[registrations.length][];
+        BatchRouting.forEachChunk(registrations.length, pool, i -> {
+            int from = Math.min(existingCnts[i], vNodeCnts[i]);
+            int to = Math.max(existingCnts[i], vNodeCnts[i]);
+            deltaHigh[i] = new long[to - from];
+            deltaLow[i] = new long[to - from];
+            for (int ctr = from; ctr < to; ctr++) {
+                Hash128Bit hash128Bit = vNodeHash.apply(new VirtualNode(registered[i], ctr));
+                deltaHigh[i][ctr - from] = hash128Bit.getHigh();
+                deltaLow[i][ctr - from] = hash128Bit.getLow();
+            }
+        });
+        int addCnt = 0;
+        int removeCnt = 0;
+        for (int i = 0; i < registrations.length; i++) {
+            if (existingCnts[i] < vNodeCnts[i]) {
+                addCnt += deltaHigh[i].length;
+            } else {
+                removeCnt += deltaHigh[i].length;
+            }
+        }
+        long[] addHigh = new long[addCnt];
+        long[] addLow = new long[addCnt];
+        int[] addOwner = new int[addCnt];
+        long[] removeHigh = new long[removeCnt];
+        long[] removeLow = new long[removeCnt];
+        int[] removeOwner = new int[removeCnt];
+        int a = 0;
+        int r = 0;
+        for (int i = 0; i < registrations.length; i++) {
+            int len = deltaHigh[i].length;
+            if (existingCnts[i] < vNodeCnts[i]) {
+                System.arraycopy(deltaHigh[i], 0, addHigh, a, len);
+                System.arraycopy(deltaLow[i], 0, addLow, a, len);
+                Arrays.fill(addOwner, a, a + len, slots[i]);
+                a += len;
+            } else {
+                System.arraycopy(deltaHigh[i], 0, removeHigh, r, len);
+                System.arraycopy(deltaLow[i], 0, removeLow, r, len);
+                Arrays.fill(removeOwner, r, r + len, slots[i]);
+                r += len;
+            }
+        }
+        HashArrays.sort(addHigh, addLow, addOwner, 0, addCnt);
+        HashArrays.sort(removeHigh, removeLow, removeOwner, 0, removeCnt);
+
+        int size = high.length;
+        int newSize = size - droppedCnt - removeCnt + addCnt;
+        long[] newHigh = new long[newSize];
+        long[] newLow = new long[newSize];
+        int[] newOwner = new int[newSize];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        r = 0;
+        while (i < size || j < addCnt) {
+            if (i < size) {
+                if (dropped[owner[i]]) {
+                    i++;
+                    continue;
+                }
+                while (r < removeCnt && HashArrays.compare(removeHigh[r], removeLow[r], high[i], low[i]) < 0) {
+                    r++;
+                }
+                if (r < removeCnt && removeOwner[r] == owner[i] && removeHigh[r] == high[i] && removeLow[r] == low[i]) {
+                    r++;
+                    i++;
+                    continue;
+                }
+            }
+            if (j >= addCnt || i < size && HashArrays.compare(high[i], low[i], addHigh[j], addLow[j]) <= 0) {
+                newHigh[k] = high[i];
+                newLow[k] = low[i];
+                newOwner[k++] = owner[i++];
+            } else {
+                newHigh[k] = addHigh[j];
+                newLow[k] = addLow[j];
+                newOwner[k++] = addOwner[j++];
+            }
+        }
+        return new RingSnapshot(version + 1, newHigh, newLow, newOwner, Arrays.copyOf(newInstances, instanceCnt),
+                                Arrays.copyOf(newVNodeCounts, instanceCnt), newSlots,
+                                Arrays.copyOf(newTopologies, instanceCnt));
+    }
+
+    /**
+     * Returns a new snapshot with the given vnodes added to the instance, registering the instance
+     * if it is not on the ring yet. The vnode hashes need not be sorted, the arrays are not retained.
+     */
+    RingSnapshot withVNodes(final InstanceInfo instanceInfo, final long[] vNodeHigh, final long[] vNodeLow) {
+        Integer existingSlot = slotByInstanceId.get(instanceInfo.getInstanceId());
+        int slot = Objects.isNull(existingSlot) ? freeSlot() : existingSlot;
+        InstanceInfo[] newInstances = Arrays.copyOf(instances, Math.max(instances.length, slot + 1));
+        int[] newVNodeCounts = Arrays.copyOf(vNodeCounts, newInstances.length);
+        Map<String, Integer> newSlots = slotByInstanceId;
+        if (Objects.isNull(existingSlot)) {
+            newInstances[slot] = instanceInfo;
+            newSlots = new HashMap<>(slotByInstanceId);
+            newSlots.put(instanceInfo.getInstanceId(), slot);
+        }
+        newVNodeCounts[slot] += vNodeHigh.length;
+
+        int addCnt = vNodeHigh.length;
+        long[] addHigh = vNodeHigh.clone();
+        long[] addLow = vNodeLow.clone();
+        HashArrays.sort(addHigh, addLow, new int[addCnt], 0, addCnt);
+
+        int size = high.length;
+        long[] newHigh = new long[size + addCnt];
+        long[] newLow = new long[size + addCnt];
+        int[] newOwner = new int[size + addCnt];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < size && j < addCnt) {
+            if (HashArrays.compare(high[i], low[i], addHigh[j], addLow[j]) <= 0) {
+                newHigh[k] = high[i];
+                newLow[k] = low[i];
+                newOwner[k++] = owner[i++];
+            } else {
+                newHigh[k] = addHigh[j];
+                newLow[k] = addLow[j++];
+                newOwner[k++] = slot;
+            }
+        }
+        while (i < size) {
+            newHigh[k] = high[i];
+            newLow[k] = low[i];
+            newOwner[k++] = owner[i++];
+        }
+        while (j < addCnt) {
+            newHigh[k] = addHigh[j];
+            newLow[k] = addLow[j++];
+            newOwner[k++] = slot;
+        }
+        return new RingSnapshot(version + 1, newHigh, newLow, newOwner, newInstances, newVNodeCounts, newSlots,
+                                Arrays.copyOf(topologies, newInstances.length));
+    }
+
+    /**
+     * Returns a new snapshot with the given vnodes of a registered instance removed, the instance
+     * itself stays registered.
+     */
+    RingSnapshot withoutVNodes(final String instanceId, final long[] vNodeHigh, final long[] vNodeLow) {
+        int slot = slotByInstanceId.get(instanceId);
+        int removeCnt = vNodeHigh.length;
+        long[] removeHigh = vNodeHigh.clone();
+        long[] removeLow = vNodeLow.clone();
+        HashArrays.sort(removeHigh, removeLow, new int[removeCnt], 0, removeCnt);
+        int[] newVNodeCounts = vNodeCounts.clone();
+        newVNodeCounts[slot] -= removeCnt;
+
+        int size = high.length;
+        long[] newHigh = new long[size - removeCnt];
+        long[] newLow = new long[size - removeCnt];
+        int[] newOwner = new int[size - removeCnt];
+        int j = 0;
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < removeCnt && HashArrays.compare(removeHigh[j], removeLow[j], high[i], low[i]) < 0) {
+                j++;
+            }
+            if (owner[i] == slot && j < removeCnt && removeHigh[j] == high[i] && removeLow[j] == low[i]) {
+                j++;
+                continue;
+            }
+            newHigh[k] = high[i];
+            newLow[k] = low[i];
+            newOwner[k++] = owner[i];
+        }
+        return new RingSnapshot(version + 1, newHigh, newLow, newOwner, instances, newVNodeCounts, slotByInstanceId,
+                                topologies);
+    }
+
+    /**
+     * Returns a new snapshot without the given instance and its vnodes, or this snapshot when
+     * the instance is not registered.
+     */
+    RingSnapshot withoutInstance(final String instanceId) {
+        Integer slot = slotByInstanceId.get(instanceId);
+        if (slot == null) {
+            return this;
+        }
+        InstanceInfo[] newInstances = instances.clone();
+        newInstances[slot] = null;
+        int[] newVNodeCounts = vNodeCounts.clone();
+        newVNodeCounts[slot] = 0;
+        Topology[] newTopologies = topologies.clone();
+        newTopologies[slot] = null;
+        Map<String, Integer> newSlots = new HashMap<>(slotByInstanceId);
+        newSlots.remove(instanceId);
+
+        int size = high.length;
+        int keep = 0;
+        for (int i = 0; i < size; i++) {
+            if (owner[i] != slot) {
+                keep++;
+            }
+        }
+        long[] newHigh = new long[keep];
+        long[] newLow = new long[keep];
+        int[] newOwner = new int[keep];
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            if (owner[i] != slot) {
+                newHigh[k] = high[i];
+                newLow[k] = low[i];
+                newOwner[k++] = owner[i];
+            }
+        }
+        return new RingSnapshot(version + 1, newHigh, newLow, newOwner, newInstances, newVNodeCounts, newSlots,
+                                newTopologies);
+    }
+
+    private int freeSlot() {
+        for (int slot = 0; slot < instances.length; slot++) {
+            if (instances[slot] == null) {
+                return slot;
+            }
+        }
+        return instances.length;
+    }
+}
@@ -0,0 +1,188 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/**
+ * Binary ring snapshot that is routed over in place once mapped, see {@link MappedNodeLocator}.
+ * <p>
+ * Layout, big endian: a 32 byte header {@code magic, formatVersion, ringVersion(long), vNodeCnt, slotCnt,
+ * reserved(long)}, then the sorted vnode hashes as {@code high[vNodeCnt]} and {@code low[vNodeCnt]},
+ * the owner slots {@code owner[vNodeCnt]}, and the slot table where a free slot is a zero byte and a
+ * taken one is a one byte followed by the UTF-8 instance id and host, each length prefixed, and the port.
+ * 20 bytes per vnode, keys are hashed with murmur3_128.
+ */
+public final class RingSnapshotFile {
+
+    static final int MAGIC = 0x52494E47;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+
+    private RingSnapshotFile() {
+    }
+
+    /**
+     * Writes the current ring of a V1, V2 or V3 locator hashing with the default murmur3_128. The file is
+     * written next to path and moved into place, processes mapping path never see a partial snapshot.
+     */
+    public static void write(final NodeLocator nodeLocator, final Path path) throws IOException {
+        write(ringOf(nodeLocator), path);
+    }
+
+    private static RingSnapshot ringOf(final NodeLocator nodeLocator) {
+        RingSnapshot ring;
+        HashFunction hashFunction;
+        if (nodeLocator instanceof ConsistentHasherV1 v1) {
+            ring = v1.ringSnapshot();
+            hashFunction = v1.hashFunction();
+        } else if (nodeLocator instanceof ConsistentHasherV2 v2) {
+            ring = v2.ringSnapshot();
+            hashFunction = v2.hashFunction();
+        } else if (nodeLocator instanceof ConsistentHasherV3 v3) {
+            ring = v3.ringSnapshot();
+            hashFunction = v3.hashFunction();
+        } else {
+            throw new IllegalArgumentException("not a hash ring locator: " + nodeLocator.getClass().getName());
+        }
+        if (!MURMUR3_128.equals(hashFunction)) {
+            throw new IllegalArgumentException("snapshots are routed with murmur3_128, ring uses " + hashFunction);
+        }
+        return ring;
+    }
+
+    static void write(final RingSnapshot ring, final Path path) throws IOException {
+        ByteBuffer buffer = encode(ring, ByteBuffer::allocate);
+        Path absolutePath = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Copies the current ring of a V1, V2 or V3 locator hashing with the default murmur3_128 into direct
+     * memory and routes over it like a mapped snapshot, without a file. The vnode arrays take 20 bytes per
+     * vnode outside the Java heap, so a ring of millions of vnodes neither sizes the heap nor lengthens
+     * collections. Membership changes throw, copy the source again once it has changed.
+     */
+    public static MappedNodeLocator offHeap(final NodeLocator nodeLocator) {
+        RingSnapshot ring = ringOf(nodeLocator);
+        return new MappedNodeLocator(encode(ring, ByteBuffer::allocateDirect), ring.version, ring.size(),
+                                     ring.instances.clone());
+    }
+
+    private static ByteBuffer encode(final RingSnapshot ring, final IntFunction<ByteBuffer> allocator) {
+        byte[][] instanceBytes = new byte[ring.instances.length][];
+        long size = HEADER_SIZE + 20L * ring.size();
+        for (int slot = 0; slot < ring.instances.length; slot++) {
+            instanceBytes[slot] = encode(ring.instances[slot]);
+            size += instanceBytes[slot].length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("ring too large to map: " + size + " bytes");
+        }
+        ByteBuffer buffer = allocator.apply((int) size).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(ring.version).putInt(ring.size())
+              .putInt(ring.instances.length).putLong(0L);
+        for (long high : ring.high) {
+            buffer.putLong(high);
+        }
+        for (long low : ring.low) {
+            buffer.putLong(low);
+        }
+        for (int owner : ring.owner) {
+            buffer.putInt(owner);
+        }
+        for (byte[] bytes : instanceBytes) {
+            buffer.put(bytes);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Maps a snapshot read-only. Only the header and the slot table are decoded, routing reads the
+     * vnode arrays straight from the mapping, which the OS shares between every process mapping the file.
+     */
+    public static MappedNodeLocator map(final Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("ring snapshot too large to map: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a ring snapshot: " + path);
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("unsupported ring snapshot format " + buffer.getInt(4) + ": " + path);
+        }
+        long ringVersion = buffer.getLong(8);
+        int vNodeCnt = buffer.getInt(16);
+        int slotCnt = buffer.getInt(20);
+        long instancesOffset = HEADER_SIZE + 20L * vNodeCnt;
+        if (vNodeCnt < 0 || slotCnt < 0 || instancesOffset > buffer.limit()) {
+            throw new IOException("truncated ring snapshot: " + path);
+        }
+        ByteBuffer instanceTable = buffer.duplicate().position((int) instancesOffset);
+        InstanceInfo[] instances = new InstanceInfo[slotCnt];
+        try {
+            for (int slot = 0; slot < slotCnt; slot++) {
+                instances[slot] = decode(instanceTable);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("truncated ring snapshot: " + path, e);
+        }
+        return new MappedNodeLocator(buffer, ringVersion, vNodeCnt, instances);
+    }
+
+    private static byte[] encode(final InstanceInfo instanceInfo) {
+        if (Objects.isNull(instanceInfo)) {
+            return new byte[1];
+        }
+        byte[] instanceId = instanceInfo.getInstanceId().getBytes(StandardCharsets.UTF_8);
+        byte[] host = instanceInfo.getHost().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + 4 + instanceId.length + 4 + host.length + 4)
+                         .put((byte) 1)
+                         .putInt(instanceId.length).put(instanceId)
+                         .putInt(host.length).put(host)
+                         .putInt(instanceInfo.getPort())
+                         .array();
+    }
+
+    private static InstanceInfo decode(final ByteBuffer buffer) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        byte[] instanceId = new byte[buffer.getInt()];
+        buffer.get(instanceId);
+        byte[] host = new byte[buffer.getInt()];
+        buffer.get(host);
+        return new InstanceInfo(new String(instanceId, StandardCharsets.UTF_8),
+                                new String(host, StandardCharsets.UTF_8), buffer.getInt());
+    }
+}
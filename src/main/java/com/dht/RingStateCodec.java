@@ -0,0 +1,372 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import com.dht.model.RingDelta;
+import com.dht.model.RingState;
+import com.dht.model.Topology;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Binary encoding of a {@link RingState} for shipping between routers.
+ * <p>
+ * Layout: {@code magic(int), formatVersion(byte), flags(byte)} where bit 0 marks a full state and bit 1 that
+ * low hash words are present, then {@code fromVersion, toVersion} as unsigned varints, the hash function name
+ * and the delta count. Each delta is its kind ordinal, the instance id, host and port, a topology byte
+ * (0 none, 1 zone, 2 zone and rack) followed by the labels, and the vnode count. Strings are UTF-8, varint
+ * length prefixed. Low words are 8 bytes, left out when no hash has one, as in 64-bit ring mode.
+ * <p>
+ * A delta's sorted vnode hashes follow it as varint gaps between consecutive high words, each followed by
+ * its low word. A full state lists its deltas without hashes and then the vnodes of all instances as one
+ * sorted run of bits: the gap to the previous high word Rice coded with k = 64 - bitLength(vnodeCount), the
+ * index of the owning delta in bitLength(deltaCount - 1) bits and the low word, padded to a whole byte.
+ * <p>
+ * A full murmur3_128 ring of 20 instances of 420 vnodes takes 15.2 bytes a vnode, 7.2 in 64-bit mode,
+ * against 8 for raw high words, the 20 bytes of {@link RingSnapshotFile} and 420 hash computations per
+ * instance on the receiving side. Deltas take about 16.2 and 8.2 bytes a vnode.
+ */
+public final class RingStateCodec {
+
+    static final int MAGIC = 0x52535441;
+    static final int FORMAT_VERSION = 2;
+    private static final int FULL = 1;
+    private static final int LOW_WORDS = 2;
+    private static final RingDelta.Kind[] KINDS = RingDelta.Kind.values();
+
+    private RingStateCodec() {
+    }
+
+    public static byte[] encode(final RingState state) {
+        boolean lowWords = state.deltas().stream().anyMatch(delta -> {
+            for (long low : delta.vNodeLow()) {
+                if (low != 0L) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        Output out = new Output();
+        out.writeInt(MAGIC);
+        out.write(FORMAT_VERSION);
+        out.write((state.full() ? FULL : 0) | (lowWords ? LOW_WORDS : 0));
+        out.writeVarLong(state.fromVersion());
+        out.writeVarLong(state.toVersion());
+        out.writeString(state.hashFunction());
+        out.writeVarLong(state.deltas().size());
+        for (RingDelta delta : state.deltas()) {
+            out.write(delta.kind().ordinal());
+            out.writeString(delta.instanceInfo().getInstanceId());
+            out.writeString(delta.instanceInfo().getHost());
+            out.writeVarLong(delta.instanceInfo().getPort());
+            Topology topology = delta.topology();
+            if (Objects.isNull(topology)) {
+                out.write(0);
+            } else if (Objects.isNull(topology.rack())) {
+                out.write(1);
+                out.writeString(topology.zone());
+            } else {
+                out.write(2);
+                out.writeString(topology.zone());
+                out.writeString(topology.rack());
+            }
+            long[] high = delta.vNodeHigh();
+            long[] low = delta.vNodeLow();
+            out.writeVarLong(high.length);
+            if (state.full()) {
+                continue;
+            }
+            long prevHigh = 0L;
+            for (int i = 0; i < high.length; i++) {
+                //sorted as unsigned, so the gap is never negative
+                out.writeVarLong(high[i] - prevHigh);
+                prevHigh = high[i];
+                if (lowWords) {
+                    out.writeLong(low[i]);
+                }
+            }
+        }
+        if (state.full()) {
+            writeRun(state.deltas(), lowWords, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Merges the vnodes of all deltas into one sorted run, see the class doc.
+     */
+    private static void writeRun(final List<RingDelta> deltas, final boolean lowWords, final Output out) {
+        int size = 0;
+        for (RingDelta delta : deltas) {
+            size += delta.vNodeHigh().length;
+        }
+        long[] high = new long[size];
+        long[] low = new long[size];
+        int[] owner = new int[size];
+        int k = 0;
+        for (int d = 0; d < deltas.size(); d++) {
+            int vNodeCnt = deltas.get(d).vNodeHigh().length;
+            System.arraycopy(deltas.get(d).vNodeHigh(), 0, high, k, vNodeCnt);
+            System.arraycopy(deltas.get(d).vNodeLow(), 0, low, k, vNodeCnt);
+            Arrays.fill(owner, k, k + vNodeCnt, d);
+            k += vNodeCnt;
+        }
+        HashArrays.sort(high, low, owner, 0, size);
+        int riceBits = riceBits(size);
+        int ownerBits = bitLength(deltas.size() - 1);
+        long prevHigh = 0L;
+        for (int i = 0; i < size; i++) {
+            //sorted as unsigned, so the gap is never negative
+            long gap = high[i] - prevHigh;
+            prevHigh = high[i];
+            out.writeUnary(gap >>> riceBits);
+            out.writeBits(gap, riceBits);
+            out.writeBits(owner[i], ownerBits);
+            if (lowWords) {
+                out.writeBits(low[i], Long.SIZE);
+            }
+        }
+        out.flushBits();
+    }
+
+    /**
+     * @throws IllegalArgumentException when the bytes are not an encoded ring state
+     */
+    public static RingState decode(final byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("not a ring state");
+            }
+            int formatVersion = in.get();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("unsupported ring state format " + formatVersion);
+            }
+            int flags = in.get();
+            boolean full = (flags & FULL) != 0;
+            boolean lowWords = (flags & LOW_WORDS) != 0;
+            long fromVersion = readVarLong(in);
+            long toVersion = readVarLong(in);
+            String hashFunction = readString(in);
+            int deltaCnt = readCount(in);
+            List<RingDelta> deltas = new ArrayList<>(deltaCnt);
+            for (int d = 0; d < deltaCnt; d++) {
+                int kind = in.get();
+                if (kind < 0 || kind >= KINDS.length) {
+                    throw new IllegalArgumentException("unknown ring delta kind " + kind);
+                }
+                InstanceInfo instanceInfo = new InstanceInfo(readString(in), readString(in), (int) readVarLong(in));
+                int labels = in.get();
+                Topology topology = null;
+                if (labels > 0) {
+                    String zone = readString(in);
+                    topology = new Topology(zone, labels == 2 ? readString(in) : null);
+                }
+                int vNodeCnt = readCount(in);
+                long[] high = new long[vNodeCnt];
+                long[] low = new long[vNodeCnt];
+                long prevHigh = 0L;
+                for (int i = 0; i < vNodeCnt && !full; i++) {
+                    prevHigh += readVarLong(in);
+                    high[i] = prevHigh;
+                    low[i] = lowWords ? in.getLong() : 0L;
+                }
+                deltas.add(new RingDelta(KINDS[kind], instanceInfo, topology, high, low));
+            }
+            if (full) {
+                readRun(deltas, lowWords, in);
+            }
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("trailing bytes after ring state");
+            }
+            return new RingState(full, fromVersion, toVersion, hashFunction, List.copyOf(deltas));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated ring state", e);
+        }
+    }
+
+    /**
+     * Reads the sorted run of a full state into the vnode arrays of its deltas.
+     */
+    private static void readRun(final List<RingDelta> deltas, final boolean lowWords, final ByteBuffer in) {
+        int size = 0;
+        for (RingDelta delta : deltas) {
+            size += delta.vNodeHigh().length;
+        }
+        int riceBits = riceBits(size);
+        int ownerBits = bitLength(deltas.size() - 1);
+        int[] filled = new int[deltas.size()];
+        BitInput bits = new BitInput(in);
+        long prevHigh = 0L;
+        for (int i = 0; i < size; i++) {
+            long quotient = bits.readUnary(-1L >>> riceBits);
+            prevHigh += quotient << riceBits | bits.read(riceBits);
+            int owner = (int) bits.read(ownerBits);
+            if (owner >= deltas.size() || filled[owner] == deltas.get(owner).vNodeHigh().length) {
+                throw new IllegalArgumentException("vnode owner out of range: " + owner);
+            }
+            deltas.get(owner).vNodeHigh()[filled[owner]] = prevHigh;
+            deltas.get(owner).vNodeLow()[filled[owner]++] = lowWords ? bits.read(Long.SIZE) : 0L;
+        }
+    }
+
+    /**
+     * Rice parameter for gaps between size hashes spread over the 64-bit space, whose mean is 2^64 / size.
+     */
+    private static int riceBits(final int size) {
+        return Long.SIZE - bitLength(size);
+    }
+
+    private static int bitLength(final int value) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(value);
+    }
+
+    private static long readVarLong(final ByteBuffer in) {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private static int readCount(final ByteBuffer in) {
+        long count = readVarLong(in);
+        //every counted item takes at least a byte
+        if (count > in.remaining()) {
+            throw new IllegalArgumentException("truncated ring state");
+        }
+        return (int) count;
+    }
+
+    private static String readString(final ByteBuffer in) {
+        byte[] bytes = new byte[readCount(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+
+        private int pendingBits;
+        private int pendingBitCnt;
+
+        private Output() {
+            super(256);
+        }
+
+        /**
+         * Writes the low bits of value, highest first.
+         */
+        private void writeBits(final long value, final int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                writeBit((int) (value >>> i) & 1);
+            }
+        }
+
+        /**
+         * Writes value one bits and a zero bit.
+         */
+        private void writeUnary(final long value) {
+            for (long i = 0; i < value; i++) {
+                writeBit(1);
+            }
+            writeBit(0);
+        }
+
+        private void writeBit(final int bit) {
+            pendingBits = pendingBits << 1 | bit;
+            if (++pendingBitCnt == Byte.SIZE) {
+                write(pendingBits);
+                pendingBits = 0;
+                pendingBitCnt = 0;
+            }
+        }
+
+        /**
+         * Pads the pending bits with zeros to a whole byte.
+         */
+        private void flushBits() {
+            while (pendingBitCnt != 0) {
+                writeBit(0);
+            }
+        }
+
+        private void writeInt(final int value) {
+            writeLong(((long) value) << 32, 4);
+        }
+
+        private void writeLong(final long value) {
+            writeLong(value, 8);
+        }
+
+        private void writeLong(final long value, final int bytes) {
+            for (int i = 0; i < bytes; i++) {
+                write((int) (value >>> (56 - 8 * i)));
+            }
+        }
+
+        private void writeVarLong(final long value) {
+            long remaining = value;
+            while ((remaining & ~0x7fL) != 0) {
+                write((int) (remaining & 0x7f) | 0x80);
+                remaining >>>= 7;
+            }
+            write((int) remaining);
+        }
+
+        private void writeString(final String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class BitInput {
+
+        private final ByteBuffer in;
+        private int current;
+        private int bitsLeft;
+
+        private BitInput(final ByteBuffer in) {
+            this.in = in;
+        }
+
+        private long read(final int bits) {
+            long value = 0L;
+            for (int i = 0; i < bits; i++) {
+                value = value << 1 | readBit();
+            }
+            return value;
+        }
+
+        /**
+         * Reads one bits up to a zero bit, at most max of them.
+         */
+        private long readUnary(final long max) {
+            long value = 0L;
+            while (readBit() == 1) {
+                if (++value > max) {
+                    throw new IllegalArgumentException("malformed vnode gap");
+                }
+            }
+            return value;
+        }
+
+        private int readBit() {
+            if (bitsLeft == 0) {
+                current = in.get();
+                bitsLeft = Byte.SIZE;
+            }
+            return (current >>> --bitsLeft) & 1;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import com.dht.model.RingDelta;
+import com.dht.model.RingState;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The last {@link #CAPACITY} ring changes as {@link RingDelta}s, so that a locator can export what changed
+ * since a version instead of its whole ring. Writers record every published snapshot, diffing it against the
+ * previous one in a single pass over both rings.
+ */
+final class RingStateLog {
+
+    static final int CAPACITY = 1024;
+    private static final long[] NO_HASHES = new long[0];
+    private final ArrayDeque<Change> changes = new ArrayDeque<>();
+    private long oldestVersion;
+    private long latestVersion;
+
+    private record Change(long fromVersion, long toVersion, List<RingDelta> deltas) {
+    }
+
+    RingStateLog(final long version) {
+        this.oldestVersion = version;
+        this.latestVersion = version;
+    }
+
+    /**
+     * Must be called by the writer before publishing after. A version that does not follow the previous
+     * one, as after applying an older full state, starts the log over.
+     */
+    synchronized void record(final RingSnapshot before, final RingSnapshot after) {
+        if (before.version != latestVersion || after.version <= latestVersion) {
+            changes.clear();
+            oldestVersion = after.version;
+            latestVersion = after.version;
+            return;
+        }
+        changes.addLast(new Change(before.version, after.version, between(before, after)));
+        latestVersion = after.version;
+        if (changes.size() > CAPACITY) {
+            changes.removeFirst();
+            oldestVersion = changes.getFirst().fromVersion();
+        }
+    }
+
+    /**
+     * The changes from version to the latest recorded one, null when the log does not reach back to it.
+     */
+    synchronized RingState since(final long version, final String hashFunction) {
+        if (version < oldestVersion || version > latestVersion) {
+            return null;
+        }
+        List<RingDelta> deltas = new ArrayList<>();
+        boolean found = false;
+        for (Change change : changes) {
+            found |= change.fromVersion() == version;
+            if (found) {
+                deltas.addAll(change.deltas());
+            }
+        }
+        return found || version == latestVersion
+                ? new RingState(false, version, latestVersion, hashFunction, List.copyOf(deltas)) : null;
+    }
+
+    /**
+     * Every instance of the ring as ADDED with all its vnodes.
+     */
+    static RingState full(final RingSnapshot ring, final String hashFunction) {
+        boolean[] wanted = new boolean[ring.instances.length];
+        Arrays.fill(wanted, true);
+        long[][][] vNodes = vNodesOf(ring, wanted);
+        List<RingDelta> deltas = new ArrayList<>(ring.slotByInstanceId.size());
+        for (int slot = 0; slot < ring.instances.length; slot++) {
+            if (Objects.nonNull(ring.instances[slot])) {
+                deltas.add(new RingDelta(RingDelta.Kind.ADDED, ring.instances[slot], ring.topologies[slot],
+                                         vNodes[0][slot], vNodes[1][slot]));
+            }
+        }
+        return new RingState(true, ring.version, ring.version, hashFunction, List.copyOf(deltas));
+    }
+
+    /**
+     * Deltas turning before into after, removals first and each kind ordered by instance id. An instance
+     * whose host or port changed is removed and added again.
+     */
+    static List<RingDelta> between(final RingSnapshot before, final RingSnapshot after) {
+        List<RingDelta> removed = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : before.slotByInstanceId.entrySet()) {
+            Integer afterSlot = after.slotByInstanceId.get(entry.getKey());
+            InstanceInfo instanceInfo = before.instances[entry.getValue()];
+            if (Objects.isNull(afterSlot) || !instanceInfo.equals(after.instances[afterSlot])) {
+                removed.add(new RingDelta(RingDelta.Kind.REMOVED, instanceInfo, null, NO_HASHES, NO_HASHES));
+            }
+        }
+        boolean[] addedSlots = new boolean[after.instances.length];
+        boolean[] resizedSlots = new boolean[after.instances.length];
+        boolean[] resizedBeforeSlots = new boolean[before.instances.length];
+        List<RingDelta> changed = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : after.slotByInstanceId.entrySet()) {
+            int slot = entry.getValue();
+            Integer beforeSlot = before.slotByInstanceId.get(entry.getKey());
+            if (Objects.isNull(beforeSlot) || !after.instances[slot].equals(before.instances[beforeSlot])) {
+                addedSlots[slot] = true;
+            } else {
+                if (after.vNodeCounts[slot] != before.vNodeCounts[beforeSlot]) {
+                    resizedSlots[slot] = true;
+                    resizedBeforeSlots[beforeSlot] = true;
+                }
+                if (!Objects.equals(after.topologies[slot], before.topologies[beforeSlot])) {
+                    changed.add(new RingDelta(RingDelta.Kind.RELABELLED, after.instances[slot],
+                                              after.topologies[slot], NO_HASHES, NO_HASHES));
+                }
+            }
+        }
+        boolean[] wanted = new boolean[after.instances.length];
+        for (int slot = 0; slot < wanted.length; slot++) {
+            wanted[slot] = addedSlots[slot] || resizedSlots[slot];
+        }
+        long[][][] afterVNodes = vNodesOf(after, wanted);
+        long[][][] beforeVNodes = vNodesOf(before, resizedBeforeSlots);
+        for (int slot = 0; slot < wanted.length; slot++) {
+            InstanceInfo instanceInfo = after.instances[slot];
+            if (addedSlots[slot]) {
+                changed.add(new RingDelta(RingDelta.Kind.ADDED, instanceInfo, after.topologies[slot],
+                                          afterVNodes[0][slot], afterVNodes[1][slot]));
+            } else if (resizedSlots[slot]) {
+                int beforeSlot = before.slotByInstanceId.get(instanceInfo.getInstanceId());
+                addDifference(RingDelta.Kind.VNODES_ADDED, instanceInfo, afterVNodes[0][slot], afterVNodes[1][slot],
+                              beforeVNodes[0][beforeSlot], beforeVNodes[1][beforeSlot], changed);
+                addDifference(RingDelta.Kind.VNODES_REMOVED, instanceInfo, beforeVNodes[0][beforeSlot],
+                              beforeVNodes[1][beforeSlot], afterVNodes[0][slot], afterVNodes[1][slot], changed);
+            }
+        }
+        Comparator<RingDelta> byId = Comparator.comparing(delta -> delta.instanceInfo().getInstanceId());
+        removed.sort(byId);
+        changed.sort(byId);
+        removed.addAll(changed);
+        return List.copyOf(removed);
+    }
+
+    /**
+     * Adds the vnodes of the sorted hashes that are not among the sorted other hashes as a delta of the
+     * kind, if there are any.
+     */
+    private static void addDifference(final RingDelta.Kind kind, final InstanceInfo instanceInfo, final long[] high,
+                                      final long[] low, final long[] otherHigh, final long[] otherLow,
+                                      final List<RingDelta> out) {
+        long[] diffHigh = new long[high.length];
+        long[] diffLow = new long[high.length];
+        int cnt = 0;
+        int j = 0;
+        for (int i = 0; i < high.length; i++) {
+            while (j < otherHigh.length && HashArrays.compare(otherHigh[j], otherLow[j], high[i], low[i]) < 0) {
+                j++;
+            }
+            if (j < otherHigh.length && otherHigh[j] == high[i] && otherLow[j] == low[i]) {
+                j++;
+                continue;
+            }
+            diffHigh[cnt] = high[i];
+            diffLow[cnt++] = low[i];
+        }
+        if (cnt > 0) {
+            out.add(new RingDelta(kind, instanceInfo, null, Arrays.copyOf(diffHigh, cnt),
+                                  Arrays.copyOf(diffLow, cnt)));
+        }
+    }
+
+    /**
+     * Sorted vnode hashes of the wanted slots, {@code [0][slot]} the high and {@code [1][slot]} the low words.
+     */
+    private static long[][][] vNodesOf(final RingSnapshot ring, final boolean[] wanted) {
+        long[][][] vNodes = new long[2][ring.instances.length][];
+        int[] filled = new int[ring.instances.length];
+        for (int slot = 0; slot < wanted.length; slot++) {
+            if (wanted[slot]) {
+                vNodes[0][slot] = new long[ring.vNodeCounts[slot]];
+                vNodes[1][slot] = new long[ring.vNodeCounts[slot]];
+            }
+        }
+        for (int idx = 0; idx < ring.size(); idx++) {
+            int slot = ring.owner[idx];
+            if (wanted[slot]) {
+                vNodes[0][slot][filled[slot]] = ring.high[idx];
+                vNodes[1][slot][filled[slot]++] = ring.low[idx];
+            }
+        }
+        return vNodes;
+    }
+}
@@ -0,0 +1,55 @@
+package com.dht;
+
+import com.dht.model.Hash128Bit;
+import com.dht.model.InstanceInfo;
+import com.dht.model.VirtualNode;
+
+import java.util.Iterator;
+import java.util.NavigableMap;
+
+/**
+ * Clockwise walks over a TreeMap ring shared by the lock based locators, callers must hold the read lock.
+ */
+final class RingWalks {
+
+    private RingWalks() {
+    }
+
+    /**
+     * Writes the first distinct owners clockwise from the hash to out, stopping after limit owners
+     * or one full turn of the ring. Returns the number written.
+     */
+    static int distinctOwners(final NavigableMap<Hash128Bit, VirtualNode> hashRing, final Hash128Bit hash128Bit,
+                              final int limit, final InstanceInfo[] out) {
+        int cnt = 0;
+        Iterator<VirtualNode> ringIterator = hashRing.tailMap(hash128Bit, true).values().iterator();
+        for (int ctr = 0, size = hashRing.size(); ctr < size && cnt < limit; ctr++) {
+            if (!ringIterator.hasNext()) {
+                ringIterator = hashRing.values().iterator();
+            }
+            InstanceInfo instanceInfo = ringIterator.next().instanceInfo();
+            if (!contains(out, cnt, instanceInfo)) {
+                out[cnt++] = instanceInfo;
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Linear scan of out[0, cnt), replica counts are small enough that this beats hashing.
+     */
+    static boolean contains(final InstanceInfo[] out, final int cnt, final InstanceInfo instanceInfo) {
+        for (int i = 0; i < cnt; i++) {
+            if (out[i] == instanceInfo) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void checkReplicaCnt(final int n, final InstanceInfo[] out) {
+        if (n < 0 || n > out.length) {
+            throw new IllegalArgumentException("n must be in [0, " + out.length + "]: " + n);
+        }
+    }
+}
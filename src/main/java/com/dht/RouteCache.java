@@ -0,0 +1,66 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import com.dht.model.RouteCacheStats;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free direct-mapped cache of key to owner for hot keys. Every entry carries the ring version it
+ * was routed against, a lookup at any other version misses, so membership changes invalidate the whole
+ * cache without touching it. Entries are immutable and replaced wholesale, racing writers only lose an entry.
+ */
+final class RouteCache {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final CachedRoute[] entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    record CachedRoute(String key, long version, int instanceIdx, InstanceInfo instanceInfo) {
+    }
+
+    /**
+     * @param capacity entry count, rounded up to a power of two
+     */
+    RouteCache(final int capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be in [1, " + MAX_CAPACITY + "]: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        this.entries = new CachedRoute[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the cached route of the key at the given ring version, or null on a miss.
+     */
+    CachedRoute get(final String key, final long version) {
+        CachedRoute cached = entries[slot(key)];
+        if (Objects.nonNull(cached) && cached.version() == version && cached.key().equals(key)) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return null;
+    }
+
+    CachedRoute put(final String key, final long version, final int instanceIdx, final InstanceInfo instanceInfo) {
+        CachedRoute cached = new CachedRoute(key, version, instanceIdx, instanceInfo);
+        entries[slot(key)] = cached;
+        return cached;
+    }
+
+    RouteCacheStats stats() {
+        return new RouteCacheStats(hits.sum(), misses.sum(), entries.length);
+    }
+
+    private int slot(final String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,17 @@
+package com.dht;
+
+/**
+ * The finaliser of SplitMix64 (Steele, Lea and Flood, 2014), shared by the locators, the ring digest
+ * and the hot key sketch to spread seeds and hashes. Every input bit affects every output bit.
+ */
+final class SplitMix64 {
+
+    private SplitMix64() {
+    }
+
+    static long mix(final long value) {
+        long mixed = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+        return mixed ^ (mixed >>> 31);
+    }
+}
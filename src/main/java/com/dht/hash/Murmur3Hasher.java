@@ -0,0 +1,172 @@
+package com.dht.hash;
+
+/**
+ * Allocation-free MurmurHash3 x64 128-bit, bit-compatible with Guava's {@code Hashing.murmur3_128()}.
+ * <p>
+ * {@link #high()} and {@link #low()} match reading {@code HashCode.asBytes()} as two big-endian longs,
+ * which is how the locators build a {@link com.dht.model.Hash128Bit}. CharSequences are encoded as UTF-8
+ * on the fly, unpaired surrogates become {@code '?'} exactly like {@code String.getBytes(UTF_8)}.
+ * <p>
+ * Instances are mutable and not thread safe, keep one per thread and reuse it.
+ */
+public final class Murmur3Hasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final byte[] block = new byte[16];
+    private int blockLen;
+    private long h1;
+    private long h2;
+    private int totalLen;
+
+    /**
+     * Hashes {@code length} bytes of {@code data} starting at {@code offset}.
+     */
+    public Murmur3Hasher hash(final byte[] data, final int offset, final int length) {
+        h1 = 0;
+        h2 = 0;
+        int pos = offset;
+        int end = offset + length;
+        while (end - pos >= 16) {
+            mix(getLongLE(data, pos), getLongLE(data, pos + 8));
+            pos += 16;
+        }
+        blockLen = 0;
+        while (pos < end) {
+            block[blockLen++] = data[pos++];
+        }
+        totalLen = length;
+        finish();
+        return this;
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of {@code chars}.
+     */
+    public Murmur3Hasher hash(final CharSequence chars) {
+        h1 = 0;
+        h2 = 0;
+        blockLen = 0;
+        totalLen = 0;
+        int len = chars.length();
+        for (int i = 0; i < len; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xc0 | (c >>> 6)));
+                put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    put((byte) (0xf0 | (codePoint >>> 18)));
+                    put((byte) (0x80 | ((codePoint >>> 12) & 0x3f)));
+                    put((byte) (0x80 | ((codePoint >>> 6) & 0x3f)));
+                    put((byte) (0x80 | (codePoint & 0x3f)));
+                } else {
+                    put((byte) '?');
+                }
+            } else {
+                put((byte) (0xe0 | (c >>> 12)));
+                put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+                put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        finish();
+        return this;
+    }
+
+    /**
+     * Upper 64 bits of the last hash, big-endian.
+     */
+    public long high() {
+        return Long.reverseBytes(h1);
+    }
+
+    /**
+     * Lower 64 bits of the last hash, big-endian.
+     */
+    public long low() {
+        return Long.reverseBytes(h2);
+    }
+
+    private void put(final byte b) {
+        block[blockLen++] = b;
+        totalLen++;
+        if (blockLen == 16) {
+            mix(getLongLE(block, 0), getLongLE(block, 8));
+            blockLen = 0;
+        }
+    }
+
+    private void mix(long k1, long k2) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private void finish() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = blockLen - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (block[i] & 0xffL);
+        }
+        for (int i = Math.min(blockLen, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (block[i] & 0xffL);
+        }
+        if (blockLen > 8) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (blockLen > 0) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= totalLen;
+        h2 ^= totalLen;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLongLE(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xffL)
+                | (bytes[offset + 1] & 0xffL) << 8
+                | (bytes[offset + 2] & 0xffL) << 16
+                | (bytes[offset + 3] & 0xffL) << 24
+                | (bytes[offset + 4] & 0xffL) << 32
+                | (bytes[offset + 5] & 0xffL) << 40
+                | (bytes[offset + 6] & 0xffL) << 48
+                | (bytes[offset + 7] & 0xffL) << 56;
+    }
+}
@@ -0,0 +1,184 @@
+package com.dht.hash;
+
+import com.google.common.hash.HashFunction;
+
+/**
+ * Allocation-free xxHash64 with seed 0, bit-compatible with the reference implementation. A 64-bit hash
+ * costs a fraction of murmur3_128 on short keys, which is plenty for ring sizes and key volumes where
+ * collisions in a 64-bit space do not matter.
+ * <p>
+ * CharSequences are encoded as UTF-8 on the fly like {@link Murmur3Hasher}, so hashing a String and its
+ * UTF-8 bytes agree. Instances are mutable and not thread safe, keep one per thread and reuse it.
+ */
+public final class XxHash64 {
+
+    private static final long P1 = 0x9e3779b185ebca87L;
+    private static final long P2 = 0xc2b2ae3d27d4eb4fL;
+    private static final long P3 = 0x165667b19e3779f9L;
+    private static final long P4 = 0x85ebca77c2b2ae63L;
+    private static final long P5 = 0x27d4eb2f165667c5L;
+
+    private final byte[] block = new byte[32];
+    private int blockLen;
+    private long totalLen;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long value;
+
+    /**
+     * Locators built with this function route on xxHash64 and keep their vnode hashes in the high half of
+     * the 128-bit ring layout, the low half of every hash code it returns is zero. The locators recognise
+     * it and hash through a thread-local XxHash64 instead of Guava.
+     */
+    public static HashFunction hashFunction() {
+        return XxHash64Function.INSTANCE;
+    }
+
+    /**
+     * Hashes {@code length} bytes of {@code data} starting at {@code offset}.
+     */
+    public XxHash64 hash(final byte[] data, final int offset, final int length) {
+        reset();
+        int pos = offset;
+        int end = offset + length;
+        while (end - pos >= 32) {
+            stripe(data, pos);
+            pos += 32;
+        }
+        while (pos < end) {
+            block[blockLen++] = data[pos++];
+        }
+        totalLen = length;
+        finish();
+        return this;
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of {@code chars}.
+     */
+    public XxHash64 hash(final CharSequence chars) {
+        reset();
+        int len = chars.length();
+        for (int i = 0; i < len; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xc0 | (c >>> 6)));
+                put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    put((byte) (0xf0 | (codePoint >>> 18)));
+                    put((byte) (0x80 | ((codePoint >>> 12) & 0x3f)));
+                    put((byte) (0x80 | ((codePoint >>> 6) & 0x3f)));
+                    put((byte) (0x80 | (codePoint & 0x3f)));
+                } else {
+                    put((byte) '?');
+                }
+            } else {
+                put((byte) (0xe0 | (c >>> 12)));
+                put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+                put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        totalLen += blockLen;
+        finish();
+        return this;
+    }
+
+    /**
+     * Hash of the last input.
+     */
+    public long value() {
+        return value;
+    }
+
+    private void reset() {
+        v1 = P1 + P2;
+        v2 = P2;
+        v3 = 0;
+        v4 = -P1;
+        blockLen = 0;
+        totalLen = 0;
+    }
+
+    private void put(final byte b) {
+        block[blockLen++] = b;
+        if (blockLen == 32) {
+            stripe(block, 0);
+            blockLen = 0;
+            totalLen += 32;
+        }
+    }
+
+    private void stripe(final byte[] data, final int pos) {
+        v1 = round(v1, getLongLE(data, pos));
+        v2 = round(v2, getLongLE(data, pos + 8));
+        v3 = round(v3, getLongLE(data, pos + 16));
+        v4 = round(v4, getLongLE(data, pos + 24));
+    }
+
+    private void finish() {
+        long h;
+        if (totalLen >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = P5;
+        }
+        h += totalLen;
+        int pos = 0;
+        while (blockLen - pos >= 8) {
+            h ^= round(0, getLongLE(block, pos));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            pos += 8;
+        }
+        if (blockLen - pos >= 4) {
+            h ^= (getIntLE(block, pos) & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            pos += 4;
+        }
+        while (pos < blockLen) {
+            h ^= (block[pos++] & 0xffL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        value = h;
+    }
+
+    private static long round(final long acc, final long input) {
+        return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    private static long mergeRound(final long acc, final long val) {
+        return (acc ^ round(0, val)) * P1 + P4;
+    }
+
+    private static long getLongLE(final byte[] data, final int pos) {
+        return (data[pos] & 0xffL)
+                | (data[pos + 1] & 0xffL) << 8
+                | (data[pos + 2] & 0xffL) << 16
+                | (data[pos + 3] & 0xffL) << 24
+                | (data[pos + 4] & 0xffL) << 32
+                | (data[pos + 5] & 0xffL) << 40
+                | (data[pos + 6] & 0xffL) << 48
+                | (data[pos + 7] & 0xffL) << 56;
+    }
+
+    private static int getIntLE(final byte[] data, final int pos) {
+        return (data[pos] & 0xff)
+                | (data[pos + 1] & 0xff) << 8
+                | (data[pos + 2] & 0xff) << 16
+                | (data[pos + 3] & 0xff) << 24;
+    }
+}
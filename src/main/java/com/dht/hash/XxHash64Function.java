@@ -0,0 +1,211 @@
+package com.dht.hash;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * xxHash64 as a Guava HashFunction so it plugs into every locator constructor. Hash codes are 128 bits
+ * wide to match the ring layout, the 64-bit hash big-endian in the first 8 bytes and zeros after it.
+ * Strings and byte arrays are hashed directly, other inputs are buffered and then hashed, multi-byte
+ * primitives are written little-endian like Guava's own hashers.
+ */
+final class XxHash64Function implements HashFunction {
+
+    static final XxHash64Function INSTANCE = new XxHash64Function();
+
+    private static final ThreadLocal<XxHash64> HASHER = ThreadLocal.withInitial(XxHash64::new);
+
+    private XxHash64Function() {
+    }
+
+    static HashCode toHashCode(final long value) {
+        byte[] bytes = new byte[16];
+        ByteBuffer.wrap(bytes).putLong(value);
+        return HashCode.fromBytes(bytes);
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new BufferingHasher(32);
+    }
+
+    @Override
+    public Hasher newHasher(final int expectedInputSize) {
+        if (expectedInputSize < 0) {
+            throw new IllegalArgumentException("expectedInputSize must be >= 0: " + expectedInputSize);
+        }
+        return new BufferingHasher(Math.max(expectedInputSize, 1));
+    }
+
+    @Override
+    public HashCode hashInt(final int input) {
+        return newHasher(4).putInt(input).hash();
+    }
+
+    @Override
+    public HashCode hashLong(final long input) {
+        return newHasher(8).putLong(input).hash();
+    }
+
+    @Override
+    public HashCode hashBytes(final byte[] input) {
+        return hashBytes(input, 0, input.length);
+    }
+
+    @Override
+    public HashCode hashBytes(final byte[] input, final int off, final int len) {
+        Objects.checkFromIndexSize(off, len, input.length);
+        return toHashCode(HASHER.get().hash(input, off, len).value());
+    }
+
+    @Override
+    public HashCode hashBytes(final ByteBuffer input) {
+        return newHasher(input.remaining()).putBytes(input).hash();
+    }
+
+    @Override
+    public HashCode hashUnencodedChars(final CharSequence input) {
+        return newHasher(input.length() * 2).putUnencodedChars(input).hash();
+    }
+
+    @Override
+    public HashCode hashString(final CharSequence input, final Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            return toHashCode(HASHER.get().hash(input).value());
+        }
+        return hashBytes(input.toString().getBytes(charset));
+    }
+
+    @Override
+    public <T> HashCode hashObject(final T instance, final Funnel<? super T> funnel) {
+        return newHasher().putObject(instance, funnel).hash();
+    }
+
+    @Override
+    public int bits() {
+        return 128;
+    }
+
+    @Override
+    public String toString() {
+        return "XxHash64.hashFunction()";
+    }
+
+    private static final class BufferingHasher implements Hasher {
+        private byte[] buffer;
+        private int len;
+
+        private BufferingHasher(final int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private Hasher putLittleEndian(final long value, final int bytes) {
+            ensureCapacity(bytes);
+            for (int i = 0; i < bytes; i++) {
+                buffer[len++] = (byte) (value >>> (8 * i));
+            }
+            return this;
+        }
+
+        private void ensureCapacity(final int bytes) {
+            if (len + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, len + bytes));
+            }
+        }
+
+        @Override
+        public Hasher putByte(final byte b) {
+            return putLittleEndian(b, 1);
+        }
+
+        @Override
+        public Hasher putBytes(final byte[] bytes) {
+            return putBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public Hasher putBytes(final byte[] bytes, final int off, final int len) {
+            Objects.checkFromIndexSize(off, len, bytes.length);
+            ensureCapacity(len);
+            System.arraycopy(bytes, off, buffer, this.len, len);
+            this.len += len;
+            return this;
+        }
+
+        @Override
+        public Hasher putBytes(final ByteBuffer bytes) {
+            int remaining = bytes.remaining();
+            ensureCapacity(remaining);
+            bytes.get(buffer, len, remaining);
+            len += remaining;
+            return this;
+        }
+
+        @Override
+        public Hasher putShort(final short s) {
+            return putLittleEndian(s, 2);
+        }
+
+        @Override
+        public Hasher putInt(final int i) {
+            return putLittleEndian(i, 4);
+        }
+
+        @Override
+        public Hasher putLong(final long l) {
+            return putLittleEndian(l, 8);
+        }
+
+        @Override
+        public Hasher putFloat(final float f) {
+            return putInt(Float.floatToRawIntBits(f));
+        }
+
+        @Override
+        public Hasher putDouble(final double d) {
+            return putLong(Double.doubleToRawLongBits(d));
+        }
+
+        @Override
+        public Hasher putBoolean(final boolean b) {
+            return putByte(b ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public Hasher putChar(final char c) {
+            return putLittleEndian(c, 2);
+        }
+
+        @Override
+        public Hasher putUnencodedChars(final CharSequence charSequence) {
+            for (int i = 0; i < charSequence.length(); i++) {
+                putChar(charSequence.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Hasher putString(final CharSequence charSequence, final Charset charset) {
+            return putBytes(charSequence.toString().getBytes(charset));
+        }
+
+        @Override
+        public <T> Hasher putObject(final T instance, final Funnel<? super T> funnel) {
+            funnel.funnel(instance, this);
+            return this;
+        }
+
+        @Override
+        public HashCode hash() {
+            return toHashCode(new XxHash64().hash(buffer, 0, len).value());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.dht.model;
+
+/**
+ * Keyspace moved by a membership change.
+ *
+ * @param movedFraction   fraction of the hash space whose owner changed
+ * @param minimalFraction fraction any placement has to move to keep every instance at its weighted
+ *                        share, the total variation distance between the ideal shares before and after
+ * @param after           balance after the change
+ */
+public record ChurnReport(double movedFraction, double minimalFraction, RingBalance after) {
+
+    /**
+     * Moved over minimal fraction, 1 is optimal.
+     */
+    public double excessRatio() {
+        return minimalFraction == 0 ? (movedFraction == 0 ? 1 : Double.POSITIVE_INFINITY)
+                                    : movedFraction / minimalFraction;
+    }
+}
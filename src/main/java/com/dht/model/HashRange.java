@@ -0,0 +1,8 @@
+package com.dht.model;
+
+/**
+ * Hashes in (startRange, endRange], wrapping past the highest hash when startRange is not below endRange.
+ * startRange equal to endRange covers the whole ring.
+ */
+public record HashRange(Hash128Bit startRange, Hash128Bit endRange) {
+}
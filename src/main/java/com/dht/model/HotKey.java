@@ -0,0 +1,10 @@
+package com.dht.model;
+
+/**
+ * A key among the most routed ones seen by hot key tracking.
+ *
+ * @param estimatedRoutes routes of the key since tracking started, scaled up from the sampled ones. Never
+ *                        underestimated by the sketch, overestimated by a small fraction of all routes
+ */
+public record HotKey(String key, long estimatedRoutes) {
+}
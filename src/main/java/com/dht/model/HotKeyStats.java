@@ -0,0 +1,12 @@
+package com.dht.model;
+
+import java.util.List;
+
+/**
+ * Snapshot of hot key tracking since it was enabled.
+ *
+ * @param sampledRoutes routes fed into the sketch, about sampleRate times all routes
+ * @param instanceLoads every registered instance, highest load ratio first
+ */
+public record HotKeyStats(double sampleRate, long sampledRoutes, List<InstanceLoadShare> instanceLoads) {
+}
@@ -0,0 +1,22 @@
+package com.dht.model;
+
+import java.util.List;
+
+/**
+ * Routed load of one instance as seen by hot key tracking.
+ *
+ * @param observedShare fraction of the sampled routes that went to the instance
+ * @param expectedShare fraction of the hash space the instance owns, its share of uniformly spread keys
+ * @param hotKeys       most routed keys owned by the instance, most routed first
+ */
+public record InstanceLoadShare(InstanceInfo instanceInfo, double observedShare, double expectedShare,
+                                List<HotKey> hotKeys) {
+
+    /**
+     * Observed over expected share, above 1 when the keys the instance owns are routed more than its share of
+     * the hash space explains. Ring imbalance is factored out, see {@link com.dht.RingAnalyzer} for that.
+     */
+    public double loadRatio() {
+        return expectedShare == 0 ? 0 : observedShare / expectedShare;
+    }
+}
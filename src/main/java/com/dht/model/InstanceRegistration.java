@@ -0,0 +1,17 @@
+package com.dht.model;
+
+/**
+ * Arguments of one registerInstance() call within a batch membership change.
+ *
+ * @param topology placement labels, null to keep the instance's current labels
+ */
+public record InstanceRegistration(String instanceId, String host, int port, int weight, Topology topology) {
+
+    public InstanceRegistration(String instanceId, String host, int port) {
+        this(instanceId, host, port, 1);
+    }
+
+    public InstanceRegistration(String instanceId, String host, int port, int weight) {
+        this(instanceId, host, port, weight, null);
+    }
+}
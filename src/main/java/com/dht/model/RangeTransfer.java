@@ -0,0 +1,9 @@
+package com.dht.model;
+
+/**
+ * Hashes in (startRange, endRange] changing owner from fromInstance to toInstance, either is null when
+ * the ring is empty on that side. startRange equal to endRange covers the whole ring.
+ */
+public record RangeTransfer(Hash128Bit startRange, Hash128Bit endRange, InstanceInfo fromInstance,
+                            InstanceInfo toInstance) {
+}
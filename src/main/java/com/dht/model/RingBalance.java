@@ -0,0 +1,17 @@
+package com.dht.model;
+
+import java.util.Map;
+
+/**
+ * Exact share of the hash space owned by each instance. The load ratio of an instance is its owned
+ * fraction over the fraction its weight entitles it to, 1 is perfect balance; with equal weights the
+ * max load ratio is the max over mean imbalance.
+ *
+ * @param ownedFractions  owned fraction of the hash space by instance id, summing to 1
+ * @param maxLoadRatio    load ratio of the most loaded instance
+ * @param minLoadRatio    load ratio of the least loaded instance
+ * @param loadRatioStdDev standard deviation of the load ratios
+ */
+public record RingBalance(Map<String, Double> ownedFractions, double maxLoadRatio, double minLoadRatio,
+                          double loadRatioStdDev) {
+}
@@ -0,0 +1,14 @@
+package com.dht.model;
+
+import java.util.List;
+
+/**
+ * One membership change as seen by {@link com.dht.NodeLocator#ringChanges()} subscribers. A batch applied
+ * with applyChanges() is a single event. Instances registered again with another weight are resized.
+ *
+ * @param version        ring version after the change, increasing from event to event
+ * @param rangeTransfers hash ranges that changed owner, empty for locators without hash ranges
+ */
+public record RingChangeEvent(long version, List<InstanceInfo> addedInstances, List<InstanceInfo> removedInstances,
+                              List<InstanceInfo> resizedInstances, List<RangeTransfer> rangeTransfers) {
+}
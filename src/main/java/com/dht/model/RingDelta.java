@@ -0,0 +1,35 @@
+package com.dht.model;
+
+/**
+ * One instance's change between two ring versions, carrying the vnode hashes themselves so that a
+ * receiving router applies it without hashing. Hashes are sorted as unsigned 128-bit integers.
+ *
+ * @param topology placement labels for ADDED and RELABELLED, null otherwise or when the instance has none
+ * @param vNodeHigh high words of the vnodes added or removed, empty for REMOVED and RELABELLED
+ */
+public record RingDelta(Kind kind, InstanceInfo instanceInfo, Topology topology, long[] vNodeHigh,
+                        long[] vNodeLow) {
+
+    public enum Kind {
+        /**
+         * Instance registered with the given vnodes.
+         */
+        ADDED,
+        /**
+         * Instance deregistered together with all its vnodes.
+         */
+        REMOVED,
+        /**
+         * Registered instance gained the given vnodes, its weight went up.
+         */
+        VNODES_ADDED,
+        /**
+         * Registered instance lost the given vnodes, its weight went down.
+         */
+        VNODES_REMOVED,
+        /**
+         * Registered instance got other placement labels, no vnode moved.
+         */
+        RELABELLED
+    }
+}
@@ -0,0 +1,15 @@
+package com.dht.model;
+
+import java.util.List;
+
+/**
+ * Ring state exported by one router for others to apply, see {@link com.dht.NodeLocator#exportRingState}.
+ * A full state lists every instance as ADDED and replaces the receiver's ring, a delta holds the changes
+ * from fromVersion to toVersion in order. Encoded by {@link com.dht.RingStateCodec}.
+ *
+ * @param fromVersion  ring version the deltas apply to, equal to toVersion for a full state
+ * @param hashFunction the exporting locator's hash function, receivers must route with the same one
+ */
+public record RingState(boolean full, long fromVersion, long toVersion, String hashFunction,
+                        List<RingDelta> deltas) {
+}
@@ -0,0 +1,9 @@
+package com.dht.model;
+
+public record RouteCacheStats(long hits, long misses, int capacity) {
+
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,56 @@
+package com.dht.model;
+
+import com.google.common.hash.HashFunction;
+import lombok.EqualsAndHashCode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * A key that caches its hash, so routing it again for retries, replicas or metrics skips hashing. The
+ * hash is kept for the hash function it was last computed with, locators pass theirs. Instances may be
+ * shared between threads, racing first routes at worst hash the key more than once.
+ */
+@EqualsAndHashCode
+public final class RoutingKey {
+    private final String key;
+    @EqualsAndHashCode.Exclude
+    private CachedHash cachedHash;
+
+    private record CachedHash(HashFunction hashFunction, Hash128Bit hash) {
+    }
+
+    public RoutingKey(final String key) {
+        this.key = Objects.requireNonNull(key, "key");
+    }
+
+    public static RoutingKey of(final String key) {
+        return new RoutingKey(key);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Hash of the UTF-8 encoded key under the hash function, computed on first use and then cached.
+     */
+    public Hash128Bit hash(final HashFunction hashFunction) {
+        //read once, the record is published whole through its final fields
+        CachedHash cached = this.cachedHash;
+        if (Objects.nonNull(cached) && (cached.hashFunction() == hashFunction
+                || cached.hashFunction().equals(hashFunction))) {
+            return cached.hash();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(hashFunction.hashString(key, StandardCharsets.UTF_8).asBytes());
+        Hash128Bit hash = new Hash128Bit(buffer.getLong(), buffer.getLong());
+        this.cachedHash = new CachedHash(hashFunction, hash);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
@@ -0,0 +1,20 @@
+package com.dht.model;
+
+import java.util.Objects;
+
+/**
+ * Placement labels of an instance, e.g. its availability zone and the rack within it. Zone-aware selection
+ * spreads the owners of a key across distinct zones, the rack is carried along for callers.
+ *
+ * @param rack null when unknown
+ */
+public record Topology(String zone, String rack) {
+
+    public Topology {
+        Objects.requireNonNull(zone, "zone");
+    }
+
+    public Topology(String zone) {
+        this(zone, null);
+    }
+}
@@ -1,25 +1,48 @@
 package com.dht;
 
+import com.dht.model.Hash128Bit;
+import com.dht.model.HashRange;
+import com.dht.model.HotKeyStats;
 import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceLoadShare;
+import com.dht.model.InstanceRegistration;
 import com.dht.model.RangeInstanceInfo;
+import com.dht.model.RangeTransfer;
+import com.dht.model.RingChangeEvent;
+import com.dht.model.RouteCacheStats;
+import com.dht.model.RoutingKey;
 import com.google.common.base.Stopwatch;
 import lombok.val;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.openmbean.TabularData;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ConsistentHasherV1Test {
@@ -201,6 +224,107 @@ class ConsistentHasherV1Test {
         assertTrue(instance2.getInstanceId().equals("instance1") || instance2.getInstanceId().equals("instance2"));
     }
 
+    @Test
+    void test_routeToIndex() {
+        registerInstances(nodeLocator, 3);
+        nodeLocator.deregisterInstance("instance1");
+        registerInstance(nodeLocator, 5);
+        assertEquals(-1, new ConsistentHasherV1().routeToIndex("key1"));
+        for (int i = 0; i < 1_000; i++) {
+            String key = "key" + i;
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            val instance = nodeLocator.route(key);
+            assertEquals(instance, nodeLocator.getInstance(nodeLocator.routeToIndex(key)));
+            assertEquals(instance, nodeLocator.getInstance(nodeLocator.routeToIndex(bytes, 0, bytes.length)));
+            assertEquals(instance, nodeLocator.route(bytes, 0, bytes.length));
+        }
+    }
+
+    static void assertRegisterAndDeregister(NodeLocator nodeLocator) {
+        assertNull(nodeLocator.route("key1"));
+        assertEquals(-1, nodeLocator.routeToIndex("key1"));
+        nodeLocator.registerInstance("instance1", "host1", 8080);
+        nodeLocator.registerInstance("instance1", "host1", 8080);
+        assertEquals(1, nodeLocator.getInstanceList().size());
+        assertEquals("instance1", nodeLocator.route("key1").getInstanceId());
+        nodeLocator.deregisterInstance("instance1");
+        assertTrue(nodeLocator.getInstanceList().isEmpty());
+        assertNull(nodeLocator.route("key1"));
+    }
+
+    static void assertRouteOverloadsAgree(NodeLocator nodeLocator) {
+        registerInstances(nodeLocator, 10);
+        for (int i = 0; i < 10_000; i++) {
+            String key = "key" + i;
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            InstanceInfo instance = nodeLocator.route(key);
+            assertSame(instance, nodeLocator.route(new StringBuilder(key)));
+            assertSame(instance, nodeLocator.route(bytes, 0, bytes.length));
+            assertSame(instance, nodeLocator.getInstance(nodeLocator.routeToIndex(key)));
+            assertSame(instance, nodeLocator.getInstance(nodeLocator.routeToIndex(bytes, 0, bytes.length)));
+        }
+    }
+
+    @Test
+    void test_routeAll() {
+        registerInstances(nodeLocator, 10);
+        for (int keyCount : new int[]{0, 10, 1_000, 50_000}) {
+            String[] keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = "key" + i;
+            }
+            int[] instanceIdxArr = nodeLocator.routeAllToIndex(keys, ForkJoinPool.commonPool());
+            val keysByOwner = nodeLocator.routeAll(Arrays.asList(keys));
+            int groupedKeyCount = 0;
+            for (val entry : keysByOwner.entrySet()) {
+                for (String key : entry.getValue()) {
+                    assertEquals(entry.getKey(), nodeLocator.route(key));
+                    groupedKeyCount++;
+                }
+            }
+            assertEquals(keyCount, groupedKeyCount);
+            for (int i = 0; i < keyCount; i++) {
+                assertEquals(nodeLocator.routeToIndex(keys[i]), instanceIdxArr[i]);
+            }
+        }
+        assertTrue(new ConsistentHasherV1().routeAll(new String[]{"key1"}).isEmpty());
+    }
+
+    @Test
+    void test_weightedInstances() {
+        nodeLocator.registerInstance("instance0", "host0", 8080);
+        nodeLocator.registerInstance("instance1", "host1", 8080, 3);
+        val routeCountsMap = generateLoad(nodeLocator, 100_000);
+        assertTrue(routeCountsMap.get("instance1") > 70_000);
+        assertTrue(routeCountsMap.get("instance0") > 20_000);
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.registerInstance("instance2", "host2", 8080, 0));
+    }
+
+    @Test
+    void test_weightChangeMovesOnlyDeltaKeys() {
+        registerInstances(nodeLocator, 4);
+        List<InstanceInfo> before = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            before.add(nodeLocator.route("key" + i));
+        }
+
+        nodeLocator.registerInstance("instance0", "host0", 8080, 2);
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            val instance = nodeLocator.route("key" + i);
+            if (!instance.equals(before.get(i))) {
+                assertEquals("instance0", instance.getInstanceId());
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_000);
+
+        nodeLocator.registerInstance("instance0", "host0", 8080, 1);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(before.get(i), nodeLocator.route("key" + i));
+        }
+    }
+
     @Test
     void test_multipleInstances_equalDistribution() {
         int instanceCount = 3;
@@ -268,6 +392,514 @@ class ConsistentHasherV1Test {
         }
     }
 
+    @Test
+    void test_boundedLoad() {
+        assertBoundedLoad(nodeLocator);
+    }
+
+    /**
+     * Ten hot keys would pile onto at most ten owners, under bounded loads no instance may hold more
+     * than ceil((1 + epsilon) x average) in-flight requests, and released tokens restore plain routing.
+     */
+    static void assertBoundedLoad(NodeLocator nodeLocator) {
+        registerInstances(nodeLocator, 4);
+        LoadToken untracked = nodeLocator.acquire("hot0");
+        assertEquals(nodeLocator.route("hot0"), untracked.getInstanceInfo());
+        untracked.close();
+
+        nodeLocator.enableBoundedLoad(0.25);
+        List<LoadToken> loadTokens = new ArrayList<>();
+        Map<String, Integer> inFlight = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            LoadToken loadToken = nodeLocator.acquire("hot" + (i % 10));
+            assertEquals(loadToken.getInstanceInfo(), nodeLocator.getInstance(loadToken.getInstanceIdx()));
+            loadTokens.add(loadToken);
+            inFlight.merge(loadToken.getInstanceInfo().getInstanceId(), 1, Integer::sum);
+        }
+        assertEquals(4, inFlight.size());
+        inFlight.values().forEach(load -> assertTrue(load <= Math.ceil(1.25 * 1000 / 4), "load " + load));
+
+        loadTokens.forEach(LoadToken::close);
+        loadTokens.get(0).close();
+        nodeLocator.disableBoundedLoad();
+        val plainOwners = Arrays.stream(new String[]{"hot0", "hot1", "hot2"}).map(nodeLocator::route).toList();
+        nodeLocator.enableBoundedLoad(0.25);
+        assertEquals(plainOwners, Arrays.stream(new String[]{"hot0", "hot1", "hot2"}).map(nodeLocator::route).toList());
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.enableBoundedLoad(0));
+    }
+
+    @Test
+    void test_routeN() {
+        assertRouteN(nodeLocator);
+        //on a ring removing a replica only promotes the ones behind it
+        List<InstanceInfo> replicas = nodeLocator.routeN("key1", 4);
+        nodeLocator.deregisterInstance(replicas.get(1).getInstanceId());
+        assertEquals(List.of(replicas.get(0), replicas.get(2), replicas.get(3)), nodeLocator.routeN("key1", 3));
+    }
+
+    static void assertRouteN(NodeLocator nodeLocator) {
+        assertTrue(nodeLocator.routeN("key1", 3).isEmpty());
+        registerInstances(nodeLocator, 5);
+        InstanceInfo[] out = new InstanceInfo[5];
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            List<InstanceInfo> replicas = nodeLocator.routeN(key, 3);
+            assertEquals(3, replicas.size());
+            assertEquals(3, new HashSet<>(replicas).size());
+            assertEquals(nodeLocator.route(key), replicas.get(0));
+            assertEquals(5, nodeLocator.routeN(key, 5, out));
+            assertEquals(replicas, Arrays.asList(out).subList(0, 3));
+
+            //hashed once, routed from the cached hash
+            RoutingKey routingKey = RoutingKey.of(key);
+            assertEquals(replicas.get(0), nodeLocator.route(routingKey));
+            assertEquals(replicas.get(0), nodeLocator.getInstance(nodeLocator.routeToIndex(routingKey)));
+            assertEquals(3, nodeLocator.routeN(routingKey, 3, out));
+            assertEquals(replicas, Arrays.asList(out).subList(0, 3));
+        }
+        assertEquals(5, nodeLocator.routeN("key1", 8).size());
+        assertEquals(0, nodeLocator.routeN("key1", 0, out));
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.routeN("key1", 6, out));
+    }
+
+    @Test
+    void test_ownershipRangesAndPlans() {
+        assertOwnershipRangesAndPlans(nodeLocator);
+    }
+
+    static void assertOwnershipRangesAndPlans(NodeLocator nodeLocator) {
+        assertEquals(0, nodeLocator.getOwnershipRanges().count());
+        List<RangeTransfer> firstPlan = nodeLocator.planRegister("instance0", "host0", 8080).toList();
+        assertEquals(1, firstPlan.size());
+        assertNull(firstPlan.get(0).fromInstance());
+        assertEquals(firstPlan.get(0).startRange(), firstPlan.get(0).endRange());
+        assertEquals(0, nodeLocator.getOwnershipRanges().count());
+
+        registerInstances(nodeLocator, 5);
+        List<RangeInstanceInfo> ranges = nodeLocator.getOwnershipRanges().toList();
+        for (int i = 0; i < ranges.size(); i++) {
+            RangeInstanceInfo range = ranges.get(i);
+            RangeInstanceInfo previous = ranges.get(i == 0 ? ranges.size() - 1 : i - 1);
+            assertEquals(previous.endRange(), range.startRange());
+            Hash128Bit end = range.endRange();
+            assertEquals(range.instanceInfo(), nodeLocator.route(end.getHigh(), end.getLow()));
+            if (i > 0) {
+                assertNotEquals(previous.instanceInfo(), range.instanceInfo());
+            }
+        }
+
+        assertPlanMatchesChurn(nodeLocator, nodeLocator.planRegister("instance5", "host5", 8080).toList(),
+                               () -> registerInstance(nodeLocator, 5));
+        assertPlanMatchesChurn(nodeLocator, nodeLocator.planRegister("instance2", "host2", 8080, 3).toList(),
+                               () -> nodeLocator.registerInstance("instance2", "host2", 8080, 3));
+        assertPlanMatchesChurn(nodeLocator, nodeLocator.planDeregister("instance1").toList(),
+                               () -> nodeLocator.deregisterInstance("instance1"));
+        assertEquals(0, nodeLocator.planDeregister("instance1").count());
+        assertEquals(0, nodeLocator.planRegister("instance0", "host0", 8080).count());
+    }
+
+    /**
+     * A hash changes owner across the churn exactly when a planned transfer covers it.
+     */
+    private static void assertPlanMatchesChurn(NodeLocator nodeLocator, List<RangeTransfer> plan, Runnable churn) {
+        assertTrue(plan.size() > 0);
+        Random random = new Random(7);
+        long[][] hashes = new long[20_000][];
+        InstanceInfo[] owners = new InstanceInfo[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = new long[]{random.nextLong(), random.nextLong()};
+            owners[i] = nodeLocator.route(hashes[i][0], hashes[i][1]);
+        }
+        churn.run();
+        for (int i = 0; i < hashes.length; i++) {
+            InstanceInfo owner = nodeLocator.route(hashes[i][0], hashes[i][1]);
+            Hash128Bit hash = new Hash128Bit(hashes[i][0], hashes[i][1]);
+            RangeTransfer transfer = plan.stream().filter(rangeTransfer -> covers(rangeTransfer, hash)).findFirst()
+                                         .orElse(null);
+            if (transfer == null) {
+                assertEquals(owners[i], owner);
+            } else {
+                assertEquals(transfer.fromInstance(), owners[i]);
+                assertEquals(transfer.toInstance(), owner);
+            }
+        }
+    }
+
+    private static boolean covers(RangeTransfer rangeTransfer, Hash128Bit hash) {
+        return covers(rangeTransfer.startRange(), rangeTransfer.endRange(), hash);
+    }
+
+    private static boolean covers(Hash128Bit startRange, Hash128Bit endRange, Hash128Bit hash) {
+        int startCmp = hash.compareTo(startRange);
+        int endCmp = hash.compareTo(endRange);
+        int order = startRange.compareTo(endRange);
+        if (order < 0) {
+            return startCmp > 0 && endCmp <= 0;
+        }
+        return order == 0 || startCmp > 0 || endCmp <= 0;
+    }
+
+    @Test
+    void test_applyChanges() {
+        assertBatchMatchesSequential(nodeLocator, new ConsistentHasherV1());
+    }
+
+    /**
+     * A batch leaves the ring exactly as the same calls made one by one, deregistrations first.
+     */
+    static void assertBatchMatchesSequential(NodeLocator batch, NodeLocator sequential) {
+        List<InstanceRegistration> registrations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            registrations.add(new InstanceRegistration("instance" + i, "host" + i, 8080));
+        }
+        batch.registerInstances(registrations);
+        registerInstances(sequential, 10);
+        assertSameRouting(batch, sequential);
+
+        batch.applyChanges(List.of(new InstanceRegistration("instance10", "host10", 8080),
+                                   new InstanceRegistration("instance3", "host3", 8080, 2),
+                                   new InstanceRegistration("instance4", "host4b", 8080),
+                                   new InstanceRegistration("instance7", "host7", 8080)),
+                           List.of("instance1", "instance4", "instance11"), null);
+        sequential.deregisterInstance("instance1");
+        sequential.deregisterInstance("instance4");
+        sequential.registerInstance("instance10", "host10", 8080);
+        sequential.registerInstance("instance3", "host3", 8080, 2);
+        sequential.registerInstance("instance4", "host4b", 8080);
+        assertSameRouting(batch, sequential);
+
+        batch.applyChanges(List.of(new InstanceRegistration("instance3", "host3", 8080)), List.of("instance5"),
+                           ForkJoinPool.commonPool());
+        sequential.deregisterInstance("instance5");
+        sequential.registerInstance("instance3", "host3", 8080);
+        batch.deregisterInstances(List.of("instance0", "instance2"));
+        sequential.deregisterInstance("instance0");
+        sequential.deregisterInstance("instance2");
+        assertSameRouting(batch, sequential);
+
+        List<InstanceRegistration> duplicates = List.of(new InstanceRegistration("instance20", "host20", 8080),
+                                                        new InstanceRegistration("instance20", "host20", 8080, 2));
+        assertThrows(IllegalArgumentException.class, () -> batch.registerInstances(duplicates));
+        assertThrows(IllegalArgumentException.class,
+                     () -> batch.registerInstances(List.of(new InstanceRegistration("instance20", "host20", 8080, 0))));
+        assertSameRouting(batch, sequential);
+    }
+
+    private static void assertSameRouting(NodeLocator actual, NodeLocator expected) {
+        assertEquals(new HashSet<>(expected.getInstanceList()), new HashSet<>(actual.getInstanceList()));
+        for (int i = 0; i < 20_000; i++) {
+            InstanceInfo owner = actual.route("key" + i);
+            assertEquals(expected.route("key" + i), owner);
+            assertEquals(owner, actual.getInstance(actual.routeToIndex("key" + i)));
+        }
+    }
+
+    @Test
+    void test_routeCache() {
+        assertRouteCache(nodeLocator);
+    }
+
+    @Test
+    void test_metrics() throws JMException {
+        LocatorMetrics metrics = assertMetrics(nodeLocator, "ConsistentHasherV1Test");
+        //single threaded, every route validates its optimistic read
+        assertEquals(20_000, metrics.getOptimisticReadSuccessCount() + metrics.getOptimisticReadFallbackCount());
+    }
+
+    /**
+     * Routes are counted per owner, write locks are timed and the MXBean lives as long as the metrics.
+     */
+    static LocatorMetrics assertMetrics(NodeLocator nodeLocator, String name) throws JMException {
+        assertNull(nodeLocator.getMetrics());
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.enableMetrics("bad:name"));
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.enableMetrics("*"));
+        LocatorMetrics metrics = nodeLocator.enableMetrics(name);
+        assertSame(metrics, nodeLocator.getMetrics());
+        registerInstances(nodeLocator, 5);
+        nodeLocator.deregisterInstance("instance4");
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            expected.merge(nodeLocator.route("key" + i).getInstanceId(), 1L, Long::sum);
+            nodeLocator.routeToIndex("key" + i);
+        }
+        expected.replaceAll((instanceId, routeCount) -> 2 * routeCount);
+        assertEquals(expected, metrics.getRouteCounts());
+        assertEquals(6, metrics.getWriteLockCount());
+        assertTrue(metrics.getWriteLockHoldP50() <= metrics.getWriteLockHoldMax());
+        assertTrue(metrics.getRouteLatencySampleCount() > 0);
+        assertTrue(metrics.getRouteLatencyP50() <= metrics.getRouteLatencyP999());
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(6L, mBeanServer.getAttribute(metrics.getObjectName(), "WriteLockCount"));
+        assertEquals(expected.size(),
+                     ((TabularData) mBeanServer.getAttribute(metrics.getObjectName(), "RouteCounts")).size());
+        nodeLocator.disableMetrics();
+        assertNull(nodeLocator.getMetrics());
+        assertFalse(mBeanServer.isRegistered(metrics.getObjectName()));
+        return metrics;
+    }
+
+    /**
+     * Hot keys are served from the cache and a membership change is never answered with the old owner.
+     */
+    static void assertRouteCache(NodeLocator nodeLocator) {
+        assertNull(nodeLocator.getRouteCacheStats());
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.enableRouteCache(0));
+        registerInstances(nodeLocator, 5);
+        Map<String, InstanceInfo> owners = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            owners.put("hot" + i, nodeLocator.route("hot" + i));
+        }
+
+        nodeLocator.enableRouteCache(100);
+        assertEquals(new RouteCacheStats(0, 0, 128), nodeLocator.getRouteCacheStats());
+        for (int i = 0; i < 1000; i++) {
+            String key = "hot" + (i % 10);
+            assertEquals(owners.get(key), nodeLocator.route(key));
+            assertEquals(owners.get(key), nodeLocator.getInstance(nodeLocator.routeToIndex(key)));
+        }
+        RouteCacheStats stats = nodeLocator.getRouteCacheStats();
+        assertEquals(2000, stats.hits() + stats.misses());
+        assertTrue(stats.hitRate() > 0.9, "hit rate " + stats.hitRate());
+
+        InstanceInfo removed = owners.get("hot0");
+        nodeLocator.deregisterInstance(removed.getInstanceId());
+        nodeLocator.disableRouteCache();
+        InstanceInfo expected = nodeLocator.route("hot0");
+        nodeLocator.enableRouteCache(100);
+        nodeLocator.route("hot0");
+        nodeLocator.registerInstance(removed.getInstanceId(), removed.getHost(), removed.getPort());
+        nodeLocator.deregisterInstance(removed.getInstanceId());
+        assertEquals(expected, nodeLocator.route("hot0"));
+        assertEquals(expected, nodeLocator.getInstance(nodeLocator.routeToIndex("hot0")));
+        nodeLocator.disableRouteCache();
+        assertNull(nodeLocator.getRouteCacheStats());
+    }
+
+    @Test
+    void test_ringChanges() throws InterruptedException {
+        assertRingChanges(nodeLocator, true);
+        //V2 hands its vnode changes over the same way, under its read-write lock
+        assertRingChanges(new ConsistentHasherV2(), true);
+    }
+
+    /**
+     * Every change that moves ownership is one event in version order, a subscriber that stops requesting
+     * never holds up writers.
+     */
+    static void assertRingChanges(NodeLocator nodeLocator, boolean hasRanges) throws InterruptedException {
+        registerInstances(nodeLocator, 3);
+        BlockingQueue<RingChangeEvent> events = new LinkedBlockingQueue<>();
+        nodeLocator.ringChanges().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(RingChangeEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        List<Flow.Subscription> stalled = new ArrayList<>();
+        nodeLocator.ringChanges().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                stalled.add(subscription);
+            }
+
+            @Override
+            public void onNext(RingChangeEvent event) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        InstanceInfo instance3 = new InstanceInfo("instance3", "host3", 8080);
+        List<RangeTransfer> plan = hasRanges
+                ? nodeLocator.planRegister("instance3", "host3", 8080).toList()
+                : List.of();
+        registerInstance(nodeLocator, 3);
+        RingChangeEvent added = events.poll(10, TimeUnit.SECONDS);
+        assertEquals(new RingChangeEvent(added.version(), List.of(instance3), List.of(), List.of(), plan), added);
+
+        registerInstance(nodeLocator, 3);
+        nodeLocator.registerInstance("instance0", "host0", 8080, 2);
+        RingChangeEvent resized = events.poll(10, TimeUnit.SECONDS);
+        assertEquals(List.of(new InstanceInfo("instance0", "host0", 8080)), resized.resizedInstances());
+        assertTrue(resized.addedInstances().isEmpty() && resized.removedInstances().isEmpty());
+        assertTrue(resized.version() > added.version());
+        assertEquals(hasRanges, !resized.rangeTransfers().isEmpty());
+
+        plan = hasRanges ? nodeLocator.planDeregister("instance1").toList() : List.of();
+        nodeLocator.applyChanges(List.of(new InstanceRegistration("instance4", "host4", 8080)), List.of("instance1"));
+        RingChangeEvent batch = events.poll(10, TimeUnit.SECONDS);
+        assertEquals(List.of(new InstanceInfo("instance4", "host4", 8080)), batch.addedInstances());
+        assertEquals(List.of(new InstanceInfo("instance1", "host1", 8080)), batch.removedInstances());
+        assertTrue(batch.version() > resized.version());
+        if (hasRanges) {
+            assertTrue(plan.stream().allMatch(transfer -> transfer.fromInstance().getInstanceId().equals("instance1")));
+            assertTrue(batch.rangeTransfers().stream()
+                               .anyMatch(transfer -> transfer.toInstance().getInstanceId().equals("instance4")));
+        }
+
+        //far more changes than the stalled subscriber's buffer holds, they queue up until it goes away
+        for (int i = 0; i < 1000; i++) {
+            nodeLocator.deregisterInstance("instance4");
+            registerInstance(nodeLocator, 4);
+        }
+        stalled.forEach(Flow.Subscription::cancel);
+        RingChangeEvent last = null;
+        for (int i = 0; i < 2000; i++) {
+            last = events.poll(10, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of(new InstanceInfo("instance4", "host4", 8080)), last.addedInstances());
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void test_ringDigest() {
+        assertRingDigest(nodeLocator, new ConsistentHasherV2());
+        assertRingDigest(new ConsistentHasherV2(), new ConsistentHasherV1());
+    }
+
+    /**
+     * Digests agree exactly when the rings do, whether maintained from the start or built late, and the
+     * divergent ranges cover every vnode one ring has and the other lacks.
+     */
+    static void assertRingDigest(NodeLocator nodeLocator, NodeLocator peer) {
+        assertEquals(0L, nodeLocator.getRingDigest().root());
+        registerInstances(nodeLocator, 10);
+        registerInstances(peer, 10);
+        assertEquals(nodeLocator.getRingVersion(), nodeLocator.getRingDigest().version());
+        assertEquals(peer.getRingDigest().root(), nodeLocator.getRingDigest().root());
+        assertEquals(List.of(), nodeLocator.getRingDigest().divergentRanges(peer.getRingDigest()::nodeHashes));
+
+        List<RangeTransfer> plan = nodeLocator.planRegister("instance3", "host3", 8080, 2).toList();
+        nodeLocator.registerInstance("instance3", "host3", 8080, 2);
+        RingDigest remote = peer.getRingDigest();
+        int[] exchangedNodes = new int[1];
+        List<HashRange> divergent = nodeLocator.getRingDigest().divergentRanges(nodeIds -> {
+            exchangedNodes[0] += nodeIds.length;
+            return remote.nodeHashes(nodeIds);
+        });
+        for (RangeTransfer transfer : plan) {
+            assertTrue(divergent.stream().anyMatch(range -> covers(range.startRange(), range.endRange(),
+                                                                   transfer.endRange())));
+        }
+        assertTrue(divergent.size() <= 420);
+        assertTrue(exchangedNodes[0] <= 2 * 420 * RingDigest.DEPTH + 1);
+        peer.registerInstance("instance3", "host3", 8080, 2);
+        assertEquals(peer.getRingDigest().root(), nodeLocator.getRingDigest().root());
+
+        long root = nodeLocator.getRingDigest().root();
+        nodeLocator.deregisterInstance("instance5");
+        assertNotEquals(root, nodeLocator.getRingDigest().root());
+        registerInstance(nodeLocator, 5);
+        assertEquals(root, nodeLocator.getRingDigest().root());
+        nodeLocator.deregisterInstance("instance5");
+        nodeLocator.registerInstance("instance5", "otherHost5", 8080);
+        assertNotEquals(root, nodeLocator.getRingDigest().root());
+
+        //a single vnode apart, the descent follows one path down the tree
+        NodeLocator single = new ConsistentHasherV1(null, 1);
+        NodeLocator singlePeer = new ConsistentHasherV1(null, 1);
+        registerInstances(single, 2);
+        registerInstances(singlePeer, 2);
+        single.getRingDigest();
+        RangeTransfer added = single.planRegister("instance2", "host2", 8080).toList().get(0);
+        registerInstance(single, 2);
+        exchangedNodes[0] = 0;
+        divergent = single.getRingDigest().divergentRanges(nodeIds -> {
+            exchangedNodes[0] += nodeIds.length;
+            return singlePeer.getRingDigest().nodeHashes(nodeIds);
+        });
+        assertEquals(1, divergent.size());
+        assertTrue(covers(divergent.get(0).startRange(), divergent.get(0).endRange(), added.endRange()));
+        assertEquals(2 * RingDigest.DEPTH + 1, exchangedNodes[0]);
+        assertThrows(IllegalArgumentException.class, () -> remote.nodeHashes(new int[]{2 * RingDigest.BUCKET_CNT}));
+    }
+
+    @Test
+    void test_hotKeys() {
+        assertHotKeys(nodeLocator);
+    }
+
+    /**
+     * Two keys taking 30% of the routes are found under their owners, whose load ratios stand out, while the
+     * rest of the routes spread over the instances in proportion to the hash space they own.
+     */
+    static void assertHotKeys(NodeLocator nodeLocator) {
+        registerInstances(nodeLocator, 5);
+        assertNull(nodeLocator.getHotKeyStats(2));
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.enableHotKeyTracking(0, 256));
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.enableHotKeyTracking(0.5, 0));
+        nodeLocator.enableHotKeyTracking(0.25, 256);
+        Random random = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            int draw = random.nextInt(30);
+            String key = draw < 6 ? "hot0" : draw < 9 ? "hot1" : "key" + random.nextInt(100_000);
+            if (i % 2 == 0) {
+                nodeLocator.route(key);
+            } else {
+                nodeLocator.route(RoutingKey.of(key));
+            }
+        }
+        HotKeyStats stats = nodeLocator.getHotKeyStats(2);
+        assertEquals(0.25, stats.sampleRate());
+        assertEquals(50_000, stats.sampledRoutes(), 2_000);
+        assertEquals(5, stats.instanceLoads().size());
+        assertEquals(1, stats.instanceLoads().stream().mapToDouble(InstanceLoadShare::observedShare).sum(), 1e-9);
+        assertEquals(1, stats.instanceLoads().stream().mapToDouble(InstanceLoadShare::expectedShare).sum(), 1e-9);
+        InstanceInfo hot0Owner = nodeLocator.route("hot0");
+        InstanceInfo hot1Owner = nodeLocator.route("hot1");
+        assertEquals(hot0Owner, stats.instanceLoads().get(0).instanceInfo());
+        for (InstanceLoadShare instanceLoad : stats.instanceLoads()) {
+            assertTrue(instanceLoad.hotKeys().size() <= 2);
+            if (instanceLoad.instanceInfo().equals(hot0Owner) || instanceLoad.instanceInfo().equals(hot1Owner)) {
+                assertTrue(instanceLoad.loadRatio() > 1.1);
+            } else {
+                assertEquals(0.7, instanceLoad.loadRatio(), 0.1);
+            }
+        }
+        Map<String, Long> hotKeys = new HashMap<>();
+        stats.instanceLoads().forEach(instanceLoad -> instanceLoad.hotKeys().forEach(
+                hotKey -> hotKeys.put(hotKey.key(), hotKey.estimatedRoutes())));
+        assertEquals(40_000, hotKeys.get("hot0"), 2_000);
+        assertEquals(20_000, hotKeys.get("hot1"), 2_000);
+        assertEquals(hot0Owner, stats.instanceLoads().stream()
+                                     .filter(instanceLoad -> instanceLoad.hotKeys().get(0).key().equals("hot0"))
+                                     .findFirst().orElseThrow().instanceInfo());
+
+        //"Aa" and "BB" share a String.hashCode() but not their counters
+        nodeLocator.enableHotKeyTracking(1, 256);
+        for (int i = 0; i < 1_000; i++) {
+            nodeLocator.route(i < 10 ? "BB" : "Aa");
+        }
+        Map<String, Long> collidingKeys = new HashMap<>();
+        nodeLocator.getHotKeyStats(2).instanceLoads().forEach(instanceLoad -> instanceLoad.hotKeys().forEach(
+                hotKey -> collidingKeys.put(hotKey.key(), hotKey.estimatedRoutes())));
+        assertEquals(990, collidingKeys.get("Aa"));
+        assertEquals(10, collidingKeys.get("BB"));
+
+        nodeLocator.disableHotKeyTracking();
+        assertNull(nodeLocator.getHotKeyStats(2));
+    }
+
     static void registerInstance(NodeLocator nodeLocator, int nodeId) {
         nodeLocator.registerInstance("instance" + nodeId, "host" + nodeId, 8080);
     }
@@ -0,0 +1,550 @@
+package com.dht;
+
+import com.dht.hash.XxHash64;
+import com.dht.model.InstanceInfo;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RingState;
+import com.dht.model.RoutingKey;
+import com.dht.model.Topology;
+import lombok.val;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+
+import static com.dht.ConsistentHasherV1Test.assertBatchMatchesSequential;
+import static com.dht.ConsistentHasherV1Test.assertBoundedLoad;
+import static com.dht.ConsistentHasherV1Test.assertHotKeys;
+import static com.dht.ConsistentHasherV1Test.assertOwnershipRangesAndPlans;
+import static com.dht.ConsistentHasherV1Test.assertMetrics;
+import static com.dht.ConsistentHasherV1Test.assertRouteCache;
+import static com.dht.ConsistentHasherV1Test.assertRingChanges;
+import static com.dht.ConsistentHasherV1Test.assertRouteN;
+import static com.dht.ConsistentHasherV1Test.assertRouteOverloadsAgree;
+import static com.dht.ConsistentHasherV1Test.generateLoad;
+import static com.dht.ConsistentHasherV1Test.registerInstance;
+import static com.dht.ConsistentHasherV1Test.registerInstances;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHasherV3Test {
+
+    private static final com.sun.management.ThreadMXBean tmxBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private NodeLocator nodeLocator;
+
+    @BeforeEach
+    void setUp() {
+        nodeLocator = new ConsistentHasherV3();
+    }
+
+    @Test
+    void test_register() {
+        nodeLocator.registerInstance("instance1", "host1", 8080);
+        nodeLocator.registerInstance("instance1", "host1", 8080);
+        List<InstanceInfo> instances = nodeLocator.getInstanceList();
+        assertEquals(1, instances.size());
+        assertEquals("instance1", instances.get(0).getInstanceId());
+        assertEquals("host1", instances.get(0).getHost());
+        assertEquals(8080, instances.get(0).getPort());
+        assertEquals(1, nodeLocator.getRingDetails().size());
+    }
+
+    @Test
+    void test_deregister() {
+        nodeLocator.registerInstance("instance1", "host1", 8080);
+        nodeLocator.deregisterInstance("instance1");
+        nodeLocator.deregisterInstance("instance1");
+        assertTrue(nodeLocator.getInstanceList().isEmpty());
+        assertTrue(nodeLocator.getRingDetails().isEmpty());
+        assertNull(nodeLocator.route("key1"));
+    }
+
+    @Test
+    void test_routeWithSingleInstance() {
+        nodeLocator.registerInstance("instance1", "host1", 8080);
+        val instance = nodeLocator.route("key1");
+        assertEquals("instance1", instance.getInstanceId());
+    }
+
+    @Test
+    void test_routeMatchesTreeMapRing() {
+        NodeLocator reference = new ConsistentHasherV1();
+        registerInstances(nodeLocator, 10);
+        registerInstances(reference, 10);
+        nodeLocator.deregisterInstance("instance3");
+        reference.deregisterInstance("instance3");
+        registerInstance(nodeLocator, 3);
+        registerInstance(reference, 3);
+        registerInstance(nodeLocator, 11);
+        registerInstance(reference, 11);
+        nodeLocator.registerInstance("instance5", "host5", 8080, 3);
+        reference.registerInstance("instance5", "host5", 8080, 3);
+        nodeLocator.registerInstance("instance5", "host5", 8080, 2);
+        reference.registerInstance("instance5", "host5", 8080, 2);
+
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(reference.route("key" + i), nodeLocator.route("key" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(reference.routeN("key" + i, 4), nodeLocator.routeN("key" + i, 4));
+        }
+    }
+
+    @Test
+    void test_routeCache() {
+        assertRouteCache(nodeLocator);
+    }
+
+    @Test
+    void test_hotKeys() {
+        assertHotKeys(nodeLocator);
+    }
+
+    @Test
+    void test_metrics() throws JMException {
+        LocatorMetrics metrics = assertMetrics(nodeLocator, "ConsistentHasherV3Test");
+        assertEquals(0, metrics.getOptimisticReadSuccessCount());
+    }
+
+    @Test
+    void test_ringChanges() throws InterruptedException {
+        assertRingChanges(nodeLocator, true);
+    }
+
+    @Test
+    void test_routeN() {
+        assertRouteN(nodeLocator);
+    }
+
+    @Test
+    void test_xxHash64Ring() {
+        //the thread-local fast paths of V3 agree with Guava's generic path taken by V1
+        NodeLocator reference = new ConsistentHasherV1(XxHash64.hashFunction());
+        nodeLocator = new ConsistentHasherV3(XxHash64.hashFunction());
+        registerInstances(reference, 10);
+        registerInstances(nodeLocator, 10);
+        String[] keys = new String[10_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+            InstanceInfo owner = reference.route(keys[i]);
+            byte[] bytes = keys[i].getBytes(StandardCharsets.UTF_8);
+            assertEquals(owner, nodeLocator.route(keys[i]));
+            assertEquals(owner, nodeLocator.route(bytes, 0, bytes.length));
+            assertEquals(owner, nodeLocator.route(RoutingKey.of(keys[i])));
+        }
+        int[] instanceIdxArr = nodeLocator.routeAllToIndex(keys);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(nodeLocator.routeToIndex(keys[i]), instanceIdxArr[i]);
+        }
+
+        Map<String, Integer> routeCounts = generateLoad(nodeLocator, 100_000);
+        assertEquals(10, routeCounts.size());
+        routeCounts.values().forEach(count -> assertTrue(Math.abs(count - 10_000) < 2_500, routeCounts.toString()));
+    }
+
+    @Test
+    void test_routeAcrossZones() {
+        String[] zones = {"zone-a", "zone-b", "zone-c"};
+        for (int i = 0; i < 9; i++) {
+            nodeLocator.registerInstance("instance" + i, "host" + i, 8080, 1, new Topology(zones[i % 3], "rack" + i));
+        }
+        assertEquals(new Topology("zone-b", "rack4"), nodeLocator.getTopology("instance4"));
+        assertNull(nodeLocator.getTopology("instance9"));
+        Map<String, List<InstanceInfo>> placements = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            String key = "key" + i;
+            List<InstanceInfo> owners = nodeLocator.routeAcrossZones(key, 5);
+            assertEquals(5, owners.size());
+            assertEquals(nodeLocator.route(key), owners.get(0));
+            assertEquals(3, owners.subList(0, 3).stream()
+                                  .map(owner -> nodeLocator.getTopology(owner.getInstanceId()).zone())
+                                  .distinct().count());
+            assertEquals(5, new HashSet<>(owners).size());
+            placements.put(key, owners.subList(0, 3));
+        }
+
+        //only keys placed on the removed instance move
+        nodeLocator.deregisterInstance("instance4");
+        InstanceInfo removed = new InstanceInfo("instance4", "host4", 8080);
+        placements.forEach((key, owners) -> {
+            if (!owners.contains(removed)) {
+                assertEquals(owners, nodeLocator.routeAcrossZones(key, 3));
+            }
+        });
+
+        //relabelling moves no range but changes placement
+        InstanceInfo owner = nodeLocator.route("key0");
+        nodeLocator.registerInstance(owner.getInstanceId(), owner.getHost(), owner.getPort(), 1,
+                                     new Topology("zone-d"));
+        assertEquals(owner, nodeLocator.route("key0"));
+        assertEquals(4, nodeLocator.routeAcrossZones("key0", 4).stream()
+                                   .map(instance -> nodeLocator.getTopology(instance.getInstanceId()).zone())
+                                   .distinct().count());
+        nodeLocator.registerInstance(owner.getInstanceId(), owner.getHost(), owner.getPort());
+        assertEquals(new Topology("zone-d"), nodeLocator.getTopology(owner.getInstanceId()));
+
+        //without labels the zone-aware walk is the replica walk
+        NodeLocator unlabelled = new ConsistentHasherV3();
+        registerInstances(unlabelled, 5);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(unlabelled.routeN("key" + i, 3), unlabelled.routeAcrossZones("key" + i, 3));
+        }
+        assertThrows(UnsupportedOperationException.class,
+                     () -> new ConsistentHasherV1().registerInstance("instance0", "host0", 8080, 1,
+                                                                     new Topology("zone-a")));
+    }
+
+    @Test
+    void test_markDown() {
+        registerInstances(nodeLocator, 10);
+        NodeLocator withoutInstance3 = new ConsistentHasherV3();
+        registerInstances(withoutInstance3, 10);
+        withoutInstance3.deregisterInstance("instance3");
+        List<InstanceInfo> owners = new ArrayList<>();
+        String[] keys = new String[20_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+            owners.add(nodeLocator.route(keys[i]));
+        }
+        val ranges = nodeLocator.getOwnershipRanges().toList();
+        nodeLocator.enableRouteCache(1024);
+        nodeLocator.route("key1");
+
+        //keys of a down instance go where deregistering it would send them, no other key moves
+        nodeLocator.markDown("instance3");
+        nodeLocator.markDown("instance3");
+        nodeLocator.markDown("instance42");
+        assertTrue(nodeLocator.isDown("instance3"));
+        assertEquals(ranges, nodeLocator.getOwnershipRanges().toList());
+        int[] instanceIdxArr = nodeLocator.routeAllToIndex(keys);
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            InstanceInfo expected = withoutInstance3.route(key);
+            assertEquals(expected, nodeLocator.route(key));
+            assertEquals(expected, nodeLocator.getInstance(nodeLocator.routeToIndex(key)));
+            assertEquals(expected, nodeLocator.getInstance(instanceIdxArr[i]));
+            assertEquals(expected, nodeLocator.route(RoutingKey.of(key)));
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            assertEquals(expected, nodeLocator.route(bytes, 0, bytes.length));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(withoutInstance3.routeN(keys[i], 3), nodeLocator.routeN(keys[i], 3));
+            assertEquals(withoutInstance3.routeAcrossZones(keys[i], 3), nodeLocator.routeAcrossZones(keys[i], 3));
+        }
+        nodeLocator.enableBoundedLoad(0.25);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse("instance3".equals(nodeLocator.acquire(keys[i]).getInstanceInfo().getInstanceId()));
+        }
+        nodeLocator.disableBoundedLoad();
+
+        nodeLocator.markUp("instance3");
+        assertFalse(nodeLocator.isDown("instance3"));
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(owners.get(i), nodeLocator.route(keys[i]));
+        }
+
+        //with every instance down keys keep their owners
+        registerInstances(nodeLocator, 10);
+        nodeLocator.getInstanceList().forEach(instance -> nodeLocator.markDown(instance.getInstanceId()));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(owners.get(i), nodeLocator.route(keys[i]));
+        }
+        nodeLocator.getInstanceList().forEach(instance -> nodeLocator.markUp(instance.getInstanceId()));
+
+        //a deregistered instance forgets it was down, the instance reusing its slot starts up
+        nodeLocator.markDown("instance5");
+        nodeLocator.deregisterInstance("instance5");
+        registerInstance(nodeLocator, 10);
+        assertFalse(nodeLocator.isDown("instance10"));
+        registerInstance(nodeLocator, 5);
+        assertFalse(nodeLocator.isDown("instance5"));
+        assertEquals(11, generateLoad(nodeLocator, 20_000).size());
+
+        assertThrows(UnsupportedOperationException.class, () -> new ConsistentHasherV1().markDown("instance1"));
+    }
+
+    @Test
+    void test_ringStateSync() {
+        //routers pull from the source through an in-process transport that carries nothing but bytes
+        NodeLocator source = nodeLocator;
+        LongFunction<RingState> transport = sinceVersion -> RingStateCodec.decode(
+                RingStateCodec.encode(source.exportRingState(sinceVersion)));
+        NodeLocator router = new ConsistentHasherV3();
+        router.applyRingState(transport.apply(router.getRingVersion()));
+        assertTrue(router.getInstanceList().isEmpty());
+
+        registerInstances(source, 20);
+        source.registerInstance("instance3", "host3", 8080, 3);
+        source.registerInstance("instance4", "host4", 8080, 1, new Topology("zone-a", "rack1"));
+        source.deregisterInstance("instance7");
+        source.applyChanges(List.of(new InstanceRegistration("instance7", "host7", 9090, 2),
+                                    new InstanceRegistration("instance8", "host8b", 8080)), List.of("instance9"));
+        source.registerInstance("instance3", "host3", 8080, 2);
+        source.registerInstance("instance5", "host5", 8080, 1, new Topology("zone-b"));
+        RingState changes = transport.apply(router.getRingVersion());
+        assertFalse(changes.full());
+        router.applyRingState(changes);
+        assertSameRing(source, router);
+        //nothing changed since
+        router.applyRingState(transport.apply(router.getRingVersion()));
+        assertSameRing(source, router);
+
+        //a delta must start at the receiver's version
+        NodeLocator stale = new ConsistentHasherV3();
+        registerInstance(stale, 1);
+        assertThrows(IllegalStateException.class, () -> stale.applyRingState(changes));
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ConsistentHasherV3(XxHash64.hashFunction()).applyRingState(changes));
+
+        //a router behind the recorded changes gets the whole ring
+        for (int i = 0; i < 1100; i++) {
+            registerInstance(source, 30 + i % 5);
+            source.deregisterInstance("instance" + (30 + (i + 2) % 5));
+        }
+        RingState full = transport.apply(router.getRingVersion());
+        assertTrue(full.full());
+        router.applyRingState(full);
+        assertSameRing(source, router);
+        NodeLocator joining = new ConsistentHasherV3();
+        joining.applyRingState(RingStateCodec.decode(RingStateCodec.encode(source.exportRingState())));
+        assertSameRing(source, joining);
+
+        //a full state's hashes travel as one Rice coded run, low words are left out in 64-bit ring mode
+        int vNodeCnt = source.getInstanceList().size() * 420 + 420 * 2;
+        assertTrue(RingStateCodec.encode(full).length < 31 * vNodeCnt / 2);
+        NodeLocator xxRing = new ConsistentHasherV3(XxHash64.hashFunction());
+        registerInstances(xxRing, 20);
+        assertTrue(RingStateCodec.encode(xxRing.exportRingState()).length < 15 * 420 * 20 / 2);
+        NodeLocator single = new ConsistentHasherV3(XxHash64.hashFunction());
+        registerInstance(single, 1);
+        NodeLocator singleCopy = new ConsistentHasherV3(XxHash64.hashFunction());
+        singleCopy.applyRingState(RingStateCodec.decode(RingStateCodec.encode(single.exportRingState())));
+        assertSameRing(single, singleCopy);
+        assertThrows(IllegalArgumentException.class, () -> RingStateCodec.decode(new byte[3]));
+        assertThrows(IllegalArgumentException.class,
+                     () -> RingStateCodec.decode(Arrays.copyOf(RingStateCodec.encode(full), 100)));
+    }
+
+    private static void assertSameRing(final NodeLocator expected, final NodeLocator actual) {
+        assertEquals(expected.getRingVersion(), actual.getRingVersion());
+        assertEquals(expected.getOwnershipRanges().toList(), actual.getOwnershipRanges().toList());
+        for (InstanceInfo instanceInfo : expected.getInstanceList()) {
+            assertEquals(expected.getTopology(instanceInfo.getInstanceId()),
+                         actual.getTopology(instanceInfo.getInstanceId()));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(expected.route("key" + i), actual.route("key" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(expected.routeAcrossZones("key" + i, 3), actual.routeAcrossZones("key" + i, 3));
+        }
+    }
+
+    @Test
+    void test_applyChanges() {
+        assertBatchMatchesSequential(nodeLocator, new ConsistentHasherV3());
+        //a batch against a TreeMap ring gives the same routing as against a snapshot ring
+        NodeLocator reference = new ConsistentHasherV1();
+        List<InstanceRegistration> registrations = new ArrayList<>();
+        for (InstanceInfo instanceInfo : nodeLocator.getInstanceList()) {
+            registrations.add(new InstanceRegistration(instanceInfo.getInstanceId(), instanceInfo.getHost(),
+                                                       instanceInfo.getPort()));
+        }
+        reference.registerInstances(registrations);
+        reference.registerInstance("instance3", "host3", 8080);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(reference.route("key" + i), nodeLocator.route("key" + i));
+        }
+
+        //batches that change nothing keep the version
+        nodeLocator.registerInstance("instance4", "host4", 8080, 1, new Topology("zone-a"));
+        long version = nodeLocator.getRingVersion();
+        nodeLocator.applyChanges(List.of(), List.of());
+        nodeLocator.applyChanges(List.of(new InstanceRegistration("instance3", "host3", 8080),
+                                         new InstanceRegistration("instance4", "host4", 8080, 1,
+                                                                  new Topology("zone-a"))),
+                                 List.of("unknown"));
+        nodeLocator.deregisterInstance("unknown");
+        assertEquals(version, nodeLocator.getRingVersion());
+        nodeLocator.applyChanges(List.of(new InstanceRegistration("instance4", "host4", 8080, 1,
+                                                                  new Topology("zone-b"))), List.of());
+        assertEquals(version + 1, nodeLocator.getRingVersion());
+    }
+
+    @Test
+    void test_ownershipRangesAndPlans() {
+        assertOwnershipRangesAndPlans(nodeLocator);
+    }
+
+    @Test
+    void test_routeOverloadsAgree() {
+        assertRouteOverloadsAgree(nodeLocator);
+        assertEquals(-1, new ConsistentHasherV3().routeToIndex("key1"));
+        assertNull(nodeLocator.getInstance(10));
+    }
+
+    @Test
+    void test_routeToIndexDoesNotAllocate() {
+        registerInstances(nodeLocator, 10);
+        StringBuilder key = new StringBuilder("key");
+        byte[] bytes = new byte[16];
+        long hashSum = 0;
+        //warm up so JIT compilation and the thread local hasher are not counted
+        for (int i = 0; i < 200_000; i++) {
+            hashSum += route(key, bytes, i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = tmxBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1_000_000; i++) {
+            hashSum += route(key, bytes, i);
+        }
+        long allocated = tmxBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertNotNull(nodeLocator.getInstance((int) (hashSum % 10)));
+        assertTrue(allocated < 1024, "route allocated " + allocated + " bytes");
+    }
+
+    private int route(final StringBuilder key, final byte[] bytes, final int ctr) {
+        key.setLength(3);
+        key.append(ctr);
+        bytes[0] = (byte) ctr;
+        bytes[1] = (byte) (ctr >>> 8);
+        bytes[2] = (byte) (ctr >>> 16);
+        return nodeLocator.routeToIndex(key)
+                + nodeLocator.routeToIndex(bytes, 0, bytes.length)
+                + nodeLocator.routeToIndex(ctr * 0x9E3779B97F4A7C15L, ctr);
+    }
+
+    @Test
+    void test_routeAll() {
+        registerInstances(nodeLocator, 10);
+        for (int keyCount : new int[]{0, 10, 1_000, 50_000}) {
+            String[] keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = "key" + i;
+            }
+            int[] instanceIdxArr = nodeLocator.routeAllToIndex(keys, ForkJoinPool.commonPool());
+            val keysByOwner = nodeLocator.routeAll(Arrays.asList(keys));
+            int groupedKeyCount = 0;
+            for (val entry : keysByOwner.entrySet()) {
+                for (String key : entry.getValue()) {
+                    assertEquals(entry.getKey(), nodeLocator.route(key));
+                    groupedKeyCount++;
+                }
+            }
+            assertEquals(keyCount, groupedKeyCount);
+            for (int i = 0; i < keyCount; i++) {
+                assertEquals(nodeLocator.routeToIndex(keys[i]), instanceIdxArr[i]);
+            }
+        }
+        assertTrue(new ConsistentHasherV3().routeAll(new String[]{"key1"}).isEmpty());
+    }
+
+    @Test
+    void test_weightedInstances() {
+        nodeLocator.registerInstance("instance0", "host0", 8080);
+        nodeLocator.registerInstance("instance1", "host1", 8080, 3);
+        val routeCountsMap = generateLoad(nodeLocator, 100_000);
+        assertTrue(routeCountsMap.get("instance1") > 70_000);
+        assertTrue(routeCountsMap.get("instance0") > 20_000);
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.registerInstance("instance2", "host2", 8080, 0));
+    }
+
+    @Test
+    void test_boundedLoad() {
+        assertBoundedLoad(nodeLocator);
+    }
+
+    @Test
+    void test_weightChangeMovesOnlyDeltaKeys() {
+        registerInstances(nodeLocator, 4);
+        List<InstanceInfo> before = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            before.add(nodeLocator.route("key" + i));
+        }
+
+        nodeLocator.registerInstance("instance0", "host0", 8080, 2);
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            val instance = nodeLocator.route("key" + i);
+            if (!instance.equals(before.get(i))) {
+                assertEquals("instance0", instance.getInstanceId());
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_000);
+
+        nodeLocator.registerInstance("instance0", "host0", 8080, 1);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(before.get(i), nodeLocator.route("key" + i));
+        }
+    }
+
+    @Test
+    void test_instanceDeregistration_equalDistributionOtherNodes() {
+        int instanceCount = 10;
+        long requestCount = 100_000;
+        registerInstances(nodeLocator, instanceCount);
+        nodeLocator.deregisterInstance("instance9");
+        assertEquals(9, nodeLocator.getInstanceList().size());
+
+        val routeCountsMap = generateLoad(nodeLocator, requestCount);
+        double minExpectedCount = (double) requestCount / (instanceCount - 1) * 0.9;
+        for (int i = 0; i < instanceCount - 1; i++) {
+            assertTrue(routeCountsMap.get("instance" + i) > minExpectedCount);
+        }
+    }
+
+    @Test
+    void testRouteWhileRegisteringInstances() throws InterruptedException {
+        registerInstances(nodeLocator, 4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threadList = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                long ctr = 0;
+                while (running.get()) {
+                    InstanceInfo instance = nodeLocator.route("key" + ctr++);
+                    Assertions.assertNotNull(instance.getInstanceId());
+                }
+            }, "RouteThreadId:" + i);
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            threadList.add(thread);
+            thread.start();
+        }
+
+        for (int i = 0; i < 500; i++) {
+            registerInstance(nodeLocator, 10 + i % 20);
+            nodeLocator.deregisterInstance("instance" + (10 + (i + 7) % 20));
+        }
+        running.set(false);
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty(), failures::toString);
+    }
+}
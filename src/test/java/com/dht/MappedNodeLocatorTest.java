@@ -0,0 +1,115 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import com.google.common.hash.Hashing;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.dht.ConsistentHasherV1Test.registerInstance;
+import static com.dht.ConsistentHasherV1Test.registerInstances;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedNodeLocatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void test_routesAsTheWrittenRing() throws IOException {
+        for (NodeLocator source : new NodeLocator[]{new ConsistentHasherV1(), new ConsistentHasherV2(),
+                new ConsistentHasherV3()}) {
+            registerInstances(source, 10);
+            source.deregisterInstance("instance4");
+            source.registerInstance("instance7", "host7", 8080, 2);
+            registerInstance(source, 12);
+            Path path = tempDir.resolve("ring.bin");
+            RingSnapshotFile.write(source, path);
+            MappedNodeLocator mapped = RingSnapshotFile.map(path);
+
+            assertEquals(source.getInstanceList().size(), mapped.getInstanceList().size());
+            assertEquals(source.getOwnershipRanges().toList(), mapped.getOwnershipRanges().toList());
+            for (int i = 0; i < 50_000; i++) {
+                String key = "key" + i;
+                assertEquals(source.route(key), mapped.route(key));
+                assertEquals(source.routeToIndex(key), mapped.routeToIndex(key));
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                assertEquals(source.route(key), mapped.route(bytes, 0, bytes.length));
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(source.routeN("key" + i, 3), mapped.routeN("key" + i, 3));
+            }
+            assertEquals(source.planDeregister("instance2").toList(), mapped.planDeregister("instance2").toList());
+        }
+    }
+
+    @Test
+    void test_offHeapCopy() {
+        ConsistentHasherV3 source = new ConsistentHasherV3();
+        registerInstances(source, 10);
+        source.registerInstance("instance3", "host3", 8080, 3);
+        MappedNodeLocator offHeap = RingSnapshotFile.offHeap(source);
+        assertEquals(source.ringSnapshot().version, offHeap.getRingVersion());
+        assertEquals(source.getOwnershipRanges().toList(), offHeap.getOwnershipRanges().toList());
+        for (int i = 0; i < 50_000; i++) {
+            assertEquals(source.route("key" + i), offHeap.route("key" + i));
+        }
+
+        //a copy, later changes to the source do not show
+        InstanceInfo owner = offHeap.route("key1");
+        source.deregisterInstance(owner.getInstanceId());
+        assertEquals(owner, offHeap.route("key1"));
+        assertThrows(UnsupportedOperationException.class, () -> registerInstance(offHeap, 11));
+        assertThrows(IllegalArgumentException.class, () -> RingSnapshotFile.offHeap(new MaglevHasher()));
+    }
+
+    @Test
+    void test_snapshotCarriesRingVersion() throws IOException {
+        ConsistentHasherV3 source = new ConsistentHasherV3();
+        Path path = tempDir.resolve("ring.bin");
+        RingSnapshotFile.write(source, path);
+        MappedNodeLocator empty = RingSnapshotFile.map(path);
+        assertNull(empty.route("key1"));
+        assertEquals(-1, empty.routeToIndex("key1"));
+        assertTrue(empty.routeN("key1", 2).isEmpty());
+
+        registerInstances(source, 3);
+        RingSnapshotFile.write(source, path);
+        MappedNodeLocator mapped = RingSnapshotFile.map(path);
+        assertEquals(source.ringSnapshot().version, mapped.getRingVersion());
+        assertTrue(mapped.getRingVersion() > empty.getRingVersion());
+        //the earlier mapping keeps routing over the file it mapped
+        assertNull(empty.route("key1"));
+    }
+
+    @Test
+    void test_readOnly() throws IOException {
+        NodeLocator source = new ConsistentHasherV3();
+        registerInstances(source, 3);
+        Path path = tempDir.resolve("ring.bin");
+        RingSnapshotFile.write(source, path);
+        MappedNodeLocator mapped = RingSnapshotFile.map(path);
+        assertThrows(UnsupportedOperationException.class, () -> registerInstance(mapped, 5));
+        assertThrows(UnsupportedOperationException.class, () -> mapped.deregisterInstance("instance1"));
+        InstanceInfo owner = mapped.route("key1");
+        assertEquals(source.route("key1"), owner);
+    }
+
+    @Test
+    void test_rejectsUnsupportedInput() throws IOException {
+        NodeLocator custom = new ConsistentHasherV3(Hashing.sha256());
+        Path path = tempDir.resolve("ring.bin");
+        assertThrows(IllegalArgumentException.class, () -> RingSnapshotFile.write(custom, path));
+        assertThrows(IllegalArgumentException.class, () -> RingSnapshotFile.write(new MaglevHasher(), path));
+
+        Files.write(path, new byte[64]);
+        assertThrows(IOException.class, () -> RingSnapshotFile.map(path));
+    }
+}
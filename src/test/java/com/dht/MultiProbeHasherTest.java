@@ -0,0 +1,132 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.dht.ConsistentHasherV1Test.assertBatchMatchesSequential;
+import static com.dht.ConsistentHasherV1Test.assertRegisterAndDeregister;
+import static com.dht.ConsistentHasherV1Test.assertRingChanges;
+import static com.dht.ConsistentHasherV1Test.assertRouteN;
+import static com.dht.ConsistentHasherV1Test.assertRouteOverloadsAgree;
+import static com.dht.ConsistentHasherV1Test.generateLoad;
+import static com.dht.ConsistentHasherV1Test.registerInstance;
+import static com.dht.ConsistentHasherV1Test.registerInstances;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiProbeHasherTest {
+
+    private static final int KEY_COUNT = 100_000;
+
+    private NodeLocator nodeLocator;
+
+    @BeforeEach
+    void setUp() {
+        nodeLocator = new MultiProbeHasher();
+    }
+
+    @Test
+    void test_registerAndDeregister() {
+        assertRegisterAndDeregister(nodeLocator);
+        assertThrows(UnsupportedOperationException.class, nodeLocator::getRingDetails);
+        assertThrows(UnsupportedOperationException.class, nodeLocator::getOwnershipRanges);
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.registerInstance("instance2", "host2", 80, 0));
+        assertThrows(IllegalArgumentException.class, () -> new MultiProbeHasher(0));
+    }
+
+    @Test
+    void test_routeOverloadsAgree() {
+        assertRouteOverloadsAgree(nodeLocator);
+    }
+
+    @Test
+    void test_applyChanges() {
+        assertBatchMatchesSequential(nodeLocator, new MultiProbeHasher());
+    }
+
+    @Test
+    void test_ringChanges() throws InterruptedException {
+        assertRingChanges(nodeLocator, false);
+    }
+
+    @Test
+    void test_routeN() {
+        assertRouteN(nodeLocator);
+        //the owner's point stays the closest to the key's probes, the replicas behind a removed one move up
+        List<InstanceInfo> replicas = nodeLocator.routeN("key1", 4);
+        nodeLocator.deregisterInstance(replicas.get(1).getInstanceId());
+        assertEquals(List.of(replicas.get(0), replicas.get(2), replicas.get(3)), nodeLocator.routeN("key1", 3));
+    }
+
+    /**
+     * With one point per instance the probes alone keep the peak-to-mean ratio close to that of a ring
+     * with 420 vnodes per instance.
+     */
+    @Test
+    void test_balanceComparableToVNodes() {
+        int instanceCount = 50;
+        NodeLocator ring = new ConsistentHasherV1();
+        registerInstances(nodeLocator, instanceCount);
+        registerInstances(ring, instanceCount);
+        double multiProbePeakToMean = peakToMean(generateLoad(nodeLocator, KEY_COUNT * 5), instanceCount);
+        double ringPeakToMean = peakToMean(generateLoad(ring, KEY_COUNT * 5), instanceCount);
+        System.out.println("peak to mean, multi-probe: " + multiProbePeakToMean + ", 420 vnodes: " + ringPeakToMean);
+        assertTrue(multiProbePeakToMean < 1.15, "multi-probe peak to mean " + multiProbePeakToMean);
+        assertTrue(multiProbePeakToMean < ringPeakToMean + 0.05, multiProbePeakToMean + " vs " + ringPeakToMean);
+
+        //a single probe is plain consistent hashing with one point per instance
+        NodeLocator singleProbe = new MultiProbeHasher(1);
+        registerInstances(singleProbe, instanceCount);
+        assertTrue(peakToMean(generateLoad(singleProbe, KEY_COUNT * 5), instanceCount) > 2);
+    }
+
+    private static double peakToMean(Map<String, Integer> routeCounts, int instanceCount) {
+        int peak = routeCounts.values().stream().mapToInt(Integer::intValue).max().orElseThrow();
+        return peak / ((double) routeCounts.values().stream().mapToInt(Integer::intValue).sum() / instanceCount);
+    }
+
+    @Test
+    void test_weightedInstances() {
+        nodeLocator.registerInstance("instance0", "host0", 8080);
+        nodeLocator.registerInstance("instance1", "host1", 8080, 3);
+        val routeCountsMap = generateLoad(nodeLocator, KEY_COUNT);
+        assertTrue(routeCountsMap.get("instance1") > KEY_COUNT * 0.7);
+        assertTrue(routeCountsMap.get("instance0") > KEY_COUNT * 0.2);
+
+        nodeLocator.registerInstance("instance1", "host1", 8080, 1);
+        val rebalancedCountsMap = generateLoad(nodeLocator, KEY_COUNT);
+        assertTrue(rebalancedCountsMap.get("instance0") > KEY_COUNT * 0.45);
+    }
+
+    @Test
+    void test_churnMovesOnlyTheChangedInstancesKeys() {
+        registerInstances(nodeLocator, 10);
+        InstanceInfo[] before = routeKeys(nodeLocator);
+        nodeLocator.deregisterInstance("instance3");
+        InstanceInfo[] afterRemove = routeKeys(nodeLocator);
+        registerInstance(nodeLocator, 10);
+        InstanceInfo[] afterAdd = routeKeys(nodeLocator);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (!"instance3".equals(before[i].getInstanceId())) {
+                assertEquals(before[i], afterRemove[i]);
+            }
+            if (!"instance10".equals(afterAdd[i].getInstanceId())) {
+                assertEquals(afterRemove[i], afterAdd[i]);
+            }
+        }
+    }
+
+    private static InstanceInfo[] routeKeys(NodeLocator nodeLocator) {
+        InstanceInfo[] owners = new InstanceInfo[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            owners[i] = nodeLocator.route("key" + i);
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,147 @@
+package com.dht;
+
+import com.dht.model.InstanceInfo;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.dht.ConsistentHasherV1Test.assertBatchMatchesSequential;
+import static com.dht.ConsistentHasherV1Test.assertRegisterAndDeregister;
+import static com.dht.ConsistentHasherV1Test.assertRingChanges;
+import static com.dht.ConsistentHasherV1Test.assertRouteN;
+import static com.dht.ConsistentHasherV1Test.assertRouteOverloadsAgree;
+import static com.dht.ConsistentHasherV1Test.generateLoad;
+import static com.dht.ConsistentHasherV1Test.registerInstance;
+import static com.dht.ConsistentHasherV1Test.registerInstances;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RendezvousHasherTest {
+
+    private static final int KEY_COUNT = 100_000;
+
+    private NodeLocator nodeLocator;
+
+    @BeforeEach
+    void setUp() {
+        nodeLocator = new RendezvousHasher();
+    }
+
+    @Test
+    void test_registerAndDeregister() {
+        assertRegisterAndDeregister(nodeLocator);
+        assertThrows(UnsupportedOperationException.class, nodeLocator::getRingDetails);
+        assertThrows(IllegalArgumentException.class, () -> nodeLocator.registerInstance("instance2", "host2", 80, 0));
+    }
+
+    @Test
+    void test_routeOverloadsAgree() {
+        assertRouteOverloadsAgree(nodeLocator);
+    }
+
+    @Test
+    void test_applyChanges() {
+        assertBatchMatchesSequential(nodeLocator, new RendezvousHasher());
+    }
+
+    @Test
+    void test_ringChanges() throws InterruptedException {
+        assertRingChanges(nodeLocator, false);
+    }
+
+    @Test
+    void test_routeN() {
+        assertRouteN(nodeLocator);
+    }
+
+    @Test
+    void test_replicasArePromotedOnDeregistration() {
+        registerInstances(nodeLocator, 8);
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            List<InstanceInfo> replicas = nodeLocator.routeN(key, 3);
+            nodeLocator.deregisterInstance(replicas.get(0).getInstanceId());
+            assertEquals(replicas.subList(1, 3), nodeLocator.routeN(key, 2));
+            nodeLocator.registerInstance(replicas.get(0).getInstanceId(), replicas.get(0).getHost(), 8080);
+        }
+    }
+
+    @Test
+    void test_equalDistribution() {
+        int instanceCount = 10;
+        registerInstances(nodeLocator, instanceCount);
+        val routeCountsMap = generateLoad(nodeLocator, KEY_COUNT);
+        for (int i = 0; i < instanceCount; i++) {
+            int routeCount = routeCountsMap.get("instance" + i);
+            assertTrue(Math.abs(routeCount - KEY_COUNT / instanceCount) < KEY_COUNT / instanceCount * 0.05,
+                       "instance" + i + ": " + routeCount);
+        }
+    }
+
+    @Test
+    void test_weightedInstances() {
+        nodeLocator.registerInstance("instance0", "host0", 8080);
+        nodeLocator.registerInstance("instance1", "host1", 8080, 3);
+        val routeCountsMap = generateLoad(nodeLocator, KEY_COUNT);
+        assertTrue(routeCountsMap.get("instance1") > KEY_COUNT * 0.73);
+        assertTrue(routeCountsMap.get("instance0") > KEY_COUNT * 0.23);
+
+        nodeLocator.registerInstance("instance1", "host1", 8080, 1);
+        val rebalancedCountsMap = generateLoad(nodeLocator, KEY_COUNT);
+        assertTrue(rebalancedCountsMap.get("instance0") > KEY_COUNT * 0.48);
+    }
+
+    @Test
+    void test_churnMovesOnlyTheChangedInstancesKeys() {
+        registerInstances(nodeLocator, 10);
+        InstanceInfo[] before = routeKeys(nodeLocator);
+        nodeLocator.deregisterInstance("instance3");
+        InstanceInfo[] afterRemove = routeKeys(nodeLocator);
+        registerInstance(nodeLocator, 10);
+        InstanceInfo[] afterAdd = routeKeys(nodeLocator);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (!"instance3".equals(before[i].getInstanceId())) {
+                assertEquals(before[i], afterRemove[i]);
+            }
+            if (!"instance10".equals(afterAdd[i].getInstanceId())) {
+                assertEquals(afterRemove[i], afterAdd[i]);
+            }
+        }
+    }
+
+    @Test
+    void test_weightChangeMovesOnlyTheChangedInstancesKeys() {
+        registerInstances(nodeLocator, 10);
+        InstanceInfo[] before = routeKeys(nodeLocator);
+        List<InstanceInfo> replicas = nodeLocator.routeN("key1", 10);
+        nodeLocator.registerInstance("instance3", "host3", 8080, 2);
+        InstanceInfo[] weighted = routeKeys(nodeLocator);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (!"instance3".equals(weighted[i].getInstanceId())) {
+                assertEquals(before[i], weighted[i]);
+            }
+        }
+        //the other instances keep their replica order
+        List<InstanceInfo> weightedReplicas = new ArrayList<>(nodeLocator.routeN("key1", 10));
+        weightedReplicas.removeIf(instance -> instance.getInstanceId().equals("instance3"));
+        assertEquals(replicas.stream().filter(instance -> !instance.getInstanceId().equals("instance3")).toList(),
+                     weightedReplicas);
+
+        nodeLocator.registerInstance("instance3", "host3", 8080, 1);
+        assertArrayEquals(before, routeKeys(nodeLocator));
+        assertEquals(replicas, nodeLocator.routeN("key1", 10));
+    }
+
+    private static InstanceInfo[] routeKeys(NodeLocator nodeLocator) {
+        InstanceInfo[] owners = new InstanceInfo[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            owners[i] = nodeLocator.route("key" + i);
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,100 @@
+package com.dht;
+
+import com.dht.model.ChurnReport;
+import com.dht.model.InstanceRegistration;
+import com.dht.model.RingBalance;
+import com.google.common.hash.Hashing;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingAnalyzerTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void test_fractionOf() {
+        assertEquals(0.5, RingAnalyzer.fractionOf(0, 0, Long.MIN_VALUE, 0));
+        assertEquals(0.5, RingAnalyzer.fractionOf(Long.MIN_VALUE, 0, 0, 0));
+        assertEquals(0.25, RingAnalyzer.fractionOf(-1, -1, 0x3FFFFFFFFFFFFFFFL, -1));
+        assertEquals(1, RingAnalyzer.fractionOf(42, 7, 42, 7));
+    }
+
+    @Test
+    void test_balance() {
+        List<InstanceRegistration> instances = instances(10);
+        NodeLocator v1 = new ConsistentHasherV1();
+        NodeLocator v3 = new ConsistentHasherV3();
+        NodeLocator maglev = new MaglevHasher();
+        for (NodeLocator nodeLocator : new NodeLocator[]{v1, v3, maglev}) {
+            nodeLocator.registerInstances(instances);
+            RingBalance balance = RingAnalyzer.balance(nodeLocator);
+            assertEquals(10, balance.ownedFractions().size());
+            assertEquals(1, balance.ownedFractions().values().stream().mapToDouble(Double::doubleValue).sum(),
+                         EPSILON);
+            assertTrue(balance.minLoadRatio() <= 1 && balance.maxLoadRatio() >= 1);
+        }
+        assertEquals(RingAnalyzer.balance(v1), RingAnalyzer.balance(v3));
+        assertTrue(RingAnalyzer.balance(maglev).maxLoadRatio() < 1.01);
+        assertThrows(IllegalArgumentException.class, () -> RingAnalyzer.balance(new ConsistentHasherV3()));
+    }
+
+    @Test
+    void test_moreVNodesBalanceBetter() {
+        List<InstanceRegistration> instances = instances(20);
+        double previousStdDev = Double.MAX_VALUE;
+        for (int vNodeCnt : new int[]{10, 100, 1000}) {
+            NodeLocator nodeLocator = new ConsistentHasherV3(Hashing.murmur3_128(), vNodeCnt);
+            nodeLocator.registerInstances(instances);
+            RingBalance balance = RingAnalyzer.balance(nodeLocator);
+            assertTrue(balance.loadRatioStdDev() < previousStdDev, vNodeCnt + " vnodes: " + balance);
+            previousStdDev = balance.loadRatioStdDev();
+        }
+    }
+
+    @Test
+    void test_churn() {
+        List<InstanceRegistration> instances = instances(10);
+        for (Supplier<NodeLocator> factory : List.<Supplier<NodeLocator>>of(ConsistentHasherV1::new,
+                                                                            ConsistentHasherV3::new)) {
+            //a ring only moves what the added instances own afterwards
+            ChurnReport added = RingAnalyzer.simulateAdd(factory, instances, 2);
+            assertEquals(2.0 / 12, added.minimalFraction(), EPSILON);
+            assertEquals(added.after().ownedFractions().get("added-0") + added.after().ownedFractions().get("added-1"),
+                         added.movedFraction(), EPSILON);
+            assertTrue(added.excessRatio() < 1.5, added.toString());
+
+            ChurnReport removed = RingAnalyzer.simulateRemove(factory, instances, 3);
+            assertEquals(0.3, removed.minimalFraction(), EPSILON);
+            assertEquals(7, removed.after().ownedFractions().size());
+            assertTrue(removed.excessRatio() > 0.5 && removed.excessRatio() < 1.5, removed.toString());
+
+            NodeLocator reference = factory.get();
+            reference.registerInstances(instances);
+            double ownedBefore = RingAnalyzer.balance(reference).ownedFractions().get("instance0");
+            ChurnReport reweighted = RingAnalyzer.simulateWeightChange(factory, instances, "instance0", 3);
+            assertEquals(3.0 / 12 - 1.0 / 10, reweighted.minimalFraction(), EPSILON);
+            assertEquals(reweighted.after().ownedFractions().get("instance0") - ownedBefore,
+                         reweighted.movedFraction(), EPSILON);
+        }
+        ChurnReport maglev = RingAnalyzer.simulateAdd(MaglevHasher::new, instances, 1);
+        assertTrue(maglev.movedFraction() >= maglev.minimalFraction() - 0.01, maglev.toString());
+        assertTrue(maglev.excessRatio() < 1.5, maglev.toString());
+        assertThrows(IllegalArgumentException.class,
+                     () -> RingAnalyzer.simulateRemove(ConsistentHasherV3::new, instances, 10));
+    }
+
+    private static List<InstanceRegistration> instances(int instanceCnt) {
+        List<InstanceRegistration> instances = new ArrayList<>();
+        for (int i = 0; i < instanceCnt; i++) {
+            instances.add(new InstanceRegistration("instance" + i, "host" + i, 8080));
+        }
+        return instances;
+    }
+}
@@ -0,0 +1,62 @@
+package com.dht.hash;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Murmur3HasherTest {
+
+    private static final HashFunction GUAVA_MURMUR3 = Hashing.murmur3_128();
+
+    private final Murmur3Hasher hasher = new Murmur3Hasher();
+
+    @Test
+    void test_bytesMatchGuava() {
+        Random random = new Random(42);
+        for (int len = 0; len < 100; len++) {
+            byte[] bytes = new byte[len + 7];
+            random.nextBytes(bytes);
+            assertSameHash(GUAVA_MURMUR3.hashBytes(bytes, 3, len).asBytes(), hasher.hash(bytes, 3, len));
+        }
+    }
+
+    @Test
+    void test_charSequenceMatchesGuava() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(40);
+            for (int j = 0; j < len; j++) {
+                switch (random.nextInt(5)) {
+                    case 0 -> sb.append((char) random.nextInt(0x80));
+                    case 1 -> sb.append((char) (0x80 + random.nextInt(0x780)));
+                    case 2 -> sb.append((char) (0x800 + random.nextInt(0xd000)));
+                    case 3 -> sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                    default -> sb.append((char) (0xd800 + random.nextInt(0x800))); //unpaired surrogate
+                }
+            }
+            String key = sb.toString();
+            assertSameHash(GUAVA_MURMUR3.hashString(key, StandardCharsets.UTF_8).asBytes(), hasher.hash(sb));
+        }
+    }
+
+    @Test
+    void test_routingKeys() {
+        for (int i = 0; i < 1_000; i++) {
+            String key = "key" + i;
+            assertSameHash(GUAVA_MURMUR3.hashString(key, StandardCharsets.UTF_8).asBytes(), hasher.hash(key));
+        }
+    }
+
+    private static void assertSameHash(final byte[] expected, final Murmur3Hasher actual) {
+        ByteBuffer buffer = ByteBuffer.wrap(expected);
+        assertEquals(buffer.getLong(), actual.high());
+        assertEquals(buffer.getLong(), actual.low());
+    }
+}
@@ -0,0 +1,72 @@
+package com.dht.hash;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class XxHash64Test {
+
+    private final XxHash64 hasher = new XxHash64();
+
+    @Test
+    void test_referenceValues() {
+        assertEquals(0xef46db3751d8e999L, hash(""));
+        assertEquals(0x44bc2cf5ad770999L, hash("abc"));
+        //longer than one 32-byte stripe
+        assertEquals(0xfbcea83c8a378bf1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    void test_charSequenceMatchesUtf8Bytes() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(80);
+            for (int j = 0; j < len; j++) {
+                switch (random.nextInt(5)) {
+                    case 0 -> sb.append((char) random.nextInt(0x80));
+                    case 1 -> sb.append((char) (0x80 + random.nextInt(0x780)));
+                    case 2 -> sb.append((char) (0x800 + random.nextInt(0xd000)));
+                    case 3 -> sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                    default -> sb.append((char) (0xd800 + random.nextInt(0x800))); //unpaired surrogate
+                }
+            }
+            byte[] bytes = ("xx" + sb).getBytes(StandardCharsets.UTF_8);
+            assertEquals(hasher.hash(bytes, 2, bytes.length - 2).value(), hasher.hash(sb).value());
+        }
+    }
+
+    @Test
+    void test_hashFunction() {
+        HashFunction hashFunction = XxHash64.hashFunction();
+        for (int len = 0; len < 100; len++) {
+            byte[] bytes = new byte[len];
+            new Random(len).nextBytes(bytes);
+            long expected = hasher.hash(bytes, 0, len).value();
+            assertHash(expected, hashFunction.hashBytes(bytes));
+            assertHash(expected, hashFunction.hashBytes(ByteBuffer.wrap(bytes)));
+            assertHash(expected, hashFunction.newHasher().putBytes(bytes, 0, len / 2)
+                                             .putBytes(bytes, len / 2, len - len / 2).hash());
+        }
+        assertHash(hash("key1"), hashFunction.hashString("key1", StandardCharsets.UTF_8));
+        assertHash(hash("key1"), hashFunction.hashString("key1", StandardCharsets.US_ASCII));
+        byte[] littleEndian = {4, 3, 2, 1};
+        assertHash(hasher.hash(littleEndian, 0, 4).value(), hashFunction.hashInt(0x01020304));
+    }
+
+    private long hash(final String chars) {
+        return hasher.hash(chars).value();
+    }
+
+    private static void assertHash(final long expected, final HashCode hashCode) {
+        ByteBuffer buffer = ByteBuffer.wrap(hashCode.asBytes());
+        assertEquals(expected, buffer.getLong());
+        assertEquals(0L, buffer.getLong());
+    }
+}